@@ -0,0 +1,197 @@
+/**
+ * What happens to the local video track while the app is in the background. "release", the
+ * default, unpublishes and releases the track so other apps can use the camera. "pause" only
+ * stops the capturer and disables the track, so the publication and every subscription
+ * survive and resuming skips the camera reopen and the renegotiation. In both modes the time
+ * from resume to the first captured frame is measured. Only touched on the main thread.
+ */
+package com.actiotech.twiliovideorn;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+import com.twilio.video.LocalVideoTrack;
+import com.twilio.video.VideoFormat;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import tvi.webrtc.VideoFrame;
+import tvi.webrtc.VideoSink;
+
+public class BackgroundVideoController {
+
+    public interface Listener {
+        /*
+         * The first frame after a resume was captured.
+         */
+        void onResumed(WritableMap event);
+    }
+
+    public static final String MODE_RELEASE = "release";
+    public static final String MODE_PAUSE = "pause";
+
+    // A camera that delivers nothing for this long after a resume is not measured
+    private static final int FIRST_FRAME_TIMEOUT_MS = 5000;
+
+    private static final class ResumeStats {
+        long resumes = 0;
+        long measured = 0;
+        long totalMs = 0;
+        long lastMs = -1;
+
+        void add(long ms) {
+            measured++;
+            totalMs += ms;
+            lastMs = ms;
+        }
+
+        WritableMap toMap() {
+            WritableMap map = new WritableNativeMap();
+            map.putDouble("resumes", resumes);
+            map.putDouble("lastResumeToFirstFrameMs", lastMs);
+            map.putDouble("averageResumeToFirstFrameMs", measured > 0 ? totalMs / (double) measured : 0);
+            return map;
+        }
+    }
+
+    private final Handler mainThreadHandler = new Handler(Looper.getMainLooper());
+    private final Listener listener;
+    private String mode = MODE_RELEASE;
+
+    private boolean paused = false;
+    private boolean enabledBeforePause = true;
+
+    // One-shot sink waiting for the first frame after the last resume
+    @Nullable
+    private LocalVideoTrack probedTrack;
+    @Nullable
+    private VideoSink probe;
+    private final Runnable probeTimeout = this::removeProbe;
+
+    private final ResumeStats releaseStats = new ResumeStats();
+    private final ResumeStats pauseStats = new ResumeStats();
+
+    public BackgroundVideoController(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void setMode(@Nullable String mode) {
+        this.mode = MODE_PAUSE.equals(mode) ? MODE_PAUSE : MODE_RELEASE;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /*
+     * In pause mode stop capturing and disable the track, returning false in release mode so
+     * the caller releases the track.
+     */
+    public boolean pause(LocalVideoTrack track, @Nullable CameraCapturerCompat capturer) {
+        if (!MODE_PAUSE.equals(mode) || capturer == null) {
+            return false;
+        }
+        removeProbe();
+        enabledBeforePause = track.isEnabled();
+        track.enable(false);
+        try {
+            capturer.stopCapture();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        paused = true;
+        return true;
+    }
+
+    /*
+     * Restart capturing on a track paused in the background, at the current capture format.
+     * Returns false when nothing was paused.
+     */
+    public boolean resume(@Nullable LocalVideoTrack track, @Nullable CameraCapturerCompat capturer,
+                          VideoFormat format) {
+        if (!paused) {
+            return false;
+        }
+        paused = false;
+        if (track == null || capturer == null) {
+            return false;
+        }
+        long resumedAtMs = SystemClock.elapsedRealtime();
+        capturer.startCapture(format.dimensions.width, format.dimensions.height, format.framerate);
+        track.enable(enabledBeforePause);
+        pauseStats.resumes++;
+        measureFirstFrame(track, resumedAtMs, MODE_PAUSE);
+        return true;
+    }
+
+    /*
+     * A track recreated on resume after being released in the background.
+     */
+    public void onRecreated(LocalVideoTrack track, long resumedAtMs) {
+        releaseStats.resumes++;
+        measureFirstFrame(track, resumedAtMs, MODE_RELEASE);
+    }
+
+    /*
+     * The track is going away for good, nothing is resumed or measured anymore.
+     */
+    public void clear() {
+        paused = false;
+        removeProbe();
+    }
+
+    private void measureFirstFrame(final LocalVideoTrack track, final long resumedAtMs, final String resumedMode) {
+        removeProbe();
+        final AtomicBoolean seen = new AtomicBoolean(false);
+        final VideoSink sink = new VideoSink() {
+            @Override
+            public void onFrame(VideoFrame frame) {
+                if (!seen.compareAndSet(false, true)) {
+                    return;
+                }
+                final long firstFrameMs = SystemClock.elapsedRealtime() - resumedAtMs;
+                // A sink cannot be removed from inside its own onFrame
+                mainThreadHandler.post(() -> onFirstFrame(this, resumedMode, firstFrameMs));
+            }
+        };
+        probedTrack = track;
+        probe = sink;
+        PatchedVideoView.addSink(track, sink);
+        mainThreadHandler.postDelayed(probeTimeout, FIRST_FRAME_TIMEOUT_MS);
+    }
+
+    private void onFirstFrame(VideoSink sink, String resumedMode, long firstFrameMs) {
+        if (sink != probe) {
+            return;
+        }
+        removeProbe();
+        (MODE_PAUSE.equals(resumedMode) ? pauseStats : releaseStats).add(firstFrameMs);
+        WritableMap event = new WritableNativeMap();
+        event.putString("mode", resumedMode);
+        event.putDouble("resumeToFirstFrameMs", firstFrameMs);
+        listener.onResumed(event);
+    }
+
+    private void removeProbe() {
+        mainThreadHandler.removeCallbacks(probeTimeout);
+        if (probedTrack != null && probe != null) {
+            PatchedVideoView.removeSink(probedTrack, probe);
+        }
+        probedTrack = null;
+        probe = null;
+    }
+
+    public WritableMap getMetrics() {
+        WritableMap metrics = new WritableNativeMap();
+        metrics.putString("mode", mode);
+        metrics.putBoolean("paused", paused);
+        metrics.putMap("release", releaseStats.toMap());
+        metrics.putMap("pause", pauseStats.toMap());
+        return metrics;
+    }
+}
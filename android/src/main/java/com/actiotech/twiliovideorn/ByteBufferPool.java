@@ -0,0 +1,81 @@
+/**
+ * Bounded pool of direct ByteBuffers bucketed by power-of-two capacity, so binary
+ * data track messages do not allocate a fresh native buffer for every send.
+ */
+package com.actiotech.twiliovideorn;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+public class ByteBufferPool {
+
+    private static final int MIN_BUCKET_SHIFT = 8;   // 256 bytes
+    private static final int MAX_BUCKET_SHIFT = 20;  // 1 MiB
+
+    private final ArrayDeque<ByteBuffer>[] buckets;
+    private final int maxBuffersPerBucket;
+
+    private long hitCount = 0;
+    private long missCount = 0;
+
+    @SuppressWarnings("unchecked")
+    public ByteBufferPool(int maxBuffersPerBucket) {
+        this.maxBuffersPerBucket = maxBuffersPerBucket;
+        buckets = new ArrayDeque[MAX_BUCKET_SHIFT - MIN_BUCKET_SHIFT + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new ArrayDeque<>();
+        }
+    }
+
+    /*
+     * Returns a cleared direct buffer with at least the given capacity and its limit set to it.
+     */
+    public synchronized ByteBuffer acquire(int size) {
+        int bucket = bucketFor(size);
+        if (bucket < 0) {
+            missCount++;
+            return ByteBuffer.allocateDirect(size);
+        }
+        ByteBuffer buffer = buckets[bucket].pollFirst();
+        if (buffer == null) {
+            missCount++;
+            buffer = ByteBuffer.allocateDirect(1 << (bucket + MIN_BUCKET_SHIFT));
+        } else {
+            hitCount++;
+        }
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    public synchronized void release(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            return;
+        }
+        int capacity = buffer.capacity();
+        int bucket = bucketFor(capacity);
+        // Only buffers handed out by acquire have an exact power-of-two capacity
+        if (bucket < 0 || capacity != 1 << (bucket + MIN_BUCKET_SHIFT)) {
+            return;
+        }
+        if (buckets[bucket].size() < maxBuffersPerBucket) {
+            buckets[bucket].addFirst(buffer);
+        }
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    private static int bucketFor(int size) {
+        int shift = Math.max(MIN_BUCKET_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(1, size - 1)));
+        if (shift > MAX_BUCKET_SHIFT) {
+            return -1;
+        }
+        return shift - MIN_BUCKET_SHIFT;
+    }
+}
@@ -2,63 +2,96 @@
 package com.actiotech.twiliovideorn;
 
 import android.content.Context;
-import android.graphics.ImageFormat;
-import android.hardware.camera2.CameraCharacteristics;
-import android.hardware.camera2.CameraManager;
-import android.hardware.camera2.CameraMetadata;
-import android.hardware.camera2.params.StreamConfigurationMap;
-import android.os.Build;
-import androidx.annotation.RequiresApi;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import com.twilio.video.Camera2Capturer;
 import com.twilio.video.CameraCapturer;
 import com.twilio.video.VideoCapturer;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import tvi.webrtc.Camera1Enumerator;
-import tvi.webrtc.Camera2Enumerator;
-import tvi.webrtc.CameraEnumerationAndroid;
 import tvi.webrtc.CapturerObserver;
 import tvi.webrtc.SurfaceTextureHelper;
 
 /*
- * Simple wrapper class that uses Camera2Capturer with supported devices.
+ * Simple wrapper class that uses Camera2Capturer with supported devices. Camera ids and
+ * capabilities come from the process wide CameraRegistry.
  */
 public class CameraCapturerCompat implements VideoCapturer {
     private final CameraCapturer camera1Capturer;
     private final Camera2Capturer camera2Capturer;
     private final VideoCapturer activeCapturer;
-    private final Map<Source, String> camera1IdMap = new HashMap<>();
-    private final Map<String, Source> camera1SourceMap = new HashMap<>();
-    private final Map<Source, String> camera2IdMap = new HashMap<>();
-    private final Map<String, Source> camera2SourceMap = new HashMap<>();
-    private CameraManager cameraManager;
+    private final CameraRegistry cameraRegistry;
+    @Nullable
+    private SwitchListener switchListener;
 
     public enum Source {
         FRONT_CAMERA,
         BACK_CAMERA
     }
 
+    public interface SwitchListener {
+        /*
+         * The capturer is delivering frames of the new camera.
+         */
+        void onCameraSwitched(@Nullable Source source);
+
+        /*
+         * The capturer reported an error, during a switch or not.
+         */
+        void onCameraError(String message);
+    }
+
     public CameraCapturerCompat(Context context, Source cameraSource) {
-        if (Camera2Capturer.isSupported(context) && isLollipopApiSupported()) {
-            cameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
-            setCamera2Maps(context);
-            camera2Capturer = new Camera2Capturer(context, camera2IdMap.get(cameraSource));
+        cameraRegistry = CameraRegistry.get(context);
+        if (cameraRegistry.usesCamera2()) {
+            camera2Capturer = new Camera2Capturer(context, cameraRegistry.getCameraId(cameraSource),
+                    new Camera2Capturer.Listener() {
+                        @Override
+                        public void onFirstFrameAvailable() {
+                        }
+
+                        @Override
+                        public void onCameraSwitched(@NonNull String newCameraId) {
+                            notifySwitched(newCameraId);
+                        }
+
+                        @Override
+                        public void onError(@NonNull Camera2Capturer.Exception exception) {
+                            notifyError(String.valueOf(exception.getMessage()));
+                        }
+                    });
             activeCapturer = camera2Capturer;
             camera1Capturer = null;
         } else {
-            setCamera1Maps();
-            camera1Capturer = new CameraCapturer(context, camera1IdMap.get(cameraSource));
+            camera1Capturer = new CameraCapturer(context, cameraRegistry.getCameraId(cameraSource),
+                    new CameraCapturer.Listener() {
+                        @Override
+                        public void onFirstFrameAvailable() {
+                        }
+
+                        @Override
+                        public void onCameraSwitched(@NonNull String newCameraId) {
+                            notifySwitched(newCameraId);
+                        }
+
+                        @Override
+                        public void onError(int errorCode) {
+                            notifyError("Camera error " + errorCode);
+                        }
+                    });
             activeCapturer = camera1Capturer;
             camera2Capturer = null;
         }
     }
 
+    public void setSwitchListener(@Nullable SwitchListener switchListener) {
+        this.switchListener = switchListener;
+    }
+
     public Source getCameraSource() {
         if (usingCamera1()) {
-            return camera1SourceMap.get(camera1Capturer.getCameraId());
+            return cameraRegistry.getSource(camera1Capturer.getCameraId());
         } else {
-            return camera2SourceMap.get(camera2Capturer.getCameraId());
+            return cameraRegistry.getSource(camera2Capturer.getCameraId());
         }
     }
 
@@ -80,6 +113,11 @@ public class CameraCapturerCompat implements VideoCapturer {
         activeCapturer.stopCapture();
     }
 
+    @Override
+    public void changeCaptureFormat(int width, int height, int framerate) {
+        activeCapturer.changeCaptureFormat(width, height, framerate);
+    }
+
     @Override
     public boolean isScreencast() {
         return activeCapturer.isScreencast();
@@ -90,13 +128,16 @@ public class CameraCapturerCompat implements VideoCapturer {
         activeCapturer.dispose();
     }
 
+    /*
+     * Start switching to the other camera. The switch is done when the SwitchListener hears
+     * onCameraSwitched, or failed on onCameraError.
+     */
     public void switchCamera() {
         Source cameraSource = getCameraSource();
-        Map<Source, String> idMap = usingCamera1() ? camera1IdMap : camera2IdMap;
         String newCameraId =
                 cameraSource == Source.FRONT_CAMERA
-                        ? idMap.get(Source.BACK_CAMERA)
-                        : idMap.get(Source.FRONT_CAMERA);
+                        ? cameraRegistry.getCameraId(Source.BACK_CAMERA)
+                        : cameraRegistry.getCameraId(Source.FRONT_CAMERA);
 
         if (usingCamera1()) {
             camera1Capturer.switchCamera(newCameraId);
@@ -105,84 +146,29 @@ public class CameraCapturerCompat implements VideoCapturer {
         }
     }
 
-    private boolean usingCamera1() {
-        return camera1Capturer != null;
+    /*
+     * Sizes the camera can capture for the given source, each with the highest frame rate it
+     * sustains at that size.
+     */
+    public List<CaptureFormatEngine.Format> getSupportedFormats(Source source) {
+        return cameraRegistry.getFormats(source);
     }
 
-    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
-    private void setCamera2Maps(Context context) {
-        Camera2Enumerator camera2Enumerator = new Camera2Enumerator(context);
-        for (String cameraId : camera2Enumerator.getDeviceNames()) {
-            if (isCameraIdSupported(cameraId)) {
-                if (camera2Enumerator.isFrontFacing(cameraId)) {
-                    camera2IdMap.put(Source.FRONT_CAMERA, cameraId);
-                    camera2SourceMap.put(cameraId, Source.FRONT_CAMERA);
-                }
-                if (camera2Enumerator.isBackFacing(cameraId)) {
-                    camera2IdMap.put(Source.BACK_CAMERA, cameraId);
-                    camera2SourceMap.put(cameraId, Source.BACK_CAMERA);
-                }
-            }
+    private void notifySwitched(String newCameraId) {
+        SwitchListener listener = switchListener;
+        if (listener != null) {
+            listener.onCameraSwitched(cameraRegistry.getSource(newCameraId));
         }
     }
 
-    private void setCamera1Maps() {
-        Camera1Enumerator camera1Enumerator = new Camera1Enumerator();
-        for (String deviceName : camera1Enumerator.getDeviceNames()) {
-            if (camera1Enumerator.isFrontFacing(deviceName)) {
-                camera1IdMap.put(Source.FRONT_CAMERA, deviceName);
-                camera1SourceMap.put(deviceName, Source.FRONT_CAMERA);
-            }
-            if (camera1Enumerator.isBackFacing(deviceName)) {
-                camera1IdMap.put(Source.BACK_CAMERA, deviceName);
-                camera1SourceMap.put(deviceName, Source.BACK_CAMERA);
-            }
+    private void notifyError(String message) {
+        SwitchListener listener = switchListener;
+        if (listener != null) {
+            listener.onCameraError(message);
         }
     }
 
-    private boolean isLollipopApiSupported() {
-        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
-    }
-
-    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
-    private boolean isCameraIdSupported(String cameraId) {
-        boolean isMonoChromeSupported = false;
-        boolean isPrivateImageFormatSupported = false;
-        CameraCharacteristics cameraCharacteristics;
-        try {
-            cameraCharacteristics = cameraManager.getCameraCharacteristics(cameraId);
-        } catch (Exception e) {
-            e.printStackTrace();
-            return false;
-        }
-        /*
-         * This is a temporary work around for a RuntimeException that occurs on devices which contain cameras
-         * that do not support ImageFormat.PRIVATE output formats. A long term fix is currently in development.
-         * https://github.com/twilio/video-quickstart-android/issues/431
-         */
-        final StreamConfigurationMap streamMap =
-                cameraCharacteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
-
-        if (streamMap != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            isPrivateImageFormatSupported = streamMap.isOutputSupportedFor(ImageFormat.PRIVATE);
-        }
-
-        /*
-         * Read the color filter arrangements of the camera to filter out the ones that support
-         * SENSOR_INFO_COLOR_FILTER_ARRANGEMENT_MONO or SENSOR_INFO_COLOR_FILTER_ARRANGEMENT_NIR.
-         * Visit this link for details on supported values - https://developer.android.com/reference/android/hardware/camera2/CameraCharacteristics#SENSOR_INFO_COLOR_FILTER_ARRANGEMENT
-         */
-        Integer colorFilterArrangement =
-                cameraCharacteristics.get(
-                        CameraCharacteristics.SENSOR_INFO_COLOR_FILTER_ARRANGEMENT);
-
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && colorFilterArrangement != null) {
-            isMonoChromeSupported =
-                    colorFilterArrangement
-                            == CameraMetadata.SENSOR_INFO_COLOR_FILTER_ARRANGEMENT_MONO
-                            || colorFilterArrangement
-                            == CameraMetadata.SENSOR_INFO_COLOR_FILTER_ARRANGEMENT_NIR;
-        }
-        return isPrivateImageFormatSupported && !isMonoChromeSupported;
+    private boolean usingCamera1() {
+        return camera1Capturer != null;
     }
 }
@@ -0,0 +1,391 @@
+/**
+ * Process wide cache of the cameras and what they support. Cameras are enumerated once, on a
+ * background thread when the module initializes, so creating a capturer or switching camera
+ * on the main thread only reads the cache. A lookup before the warm up finished waits for it,
+ * or enumerates on the calling thread when no warm up was started. An enumeration that failed
+ * or found no camera is not cached. Camera1 formats need the camera opened, they are read by
+ * loadFormats on a background thread once video is asked for.
+ */
+package com.actiotech.twiliovideorn;
+
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Range;
+import android.util.Size;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+import com.twilio.video.Camera2Capturer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import tvi.webrtc.Camera1Enumerator;
+import tvi.webrtc.Camera2Enumerator;
+import tvi.webrtc.CameraEnumerationAndroid;
+
+public class CameraRegistry {
+
+    public static final class CameraInfo {
+        public final String id;
+        // Null for cameras facing neither way
+        @Nullable
+        public final CameraCapturerCompat.Source source;
+        public final boolean privateFormatSupported;
+        public final boolean monochrome;
+        // Null until the Camera1 formats were read, reading them opens the camera
+        private List<CaptureFormatEngine.Format> formats;
+
+        CameraInfo(String id, @Nullable CameraCapturerCompat.Source source, boolean privateFormatSupported,
+                   boolean monochrome, @Nullable List<CaptureFormatEngine.Format> formats) {
+            this.id = id;
+            this.source = source;
+            this.privateFormatSupported = privateFormatSupported;
+            this.monochrome = monochrome;
+            this.formats = formats;
+        }
+
+        boolean isSupported() {
+            return privateFormatSupported && !monochrome;
+        }
+    }
+
+    private static CameraRegistry instance;
+
+    private final Context context;
+    private boolean loaded = false;
+    private boolean loading = false;
+    private boolean camera2 = false;
+    // Callbacks of the loadFormats in progress, null when none is
+    @Nullable
+    private List<Runnable> formatsCallbacks;
+    // The supported camera used for each facing
+    private final Map<CameraCapturerCompat.Source, CameraInfo> cameras = new HashMap<>();
+    // Every enumerated camera, supported or not
+    private final Map<String, CameraInfo> camerasById = new HashMap<>();
+
+    private long enumerationMs = -1;
+    private boolean warmedInBackground = false;
+    private long capturers = 0;
+    private long coldLoads = 0;
+    private long lastCapturerCreateMs = -1;
+
+    public static synchronized CameraRegistry get(Context context) {
+        if (instance == null) {
+            instance = new CameraRegistry(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private CameraRegistry(Context context) {
+        this.context = context;
+    }
+
+    /*
+     * Enumerate the cameras on a background thread unless already done or in progress.
+     */
+    public void warmUp() {
+        synchronized (this) {
+            if (loaded || loading) {
+                return;
+            }
+            loading = true;
+        }
+        new Thread(() -> load(true), "CameraRegistry").start();
+    }
+
+    public boolean usesCamera2() {
+        ensureLoaded();
+        return camera2;
+    }
+
+    @Nullable
+    public String getCameraId(CameraCapturerCompat.Source source) {
+        CameraInfo info = getCamera(source);
+        return info != null ? info.id : null;
+    }
+
+    @Nullable
+    public CameraCapturerCompat.Source getSource(String cameraId) {
+        ensureLoaded();
+        synchronized (this) {
+            CameraInfo info = camerasById.get(cameraId);
+            return info != null ? info.source : null;
+        }
+    }
+
+    @Nullable
+    public CameraInfo getCamera(CameraCapturerCompat.Source source) {
+        ensureLoaded();
+        synchronized (this) {
+            return cameras.get(source);
+        }
+    }
+
+    /*
+     * Sizes the camera of the given facing captures, each with the highest frame rate it
+     * sustains at that size.
+     */
+    public List<CaptureFormatEngine.Format> getFormats(CameraCapturerCompat.Source source) {
+        CameraInfo info = getCamera(source);
+        synchronized (this) {
+            // Never opens the camera, Camera1 formats not read by loadFormats yet are empty
+            return info != null && info.formats != null ? info.formats : Collections.emptyList();
+        }
+    }
+
+    /*
+     * Make the formats of every camera available to getFormats, then run the callback on the
+     * thread that read them or, when nothing is left to read, on the calling one. Reading
+     * Camera1 formats opens each camera, so it is done on a background thread before the first
+     * capturer opens one. A camera that could not be opened, for example before the permission
+     * was granted, is tried again on the next call.
+     */
+    public void loadFormats(Runnable callback) {
+        boolean ready;
+        synchronized (this) {
+            ready = loaded && missingFormats().isEmpty();
+            if (!ready) {
+                if (formatsCallbacks != null) {
+                    formatsCallbacks.add(callback);
+                    return;
+                }
+                formatsCallbacks = new ArrayList<>();
+                formatsCallbacks.add(callback);
+            }
+        }
+        if (ready) {
+            callback.run();
+            return;
+        }
+        new Thread(() -> {
+            ensureLoaded();
+            List<CameraInfo> missing;
+            synchronized (this) {
+                missing = missingFormats();
+            }
+            for (CameraInfo info : missing) {
+                List<CaptureFormatEngine.Format> formats = readCamera1Formats(info.id);
+                synchronized (this) {
+                    info.formats = formats;
+                }
+            }
+            List<Runnable> callbacks;
+            synchronized (this) {
+                callbacks = formatsCallbacks;
+                formatsCallbacks = null;
+            }
+            for (Runnable pending : callbacks) {
+                pending.run();
+            }
+        }, "CameraFormats").start();
+    }
+
+    private List<CameraInfo> missingFormats() {
+        List<CameraInfo> missing = new ArrayList<>();
+        for (CameraInfo info : camerasById.values()) {
+            if (info.formats == null) {
+                missing.add(info);
+            }
+        }
+        return missing;
+    }
+
+    /*
+     * Time the module spent constructing a capturer. Each construction used to enumerate the
+     * cameras itself.
+     */
+    public synchronized void recordCapturerCreate(long ms) {
+        capturers++;
+        lastCapturerCreateMs = ms;
+    }
+
+    private void ensureLoaded() {
+        synchronized (this) {
+            while (loading) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            if (loaded) {
+                return;
+            }
+            coldLoads++;
+            loading = true;
+        }
+        load(false);
+    }
+
+    private void load(boolean background) {
+        long startMs = SystemClock.elapsedRealtime();
+        boolean useCamera2 = false;
+        boolean failed = false;
+        List<CameraInfo> found = new ArrayList<>();
+        try {
+            useCamera2 = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                    && Camera2Capturer.isSupported(context);
+            if (useCamera2) {
+                loadCamera2(found);
+            } else {
+                loadCamera1(found);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            failed = true;
+        }
+        synchronized (this) {
+            camera2 = useCamera2;
+            cameras.clear();
+            camerasById.clear();
+            for (CameraInfo info : found) {
+                camerasById.put(info.id, info);
+                // The last supported camera of a facing wins, as the enumeration order always did
+                if (info.source != null && info.isSupported()) {
+                    cameras.put(info.source, info);
+                }
+            }
+            enumerationMs = SystemClock.elapsedRealtime() - startMs;
+            warmedInBackground = background;
+            // A camera service that failed or listed nothing may recover, enumerate again next time
+            loaded = !failed && !found.isEmpty();
+            loading = false;
+            notifyAll();
+        }
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    private void loadCamera2(List<CameraInfo> found) {
+        CameraManager cameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        Camera2Enumerator camera2Enumerator = new Camera2Enumerator(context);
+        for (String cameraId : camera2Enumerator.getDeviceNames()) {
+            CameraCharacteristics characteristics;
+            try {
+                characteristics = cameraManager.getCameraCharacteristics(cameraId);
+            } catch (Exception e) {
+                e.printStackTrace();
+                continue;
+            }
+            StreamConfigurationMap streamMap =
+                    characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            /*
+             * Cameras without ImageFormat.PRIVATE output throw a RuntimeException on capture.
+             * https://github.com/twilio/video-quickstart-android/issues/431
+             */
+            boolean privateFormatSupported = streamMap != null
+                    && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+                    && streamMap.isOutputSupportedFor(ImageFormat.PRIVATE);
+            /*
+             * Cameras with SENSOR_INFO_COLOR_FILTER_ARRANGEMENT_MONO or _NIR are not usable for video.
+             * https://developer.android.com/reference/android/hardware/camera2/CameraCharacteristics#SENSOR_INFO_COLOR_FILTER_ARRANGEMENT
+             */
+            boolean monochrome = false;
+            Integer colorFilterArrangement =
+                    characteristics.get(CameraCharacteristics.SENSOR_INFO_COLOR_FILTER_ARRANGEMENT);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && colorFilterArrangement != null) {
+                monochrome = colorFilterArrangement == CameraMetadata.SENSOR_INFO_COLOR_FILTER_ARRANGEMENT_MONO
+                        || colorFilterArrangement == CameraMetadata.SENSOR_INFO_COLOR_FILTER_ARRANGEMENT_NIR;
+            }
+            List<CaptureFormatEngine.Format> formats = streamMap != null
+                    ? readCamera2Formats(characteristics, streamMap)
+                    : Collections.<CaptureFormatEngine.Format>emptyList();
+            found.add(new CameraInfo(cameraId, facing(camera2Enumerator.isFrontFacing(cameraId),
+                    camera2Enumerator.isBackFacing(cameraId)), privateFormatSupported, monochrome, formats));
+        }
+    }
+
+    private void loadCamera1(List<CameraInfo> found) {
+        Camera1Enumerator camera1Enumerator = new Camera1Enumerator();
+        for (String deviceName : camera1Enumerator.getDeviceNames()) {
+            found.add(new CameraInfo(deviceName, facing(camera1Enumerator.isFrontFacing(deviceName),
+                    camera1Enumerator.isBackFacing(deviceName)), true, false, null));
+        }
+    }
+
+    @Nullable
+    private static CameraCapturerCompat.Source facing(boolean front, boolean back) {
+        if (front) {
+            return CameraCapturerCompat.Source.FRONT_CAMERA;
+        }
+        return back ? CameraCapturerCompat.Source.BACK_CAMERA : null;
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    private static List<CaptureFormatEngine.Format> readCamera2Formats(CameraCharacteristics characteristics,
+                                                                      StreamConfigurationMap streamMap) {
+        List<CaptureFormatEngine.Format> formats = new ArrayList<>();
+        // The auto exposure ranges cap the frame rate regardless of the output size
+        int maxAeFps = 30;
+        Range<Integer>[] fpsRanges =
+                characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        if (fpsRanges != null) {
+            maxAeFps = 0;
+            for (Range<Integer> range : fpsRanges) {
+                // Some devices report the ranges multiplied by 1000
+                int upper = range.getUpper() > 1000 ? range.getUpper() / 1000 : range.getUpper();
+                maxAeFps = Math.max(maxAeFps, upper);
+            }
+        }
+        Size[] sizes = streamMap.getOutputSizes(SurfaceTexture.class);
+        if (sizes == null) {
+            return formats;
+        }
+        for (Size size : sizes) {
+            long minFrameDurationNs = streamMap.getOutputMinFrameDuration(SurfaceTexture.class, size);
+            int fps = minFrameDurationNs > 0
+                    ? (int) Math.min(maxAeFps, 1000000000L / minFrameDurationNs)
+                    : maxAeFps;
+            formats.add(new CaptureFormatEngine.Format(size.getWidth(), size.getHeight(), fps));
+        }
+        return formats;
+    }
+
+    @Nullable
+    private static List<CaptureFormatEngine.Format> readCamera1Formats(String cameraId) {
+        List<CaptureFormatEngine.Format> formats = new ArrayList<>();
+        try {
+            for (CameraEnumerationAndroid.CaptureFormat format :
+                    new Camera1Enumerator().getSupportedFormats(cameraId)) {
+                formats.add(new CaptureFormatEngine.Format(
+                        format.width, format.height, format.framerate.max / 1000));
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+        // The enumerator reports a camera it could not open as having no formats
+        return formats.isEmpty() ? null : formats;
+    }
+
+    public synchronized WritableMap getMetrics() {
+        WritableMap metrics = new WritableNativeMap();
+        metrics.putBoolean("loaded", loaded);
+        metrics.putBoolean("camera2", camera2);
+        metrics.putInt("cameras", camerasById.size());
+        metrics.putInt("supportedCameras", cameras.size());
+        metrics.putBoolean("warmedInBackground", warmedInBackground);
+        metrics.putDouble("enumerationMs", enumerationMs);
+        metrics.putDouble("capturers", capturers);
+        metrics.putDouble("coldLoads", coldLoads);
+        // Estimate: every capturer built without enumerating on its own thread skips one enumeration
+        // as long as the measured one
+        metrics.putDouble("estimatedSavedMs", enumerationMs > 0 ? Math.max(0, capturers - coldLoads) * enumerationMs : 0);
+        metrics.putDouble("lastCapturerCreateMs", lastCapturerCreateMs);
+        return metrics;
+    }
+}
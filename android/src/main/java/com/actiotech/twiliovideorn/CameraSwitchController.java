@@ -0,0 +1,163 @@
+/**
+ * Camera flips driven by the capturer's switch callbacks. A flip is reported once the new
+ * camera delivers frames, with how long it took. Taps arriving while a switch is in flight are
+ * coalesced, an odd number of them flips once more when the switch is done and an even number
+ * cancels out. Only touched on the main thread.
+ */
+package com.actiotech.twiliovideorn;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+
+public class CameraSwitchController implements CameraCapturerCompat.SwitchListener {
+
+    public interface Listener {
+        /*
+         * The requested flips are done, or the last one failed.
+         */
+        void onCameraSwitched(CameraCapturerCompat.Source source, WritableMap event);
+    }
+
+    // A capturer that neither switches nor fails in this long is given up on
+    private static final int SWITCH_TIMEOUT_MS = 3000;
+
+    private final Handler mainThreadHandler = new Handler(Looper.getMainLooper());
+    private final Listener listener;
+    @Nullable
+    private CameraCapturerCompat capturer;
+
+    private boolean switching = false;
+    // A tap arrived during the switch and the camera has to flip once more
+    private boolean flipPending = false;
+    private int coalescedTaps = 0;
+    // First tap of the current chain of switches, and start of the switch in flight
+    private long requestedAtMs = 0;
+    private long switchStartedAtMs = 0;
+
+    private long switches = 0;
+    private long failures = 0;
+    private long totalCoalescedTaps = 0;
+    private long totalSwitchMs = 0;
+    private long maxSwitchMs = 0;
+    private long lastSwitchMs = -1;
+
+    private final Runnable switchTimeout = () -> finish(null, "Camera switch timed out");
+
+    public CameraSwitchController(Listener listener) {
+        this.listener = listener;
+    }
+
+    /*
+     * The capturer flips are done on, null once it is gone. A switch in flight is dropped.
+     */
+    public void setCapturer(@Nullable CameraCapturerCompat capturer) {
+        if (this.capturer != null) {
+            this.capturer.setSwitchListener(null);
+        }
+        this.capturer = capturer;
+        if (capturer != null) {
+            capturer.setSwitchListener(this);
+        }
+        mainThreadHandler.removeCallbacks(switchTimeout);
+        switching = false;
+        flipPending = false;
+        coalescedTaps = 0;
+    }
+
+    public void flip() {
+        if (capturer == null) {
+            return;
+        }
+        if (switching) {
+            flipPending = !flipPending;
+            coalescedTaps++;
+            return;
+        }
+        requestedAtMs = SystemClock.elapsedRealtime();
+        coalescedTaps = 0;
+        startSwitch();
+    }
+
+    private void startSwitch() {
+        switching = true;
+        switchStartedAtMs = SystemClock.elapsedRealtime();
+        mainThreadHandler.postDelayed(switchTimeout, SWITCH_TIMEOUT_MS);
+        try {
+            capturer.switchCamera();
+        } catch (RuntimeException e) {
+            finish(null, String.valueOf(e.getMessage()));
+        }
+    }
+
+    // ===== Capturer callbacks, from any thread ===================================================
+
+    @Override
+    public void onCameraSwitched(@Nullable final CameraCapturerCompat.Source source) {
+        mainThreadHandler.post(() -> {
+            if (!switching) {
+                return;
+            }
+            long switchMs = SystemClock.elapsedRealtime() - switchStartedAtMs;
+            switches++;
+            totalSwitchMs += switchMs;
+            maxSwitchMs = Math.max(maxSwitchMs, switchMs);
+            lastSwitchMs = switchMs;
+            if (flipPending) {
+                flipPending = false;
+                mainThreadHandler.removeCallbacks(switchTimeout);
+                startSwitch();
+                return;
+            }
+            finish(source, null);
+        });
+    }
+
+    @Override
+    public void onCameraError(final String message) {
+        mainThreadHandler.post(() -> {
+            if (switching) {
+                finish(null, message);
+            }
+        });
+    }
+
+    private void finish(@Nullable CameraCapturerCompat.Source source, @Nullable String error) {
+        mainThreadHandler.removeCallbacks(switchTimeout);
+        switching = false;
+        flipPending = false;
+        totalCoalescedTaps += coalescedTaps;
+        if (error != null) {
+            failures++;
+        }
+        if (source == null && capturer != null) {
+            source = capturer.getCameraSource();
+        }
+        WritableMap event = new WritableNativeMap();
+        event.putBoolean("isBackCamera", source == CameraCapturerCompat.Source.BACK_CAMERA);
+        event.putDouble("switchLatencyMs", SystemClock.elapsedRealtime() - requestedAtMs);
+        event.putInt("coalescedTaps", coalescedTaps);
+        if (error != null) {
+            event.putString("error", error);
+        }
+        coalescedTaps = 0;
+        listener.onCameraSwitched(source, event);
+    }
+
+    public WritableMap getMetrics() {
+        WritableMap metrics = new WritableNativeMap();
+        metrics.putBoolean("switching", switching);
+        metrics.putDouble("switches", switches);
+        metrics.putDouble("failures", failures);
+        metrics.putDouble("coalescedTaps", totalCoalescedTaps);
+        metrics.putDouble("lastSwitchMs", lastSwitchMs);
+        metrics.putDouble("averageSwitchMs", switches > 0 ? totalSwitchMs / (double) switches : 0);
+        metrics.putDouble("maxSwitchMs", maxSwitchMs);
+        return metrics;
+    }
+}
@@ -0,0 +1,396 @@
+/**
+ * Picks the camera capture format. A ladder of formats is built from the sizes and frame
+ * rates the camera supports, the starting rung depends on the device class, and the format
+ * steps down or up at runtime from encoder load, network quality and thermal status. Only
+ * touched on the main thread.
+ */
+package com.actiotech.twiliovideorn;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.os.Build;
+import android.os.PowerManager;
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeArray;
+import com.facebook.react.bridge.WritableNativeMap;
+import com.twilio.video.LocalVideoTrackStats;
+import com.twilio.video.VideoDimensions;
+import com.twilio.video.VideoFormat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class CaptureFormatEngine {
+
+    public interface Listener {
+        /*
+         * The capture format should change to the given rung.
+         */
+        void onFormatChanged(Format format, String reason);
+    }
+
+    public static final class Format {
+        public final int width;
+        public final int height;
+        public final int fps;
+
+        public Format(int width, int height, int fps) {
+            this.width = width;
+            this.height = height;
+            this.fps = fps;
+        }
+
+        long pixelRate() {
+            return (long) width * height * fps;
+        }
+
+        boolean sameAs(Format other) {
+            return width == other.width && height == other.height && fps == other.fps;
+        }
+
+        WritableMap toMap() {
+            WritableMap map = new WritableNativeMap();
+            map.putInt("width", width);
+            map.putInt("height", height);
+            map.putInt("frameRate", fps);
+            return map;
+        }
+    }
+
+    enum DeviceClass {
+        LOW, MID, HIGH
+    }
+
+    // Rungs the ladder aims for, each resolved to the closest format the camera supports
+    private static final Format[] TARGETS = {
+            new Format(320, 240, 15),
+            new Format(640, 360, 20),
+            new Format(640, 480, 24),
+            new Format(960, 540, 24),
+            new Format(1280, 720, 24),
+            new Format(1280, 720, 30),
+            new Format(1920, 1080, 30),
+    };
+    // Used until the camera's formats are known, the format this module always captured at
+    private static final Format FALLBACK = new Format(1280, 720, 24);
+
+    // Starting and highest target per device class, indexes into TARGETS
+    private static final int[] START_TARGET = {1, 4, 5};
+    private static final int[] MAX_TARGET = {3, 5, 6};
+
+    // Sent frame rate or resolution below this share of the captured one means the encoder
+    // or the bandwidth estimator is shedding load
+    private static final float OVERLOAD_RATIO = 0.75f;
+    private static final int OVERLOADED_SAMPLES_TO_STEP_DOWN = 2;
+    private static final int HEALTHY_SAMPLES_TO_STEP_UP = 3;
+    private static final long STEP_DOWN_COOLDOWN_MS = 5000;
+    private static final long STEP_UP_COOLDOWN_MS = 15000;
+    // Network quality levels, 0..5, at or below POOR step down and at or above GOOD allow steps up
+    private static final int POOR_NETWORK_QUALITY_LEVEL = 2;
+    private static final int GOOD_NETWORK_QUALITY_LEVEL = 4;
+    // Build.VERSION_CODES.S, spelled out so the library builds with an older compileSdk
+    private static final int ANDROID_S = 31;
+
+    private final Listener listener;
+    private final DeviceClass deviceClass;
+    private PowerManager powerManager;
+    private Object thermalListener;
+
+    private boolean adaptive = true;
+    private List<Format> ladder = Collections.emptyList();
+    private int startRung = 0;
+    private int maxRung = 0;
+    private int rung = -1;
+
+    private int networkQualityLevel = -1;
+    private int thermalStatus = 0;
+    private int overloadedSamples = 0;
+    private int healthySamples = 0;
+    private long lastChangeMs = 0;
+    private String lastReason = "initial";
+    private long stepsUp = 0;
+    private long stepsDown = 0;
+
+    public CaptureFormatEngine(Context context, Listener listener) {
+        this.listener = listener;
+        this.deviceClass = classifyDevice(context);
+    }
+
+    /*
+     * Listen for thermal status changes while the camera is in use.
+     */
+    public void attach(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q || thermalListener != null) {
+            return;
+        }
+        powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        if (powerManager == null) {
+            return;
+        }
+        PowerManager.OnThermalStatusChangedListener thermal = this::onThermalStatusChanged;
+        thermalListener = thermal;
+        powerManager.addThermalStatusListener(thermal);
+        thermalStatus = powerManager.getCurrentThermalStatus();
+    }
+
+    public void detach() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && thermalListener != null) {
+            powerManager.removeThermalStatusListener((PowerManager.OnThermalStatusChangedListener) thermalListener);
+        }
+        thermalListener = null;
+        overloadedSamples = 0;
+        healthySamples = 0;
+    }
+
+    /*
+     * Rebuild the ladder for the formats of the camera in use, keeping the position on the
+     * ladder as close as the new camera allows.
+     */
+    public void setSupportedFormats(List<Format> supported) {
+        Format previous = rung >= 0 ? ladder.get(rung) : null;
+        List<Format> resolved = new ArrayList<>();
+        int startIndex = 0;
+        int maxIndex = 0;
+        for (int i = 0; i < TARGETS.length; i++) {
+            Format format = resolve(TARGETS[i], supported);
+            if (format == null) {
+                continue;
+            }
+            if (resolved.isEmpty() || !resolved.get(resolved.size() - 1).sameAs(format)) {
+                resolved.add(format);
+            }
+            if (i <= START_TARGET[deviceClass.ordinal()]) {
+                startIndex = resolved.size() - 1;
+            }
+            if (i <= MAX_TARGET[deviceClass.ordinal()]) {
+                maxIndex = resolved.size() - 1;
+            }
+        }
+        ladder = resolved;
+        startRung = startIndex;
+        maxRung = maxIndex;
+        if (ladder.isEmpty()) {
+            rung = -1;
+            return;
+        }
+        rung = previous != null ? closestRung(previous) : startRung;
+        rung = Math.min(rung, ceiling());
+    }
+
+    /*
+     * The format to capture at now.
+     */
+    public VideoFormat getVideoFormat() {
+        Format format = rung >= 0 ? ladder.get(rung) : FALLBACK;
+        return new VideoFormat(new VideoDimensions(format.width, format.height), format.fps);
+    }
+
+    /*
+     * Without adaptation the format stays at the starting rung of the device class.
+     */
+    public void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+        if (!adaptive && rung >= 0 && rung != startRung) {
+            moveTo(startRung, "adaptation disabled");
+        }
+    }
+
+    // ===== Inputs ================================================================================
+
+    public void onNetworkQualityLevel(int level) {
+        networkQualityLevel = level;
+        if (level >= 0 && level <= POOR_NETWORK_QUALITY_LEVEL) {
+            evaluate();
+        }
+    }
+
+    /*
+     * One sample of the published camera track.
+     */
+    public void onLocalVideoStats(LocalVideoTrackStats stats) {
+        boolean overloaded = false;
+        if (stats.capturedFrameRate > 0 && stats.frameRate < stats.capturedFrameRate * OVERLOAD_RATIO) {
+            overloaded = true;
+        }
+        long capturedPixels = (long) stats.captureDimensions.width * stats.captureDimensions.height;
+        long sentPixels = (long) stats.dimensions.width * stats.dimensions.height;
+        if (capturedPixels > 0 && sentPixels < capturedPixels * OVERLOAD_RATIO * OVERLOAD_RATIO) {
+            overloaded = true;
+        }
+        if (overloaded) {
+            overloadedSamples++;
+            healthySamples = 0;
+        } else {
+            healthySamples++;
+            overloadedSamples = 0;
+        }
+        evaluate();
+    }
+
+    private void onThermalStatusChanged(int status) {
+        thermalStatus = status;
+        evaluate();
+    }
+
+    // ===== Decisions =============================================================================
+
+    private void evaluate() {
+        if (!adaptive || rung < 0) {
+            return;
+        }
+        long sinceChangeMs = SystemClock.elapsedRealtime() - lastChangeMs;
+        int ceiling = ceiling();
+        if (rung > ceiling) {
+            moveTo(ceiling, "thermal");
+            return;
+        }
+        boolean poorNetwork = networkQualityLevel >= 0 && networkQualityLevel <= POOR_NETWORK_QUALITY_LEVEL;
+        if ((poorNetwork || overloadedSamples >= OVERLOADED_SAMPLES_TO_STEP_DOWN)
+                && rung > 0 && sinceChangeMs >= STEP_DOWN_COOLDOWN_MS) {
+            moveTo(rung - 1, poorNetwork ? "network" : "encoder");
+            return;
+        }
+        boolean goodNetwork = networkQualityLevel < 0 || networkQualityLevel >= GOOD_NETWORK_QUALITY_LEVEL;
+        if (goodNetwork && healthySamples >= HEALTHY_SAMPLES_TO_STEP_UP
+                && rung < ceiling && sinceChangeMs >= STEP_UP_COOLDOWN_MS) {
+            moveTo(rung + 1, "headroom");
+        }
+    }
+
+    /*
+     * The highest rung allowed: the device class limit, lowered while the device is hot.
+     */
+    private int ceiling() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            if (thermalStatus >= PowerManager.THERMAL_STATUS_SEVERE) {
+                return 0;
+            }
+            if (thermalStatus >= PowerManager.THERMAL_STATUS_MODERATE) {
+                return Math.max(0, Math.min(maxRung, startRung - 1));
+            }
+        }
+        return maxRung;
+    }
+
+    private void moveTo(int target, String reason) {
+        if (target > rung) {
+            stepsUp++;
+        } else {
+            stepsDown++;
+        }
+        rung = target;
+        lastChangeMs = SystemClock.elapsedRealtime();
+        lastReason = reason;
+        overloadedSamples = 0;
+        healthySamples = 0;
+        listener.onFormatChanged(ladder.get(rung), reason);
+    }
+
+    // ===== Ladder ================================================================================
+
+    /*
+     * The supported size closest to the target in area with the same aspect ratio family,
+     * at the target frame rate or the highest the size allows.
+     */
+    @Nullable
+    private static Format resolve(Format target, List<Format> supported) {
+        Format best = null;
+        double bestScore = Double.MAX_VALUE;
+        double targetAspect = target.width / (double) target.height;
+        double targetArea = target.width * (double) target.height;
+        for (Format format : supported) {
+            double aspect = format.width / (double) format.height;
+            double area = format.width * (double) format.height;
+            // Log distance in area, with a penalty for a different aspect ratio
+            double score = Math.abs(Math.log(area / targetArea)) + 2 * Math.abs(Math.log(aspect / targetAspect));
+            if (score < bestScore) {
+                bestScore = score;
+                best = format;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        return new Format(best.width, best.height, Math.min(target.fps, best.fps));
+    }
+
+    private int closestRung(Format format) {
+        int closest = 0;
+        long bestDistance = Long.MAX_VALUE;
+        for (int i = 0; i < ladder.size(); i++) {
+            long distance = Math.abs(ladder.get(i).pixelRate() - format.pixelRate());
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                closest = i;
+            }
+        }
+        return closest;
+    }
+
+    /*
+     * Build.VERSION.MEDIA_PERFORMANCE_CLASS, read reflectively since it needs compileSdk 31.
+     * 0 when the device declares none.
+     */
+    private static int mediaPerformanceClass() {
+        if (Build.VERSION.SDK_INT < ANDROID_S) {
+            return 0;
+        }
+        try {
+            return Build.VERSION.class.getField("MEDIA_PERFORMANCE_CLASS").getInt(null);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            return 0;
+        }
+    }
+
+    private static DeviceClass classifyDevice(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int cores = Runtime.getRuntime().availableProcessors();
+        long totalMemory = 0;
+        if (activityManager != null) {
+            if (activityManager.isLowRamDevice()) {
+                return DeviceClass.LOW;
+            }
+            ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+            activityManager.getMemoryInfo(memoryInfo);
+            totalMemory = memoryInfo.totalMem;
+        }
+        if (mediaPerformanceClass() >= ANDROID_S) {
+            return DeviceClass.HIGH;
+        }
+        long gigabyte = 1024L * 1024 * 1024;
+        if (cores <= 4 || (totalMemory > 0 && totalMemory < 3 * gigabyte)) {
+            return DeviceClass.LOW;
+        }
+        if (cores >= 8 && totalMemory >= 6 * gigabyte) {
+            return DeviceClass.HIGH;
+        }
+        return DeviceClass.MID;
+    }
+
+    public WritableMap getMetrics() {
+        WritableArray rungs = new WritableNativeArray();
+        for (Format format : ladder) {
+            rungs.pushMap(format.toMap());
+        }
+        WritableMap metrics = new WritableNativeMap();
+        metrics.putString("deviceClass", deviceClass.name().toLowerCase());
+        metrics.putBoolean("adaptive", adaptive);
+        metrics.putArray("ladder", rungs);
+        metrics.putInt("rung", rung);
+        metrics.putInt("startRung", startRung);
+        metrics.putInt("maxRung", maxRung);
+        metrics.putMap("format", (rung >= 0 ? ladder.get(rung) : FALLBACK).toMap());
+        metrics.putInt("thermalStatus", thermalStatus);
+        metrics.putInt("networkQualityLevel", networkQualityLevel);
+        metrics.putDouble("stepsUp", stepsUp);
+        metrics.putDouble("stepsDown", stepsDown);
+        metrics.putString("lastReason", lastReason);
+        return metrics;
+    }
+}
@@ -0,0 +1,535 @@
+/**
+ * Grid of remote video tracks drawn into a single surface by a single render thread. Every
+ * tile is a sink of its own track with its own frame rate cap. A new frame is uploaded once
+ * into a texture of its tile, and passes, at most one per vsync, compose the tile textures.
+ * Tiles are added, removed and moved in place, the surface stays.
+ */
+package com.actiotech.twiliovideorn;
+
+import android.content.Context;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.opengl.EGLSurface;
+import android.opengl.GLES20;
+import android.os.SystemClock;
+import android.view.Choreographer;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import tvi.webrtc.GlTextureFrameBuffer;
+import tvi.webrtc.RendererCommon;
+import tvi.webrtc.VideoFrame;
+import tvi.webrtc.VideoSink;
+
+public class CompositeVideoView extends SurfaceView implements SurfaceHolder.Callback {
+
+    /*
+     * One cell of the grid, bound to its track like a single video view.
+     */
+    private final class Tile implements VideoSink {
+        final String trackSid;
+        final FramePacer pacer = new FramePacer();
+        // Area in view pixels, replaced as a whole on the main thread
+        volatile Rect bounds = new Rect();
+        volatile long framesPaced = 0;
+
+        // Guarded by frameLock: the latest frame, kept for passes triggered by other tiles
+        VideoFrame frame;
+        boolean drawn = false;
+        boolean removed = false;
+
+        // Only touched on the render thread: the last frame drawn at the tile's size and
+        // scaling, composed into every pass until a new frame arrives
+        long lastDrawNs = 0;
+        GlTextureFrameBuffer texture;
+        boolean textureValid = false;
+        RendererCommon.ScalingType textureScalingType;
+
+        Tile(String trackSid) {
+            this.trackSid = trackSid;
+        }
+
+        @Override
+        public void onFrame(VideoFrame frame) {
+            if (!pacer.shouldRender(frame.getTimestampNs())) {
+                framesPaced++;
+                return;
+            }
+            queueFrame(this, frame);
+        }
+    }
+
+    private final RenderThreadPool renderThreadPool;
+    private volatile RendererCommon.ScalingType scalingType = RendererCommon.ScalingType.SCALE_ASPECT_FILL;
+    private volatile int surfaceWidth = 0;
+    private volatile int surfaceHeight = 0;
+    private volatile float maxRenderFps = 0;
+
+    // Main thread only
+    private final Map<String, Tile> tilesBySid = new HashMap<>();
+    private int columns = 0;
+    private int spacing = 0;
+    @Nullable
+    private List<RectF> tileRects = null;
+
+    private final Object frameLock = new Object();
+    // Tiles in drawing order, replaced as a whole under frameLock
+    private List<Tile> tiles = Collections.emptyList();
+    private RenderThread renderThread;
+    // Bumped for every surface, a window surface is only made for the current one
+    private int surfaceGeneration = 0;
+    private boolean drawScheduled = false;
+    // Views are made on the main thread, so this is the main thread's
+    private final Choreographer choreographer = Choreographer.getInstance();
+
+    // Each counter has a single writer: superseded frames are counted under frameLock,
+    // drawn ones on the render thread
+    private volatile long framesRendered = 0;
+    private volatile long framesSuperseded = 0;
+    private volatile long compositions = 0;
+
+    // Only touched on the render thread
+    private EGLSurface eglSurface;
+    private final VideoFrameRenderer frameRenderer = new VideoFrameRenderer();
+    // Tiles holding a texture, released once they leave the grid or the surface goes
+    private final List<Tile> texturedTiles = new ArrayList<>();
+
+    private final Choreographer.FrameCallback vsyncCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            RenderThread thread;
+            synchronized (frameLock) {
+                thread = renderThread;
+                if (thread == null) {
+                    drawScheduled = false;
+                    return;
+                }
+            }
+            thread.post(drawRunnable);
+        }
+    };
+
+    private final Runnable drawRunnable = new Runnable() {
+        @Override
+        public void run() {
+            drawTiles();
+        }
+    };
+
+    public CompositeVideoView(Context context, RenderThreadPool renderThreadPool) {
+        super(context);
+        this.renderThreadPool = renderThreadPool;
+        getHolder().addCallback(this);
+    }
+
+    // ===== Tiles =================================================================================
+
+    /*
+     * Show these tracks, in this order. Tiles of tracks already shown are kept with their
+     * last frame, only added and removed tracks are bound and unbound.
+     */
+    public void setTrackSids(List<String> trackSids) {
+        Map<String, Tile> previous = new HashMap<>(tilesBySid);
+        List<Tile> ordered = new ArrayList<>();
+        tilesBySid.clear();
+        for (String trackSid : trackSids) {
+            if (trackSid == null || trackSid.isEmpty() || tilesBySid.containsKey(trackSid)) {
+                continue;
+            }
+            Tile tile = previous.remove(trackSid);
+            if (tile == null) {
+                tile = new Tile(trackSid);
+                tile.pacer.setMaxFps(maxRenderFps);
+                TwilioVideoModule.registerPrimaryVideoView(tile, trackSid);
+            }
+            tilesBySid.put(trackSid, tile);
+            ordered.add(tile);
+        }
+        for (Tile tile : previous.values()) {
+            removeTile(tile);
+        }
+        synchronized (frameLock) {
+            tiles = Collections.unmodifiableList(ordered);
+        }
+        updateTileBounds();
+    }
+
+    private void removeTile(Tile tile) {
+        TwilioVideoModule.unregisterPrimaryVideoView(tile);
+        VideoFrame dropped;
+        synchronized (frameLock) {
+            tile.removed = true;
+            dropped = tile.frame;
+            tile.frame = null;
+        }
+        if (dropped != null) {
+            dropped.release();
+        }
+    }
+
+    /*
+     * Lay tiles out in a grid of the given number of columns, 0 picks a square grid, with
+     * spacing pixels between them. Explicit rects, as fractions of the view, take precedence
+     * for the tiles they cover.
+     */
+    public void setLayout(int columns, int spacing, @Nullable List<RectF> tileRects) {
+        this.columns = Math.max(0, columns);
+        this.spacing = Math.max(0, spacing);
+        this.tileRects = tileRects;
+        updateTileBounds();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        updateTileBounds();
+    }
+
+    private void updateTileBounds() {
+        List<Tile> ordered;
+        synchronized (frameLock) {
+            ordered = tiles;
+        }
+        int width = getWidth();
+        int height = getHeight();
+        int count = ordered.size();
+        if (count > 0 && width > 0 && height > 0) {
+            int gridColumns = columns > 0 ? columns : (int) Math.ceil(Math.sqrt(count));
+            int gridRows = (count + gridColumns - 1) / gridColumns;
+            int cellWidth = Math.max(0, (width - spacing * (gridColumns - 1)) / gridColumns);
+            int cellHeight = Math.max(0, (height - spacing * (gridRows - 1)) / gridRows);
+            for (int i = 0; i < count; i++) {
+                Rect bounds;
+                if (tileRects != null && i < tileRects.size()) {
+                    RectF rect = tileRects.get(i);
+                    bounds = new Rect(Math.round(rect.left * width), Math.round(rect.top * height),
+                            Math.round(rect.right * width), Math.round(rect.bottom * height));
+                } else {
+                    int left = (i % gridColumns) * (cellWidth + spacing);
+                    int top = (i / gridColumns) * (cellHeight + spacing);
+                    bounds = new Rect(left, top, left + cellWidth, top + cellHeight);
+                }
+                ordered.get(i).bounds = bounds;
+            }
+        }
+        requestDraw();
+    }
+
+    // ===== Frames ================================================================================
+
+    /*
+     * Keep only the latest frame of a tile and schedule a pass on the next vsync, a frame that
+     * was not drawn before the next one arrived is dropped.
+     */
+    private void queueFrame(Tile tile, VideoFrame frame) {
+        VideoFrame replaced;
+        boolean superseded;
+        boolean schedule;
+        RenderThread thread;
+        synchronized (frameLock) {
+            thread = renderThread;
+            if (thread == null || tile.removed) {
+                return;
+            }
+            replaced = tile.frame;
+            superseded = replaced != null && !tile.drawn;
+            frame.retain();
+            tile.frame = frame;
+            tile.drawn = false;
+            schedule = !drawScheduled;
+            drawScheduled = true;
+            if (superseded) {
+                framesSuperseded++;
+            }
+        }
+        if (replaced != null) {
+            replaced.release();
+        }
+        if (superseded) {
+            thread.onFrameDropped();
+        }
+        if (schedule) {
+            choreographer.postFrameCallback(vsyncCallback);
+        }
+    }
+
+    // Redraw with the frames at hand, after the layout or the surface changed
+    private void requestDraw() {
+        RenderThread thread;
+        synchronized (frameLock) {
+            thread = renderThread;
+            if (thread == null || drawScheduled) {
+                return;
+            }
+            drawScheduled = true;
+        }
+        choreographer.postFrameCallback(vsyncCallback);
+    }
+
+    private void drawTiles() {
+        RenderThread thread;
+        List<Tile> drawing;
+        VideoFrame[] frames;
+        boolean[] fresh;
+        synchronized (frameLock) {
+            // A pass posted before the surface moved to another thread is stale
+            if (renderThread == null || !renderThread.isCurrentThread()) {
+                return;
+            }
+            thread = renderThread;
+            drawScheduled = false;
+            drawing = tiles;
+            frames = new VideoFrame[drawing.size()];
+            fresh = new boolean[drawing.size()];
+            for (int i = 0; i < frames.length; i++) {
+                Tile tile = drawing.get(i);
+                frames[i] = tile.frame;
+                if (frames[i] != null) {
+                    frames[i].retain();
+                    fresh[i] = !tile.drawn;
+                    tile.drawn = true;
+                }
+            }
+        }
+        try {
+            if (eglSurface != null && surfaceWidth > 0 && surfaceHeight > 0) {
+                render(thread, drawing, frames, fresh);
+            }
+        } finally {
+            for (VideoFrame frame : frames) {
+                if (frame != null) {
+                    frame.release();
+                }
+            }
+        }
+    }
+
+    /*
+     * Swapping does not preserve the back buffer, so every pass composes all tiles. Only new
+     * frames are uploaded, into the texture of their tile, the others are drawn from the
+     * texture they left. A held frame is uploaded again only when its tile was resized or
+     * the scaling changed.
+     */
+    private void render(RenderThread thread, List<Tile> drawing, VideoFrame[] frames, boolean[] fresh) {
+        int height = surfaceHeight;
+        RendererCommon.ScalingType scalingType = this.scalingType;
+        boolean downscale = renderThreadPool.isDownscalingEnabled();
+        thread.makeCurrent(eglSurface);
+        releaseTextures(drawing);
+        for (int i = 0; i < frames.length; i++) {
+            if (frames[i] == null) {
+                continue;
+            }
+            Tile tile = drawing.get(i);
+            Rect bounds = tile.bounds;
+            boolean stale = tile.texture == null || !tile.textureValid
+                    || tile.texture.getWidth() != bounds.width() || tile.texture.getHeight() != bounds.height()
+                    || tile.textureScalingType != scalingType;
+            if (fresh[i] || stale) {
+                upload(thread, tile, frames[i], fresh[i], scalingType, downscale, bounds.width(), bounds.height());
+            }
+        }
+
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        GLES20.glClearColor(0f, 0f, 0f, 1f);
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        for (Tile tile : drawing) {
+            if (tile.texture == null || !tile.textureValid) {
+                continue;
+            }
+            Rect bounds = tile.bounds;
+            // Bounds are top down in view pixels, the viewport is bottom up
+            thread.getDrawer().drawRgb(tile.texture.getTextureId(), RendererCommon.identityMatrix(),
+                    tile.texture.getWidth(), tile.texture.getHeight(),
+                    bounds.left, height - bounds.bottom, tile.texture.getWidth(), tile.texture.getHeight());
+        }
+        thread.swapBuffers(eglSurface);
+        compositions++;
+    }
+
+    // Draw the frame into the texture of its tile, at the size the tile is shown at
+    private void upload(RenderThread thread, Tile tile, VideoFrame frame, boolean fresh,
+                        RendererCommon.ScalingType scalingType, boolean downscale, int width, int height) {
+        tile.textureValid = false;
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        if (tile.texture == null) {
+            tile.texture = new GlTextureFrameBuffer(GLES20.GL_RGBA);
+            texturedTiles.add(tile);
+        }
+        long drawStartNs = SystemClock.elapsedRealtimeNanos();
+        tile.texture.setSize(width, height);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, tile.texture.getFrameBufferId());
+        GLES20.glClearColor(0f, 0f, 0f, 1f);
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        if (!frameRenderer.draw(thread, frame, scalingType, false, downscale,
+                0, 0, width, height, width, height)) {
+            return;
+        }
+        tile.textureValid = true;
+        tile.textureScalingType = scalingType;
+        if (fresh) {
+            long now = SystemClock.elapsedRealtimeNanos();
+            framesRendered++;
+            thread.onFrameDrawn(tile.lastDrawNs != 0 ? (now - tile.lastDrawNs) / 1e6 : -1,
+                    frameRenderer.getUploadBytes(), now - drawStartNs - frameRenderer.getScaleNs(),
+                    frameRenderer.getScaleNs(), frameRenderer.wasDownscaled());
+            tile.lastDrawNs = now;
+        }
+    }
+
+    // Release the textures of tiles no longer drawn, of all tiles when kept is null
+    private void releaseTextures(@Nullable List<Tile> kept) {
+        for (int i = texturedTiles.size() - 1; i >= 0; i--) {
+            Tile tile = texturedTiles.get(i);
+            if (kept != null && kept.contains(tile)) {
+                continue;
+            }
+            tile.texture.release();
+            tile.texture = null;
+            tile.textureValid = false;
+            texturedTiles.remove(i);
+        }
+    }
+
+    // ===== Surface ===============================================================================
+
+    @Override
+    public void surfaceCreated(SurfaceHolder holder) {
+        final RenderThread thread = renderThreadPool.acquire();
+        final Surface surface = holder.getSurface();
+        final int generation;
+        synchronized (frameLock) {
+            renderThread = thread;
+            drawScheduled = false;
+            generation = ++surfaceGeneration;
+        }
+        thread.post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (frameLock) {
+                    // Destroyed before the thread got to it, surfaceDestroyed may have run first
+                    if (renderThread != thread || surfaceGeneration != generation) {
+                        return;
+                    }
+                }
+                eglSurface = thread.createWindowSurface(surface);
+            }
+        });
+    }
+
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        surfaceWidth = width;
+        surfaceHeight = height;
+        requestDraw();
+    }
+
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder) {
+        final RenderThread thread;
+        final List<Tile> released;
+        List<VideoFrame> dropped = new ArrayList<>();
+        synchronized (frameLock) {
+            thread = renderThread;
+            renderThread = null;
+            released = tiles;
+            // Frames are not held while nothing can show them
+            for (Tile tile : released) {
+                if (tile.frame != null) {
+                    dropped.add(tile.frame);
+                    tile.frame = null;
+                }
+            }
+        }
+        for (VideoFrame frame : dropped) {
+            frame.release();
+        }
+        if (thread == null) {
+            return;
+        }
+        // The surface must not be used anymore once this returns
+        thread.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                if (eglSurface != null) {
+                    // Textures go with the surface, the next one may be drawn by another thread
+                    thread.makeCurrent(eglSurface);
+                    releaseTextures(null);
+                    thread.releaseWindowSurface(eglSurface);
+                    eglSurface = null;
+                }
+                for (Tile tile : released) {
+                    tile.lastDrawNs = 0;
+                }
+            }
+        });
+        renderThreadPool.release(thread);
+    }
+
+    // ===== Properties ============================================================================
+
+    public void setScalingType(RendererCommon.ScalingType scalingType) {
+        this.scalingType = scalingType;
+        requestDraw();
+    }
+
+    /*
+     * Cap the rate every tile is drawn at, 0 or less removes the cap.
+     */
+    public void setMaxRenderFps(float maxRenderFps) {
+        this.maxRenderFps = maxRenderFps;
+        for (Tile tile : tilesBySid.values()) {
+            tile.pacer.setMaxFps(maxRenderFps);
+        }
+    }
+
+    /*
+     * Unbind every tile, once the view is dropped.
+     */
+    public void release() {
+        for (Tile tile : tilesBySid.values()) {
+            removeTile(tile);
+        }
+        tilesBySid.clear();
+        synchronized (frameLock) {
+            tiles = Collections.emptyList();
+        }
+    }
+
+    /*
+     * Frames drawn, skipped by the frame rate cap and replaced before a pass got to them,
+     * summed over the tiles, and the number of passes.
+     */
+    public WritableMap getFrameCounts() {
+        List<Tile> counted;
+        synchronized (frameLock) {
+            counted = tiles;
+        }
+        long framesPaced = 0;
+        for (Tile tile : counted) {
+            framesPaced += tile.framesPaced;
+        }
+        WritableMap counts = new WritableNativeMap();
+        counts.putInt("tiles", counted.size());
+        counts.putDouble("maxRenderFps", maxRenderFps);
+        counts.putDouble("framesRendered", framesRendered);
+        counts.putDouble("framesPaced", framesPaced);
+        counts.putDouble("framesSuperseded", framesSuperseded);
+        counts.putDouble("compositions", compositions);
+        return counts;
+    }
+}
@@ -0,0 +1,229 @@
+/**
+ * Puts chunked data track messages framed by DataTrackSendQueue back together. Chunks travel
+ * as string messages behind CHUNK_PREFIX; a string that does not parse as a chunk is an
+ * ordinary message. Sizes
+ * are bounded, so a peer cannot make this buffer more than MAX_BUFFERED_BYTES. Chunks arrive
+ * on the data track message thread, attach and detach come from the thread managing it.
+ */
+package com.actiotech.twiliovideorn;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Base64;
+
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+public class DataTrackChunkReassembler {
+
+    // Incomplete messages are dropped once no chunk arrived for this long
+    private static final long STALE_MESSAGE_MS = 30000;
+    // Bytes held by all incomplete messages together, a chunk going over drops its message
+    private static final long MAX_BUFFERED_BYTES = 2L * DataTrackSendQueue.MAX_CHUNKED_MESSAGE_SIZE;
+
+    public interface Listener {
+        void onStringMessage(String trackSid, String message);
+
+        void onBinaryMessage(String trackSid, ByteBuffer message);
+    }
+
+    private static final class PartialMessage {
+        final byte type;
+        final byte[][] chunks;
+        int receivedChunks = 0;
+        int totalSize = 0;
+        long lastChunkAtMs;
+
+        PartialMessage(byte type, int chunkCount) {
+            this.type = type;
+            this.chunks = new byte[chunkCount][];
+        }
+    }
+
+    private final Listener listener;
+    private final Map<String, PartialMessage> partials = new HashMap<>();
+    private long bufferedBytes = 0;
+    private long droppedMessages = 0;
+    @Nullable
+    private Handler handler;
+    private boolean expiryScheduled = false;
+
+    // Partial messages of a peer that stopped sending expire even when no other chunk arrives
+    private final Runnable expire = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (DataTrackChunkReassembler.this) {
+                expiryScheduled = false;
+                evictStale(SystemClock.elapsedRealtime());
+                scheduleExpiry();
+            }
+        }
+    };
+
+    public DataTrackChunkReassembler(Listener listener) {
+        this.listener = listener;
+    }
+
+    /*
+     * Bind to the handler of the data track message thread, all chunks arrive on it.
+     */
+    public synchronized void attach(Handler handler) {
+        detach();
+        this.handler = handler;
+        scheduleExpiry();
+    }
+
+    /*
+     * Drop the handler and anything still incomplete, the thread is going away.
+     */
+    public synchronized void detach() {
+        if (handler != null) {
+            handler.removeCallbacks(expire);
+        }
+        handler = null;
+        expiryScheduled = false;
+        droppedMessages += partials.size();
+        partials.clear();
+        bufferedBytes = 0;
+    }
+
+    public static boolean isChunkMessage(String message) {
+        return message.startsWith(DataTrackSendQueue.CHUNK_PREFIX);
+    }
+
+    /*
+     * Consume one chunk, delivering the message once its last chunk arrived. Returns false
+     * when the message is not a well formed chunk, the caller then delivers it as it is.
+     */
+    public synchronized boolean onChunk(String trackSid, String message) {
+        // prefix type|message id|chunk index|chunk count|base64 payload
+        String[] fields = message.substring(DataTrackSendQueue.CHUNK_PREFIX.length()).split("\\|", 5);
+        if (fields.length != 5 || !("s".equals(fields[0]) || "b".equals(fields[0]))) {
+            return false;
+        }
+        byte type;
+        int messageId;
+        int chunkIndex;
+        int chunkCount;
+        byte[] chunk;
+        try {
+            type = "s".equals(fields[0]) ? DataTrackSendQueue.TYPE_STRING : DataTrackSendQueue.TYPE_BINARY;
+            messageId = Integer.parseInt(fields[1]);
+            chunkIndex = Integer.parseInt(fields[2]);
+            chunkCount = Integer.parseInt(fields[3]);
+            chunk = Base64.decode(fields[4], Base64.NO_WRAP);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        evictStale(now);
+        if (chunkCount <= 0 || chunkCount > DataTrackSendQueue.MAX_CHUNK_COUNT
+                || chunkIndex < 0 || chunkIndex >= chunkCount
+                || chunk.length > DataTrackSendQueue.CHUNK_PAYLOAD_SIZE) {
+            droppedMessages++;
+            return true;
+        }
+        if (chunkCount == 1) {
+            deliver(trackSid, type, chunk);
+            return true;
+        }
+
+        String key = trackSid + ':' + messageId;
+        PartialMessage partial = partials.get(key);
+        if (partial == null) {
+            partial = new PartialMessage(type, chunkCount);
+            partials.put(key, partial);
+            scheduleExpiry();
+        }
+        partial.lastChunkAtMs = now;
+        if (partial.chunks.length != chunkCount || partial.chunks[chunkIndex] != null) {
+            return true;
+        }
+        if (partial.totalSize + chunk.length > DataTrackSendQueue.MAX_CHUNKED_MESSAGE_SIZE
+                || bufferedBytes + chunk.length > MAX_BUFFERED_BYTES) {
+            drop(key);
+            return true;
+        }
+        partial.chunks[chunkIndex] = chunk;
+        partial.receivedChunks++;
+        partial.totalSize += chunk.length;
+        bufferedBytes += chunk.length;
+        if (partial.receivedChunks < chunkCount) {
+            return true;
+        }
+
+        partials.remove(key);
+        bufferedBytes -= partial.totalSize;
+        byte[] assembled = new byte[partial.totalSize];
+        int offset = 0;
+        for (byte[] part : partial.chunks) {
+            System.arraycopy(part, 0, assembled, offset, part.length);
+            offset += part.length;
+        }
+        deliver(trackSid, partial.type, assembled);
+        return true;
+    }
+
+    /*
+     * Forget partial messages of a track that went away.
+     */
+    public synchronized void removeTrack(@Nullable String trackSid) {
+        if (trackSid == null) {
+            return;
+        }
+        String prefix = trackSid + ':';
+        Iterator<Map.Entry<String, PartialMessage>> iterator = partials.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, PartialMessage> entry = iterator.next();
+            if (entry.getKey().startsWith(prefix)) {
+                bufferedBytes -= entry.getValue().totalSize;
+                iterator.remove();
+                droppedMessages++;
+            }
+        }
+    }
+
+    public synchronized long getDroppedMessages() {
+        return droppedMessages;
+    }
+
+    private void deliver(String trackSid, byte type, byte[] message) {
+        if (type == DataTrackSendQueue.TYPE_STRING) {
+            listener.onStringMessage(trackSid, new String(message, DataTrackSendQueue.UTF_8));
+        } else {
+            listener.onBinaryMessage(trackSid, ByteBuffer.wrap(message));
+        }
+    }
+
+    private void scheduleExpiry() {
+        if (handler != null && !expiryScheduled && !partials.isEmpty()) {
+            expiryScheduled = true;
+            handler.postDelayed(expire, STALE_MESSAGE_MS);
+        }
+    }
+
+    private void drop(String key) {
+        PartialMessage partial = partials.remove(key);
+        if (partial != null) {
+            bufferedBytes -= partial.totalSize;
+            droppedMessages++;
+        }
+    }
+
+    private void evictStale(long now) {
+        Iterator<PartialMessage> iterator = partials.values().iterator();
+        while (iterator.hasNext()) {
+            PartialMessage partial = iterator.next();
+            if (now - partial.lastChunkAtMs > STALE_MESSAGE_MS) {
+                bufferedBytes -= partial.totalSize;
+                iterator.remove();
+                droppedMessages++;
+            }
+        }
+    }
+}
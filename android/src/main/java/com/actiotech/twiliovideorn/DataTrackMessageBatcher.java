@@ -0,0 +1,183 @@
+/**
+ * Buffers incoming data track string messages on the data track message thread and
+ * delivers them to JS as one array per flush interval or size threshold.
+ */
+package com.actiotech.twiliovideorn;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeArray;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class DataTrackMessageBatcher {
+
+    public static final int DEFAULT_FLUSH_INTERVAL_MS = 50;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+
+    public interface Listener {
+        void onBatch(WritableMap batch);
+    }
+
+    public interface SenderResolver {
+        @Nullable
+        String identityForTrack(String trackSid);
+    }
+
+    private final Listener listener;
+    private final SenderResolver senderResolver;
+    private volatile boolean enabled = false;
+    private volatile int flushIntervalMs = DEFAULT_FLUSH_INTERVAL_MS;
+    private volatile int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+    private volatile Handler handler;
+
+    // Everything below is only touched on the data track message thread
+    private final ArrayList<String> messages = new ArrayList<>();
+    private final ArrayList<String> messageTrackSids = new ArrayList<>();
+    private long[] receivedAtMs = new long[DEFAULT_MAX_BATCH_SIZE];
+    private final Map<String, Integer> senderIndexByTrack = new HashMap<>();
+
+    private long batchCount = 0;
+    private long messageCount = 0;
+    private int largestBatch = 0;
+    private long totalLatencyMs = 0;
+    private long maxLatencyMs = 0;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public DataTrackMessageBatcher(Listener listener, SenderResolver senderResolver) {
+        this.listener = listener;
+        this.senderResolver = senderResolver;
+    }
+
+    public void configure(boolean enabled, int flushIntervalMs, int maxBatchSize) {
+        this.flushIntervalMs = flushIntervalMs > 0 ? flushIntervalMs : DEFAULT_FLUSH_INTERVAL_MS;
+        this.maxBatchSize = maxBatchSize > 0 ? maxBatchSize : DEFAULT_MAX_BATCH_SIZE;
+        this.enabled = enabled;
+        Handler handler = this.handler;
+        if (!enabled && handler != null) {
+            handler.post(flushRunnable);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /*
+     * Bind to the handler of the data track message thread, all messages are added on it.
+     */
+    public void attach(Handler handler) {
+        // Anything left over from a previous thread is stale
+        messages.clear();
+        messageTrackSids.clear();
+        senderIndexByTrack.clear();
+        this.handler = handler;
+    }
+
+    /*
+     * Drop the handler, the thread is going away together with anything still buffered.
+     */
+    public void detach() {
+        Handler handler = this.handler;
+        if (handler != null) {
+            handler.removeCallbacks(flushRunnable);
+        }
+        this.handler = null;
+    }
+
+    public void add(String trackSid, String message) {
+        Handler handler = this.handler;
+        if (handler == null) {
+            return;
+        }
+        int index = messages.size();
+        if (index == receivedAtMs.length) {
+            receivedAtMs = Arrays.copyOf(receivedAtMs, index * 2);
+        }
+        receivedAtMs[index] = SystemClock.elapsedRealtime();
+        messages.add(message);
+        messageTrackSids.add(trackSid);
+
+        if (messages.size() >= maxBatchSize) {
+            handler.removeCallbacks(flushRunnable);
+            flush();
+        } else if (index == 0) {
+            handler.postDelayed(flushRunnable, flushIntervalMs);
+        }
+    }
+
+    private void flush() {
+        int size = messages.size();
+        if (size == 0) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        long latencyMs = 0;
+        long batchMaxLatencyMs = 0;
+
+        // Each sender is resolved and sent once per batch, messages refer to it by index
+        WritableArray senders = new WritableNativeArray();
+        WritableArray senderIndexes = new WritableNativeArray();
+        WritableArray messageArray = new WritableNativeArray();
+        for (int i = 0; i < size; i++) {
+            String trackSid = messageTrackSids.get(i);
+            Integer senderIndex = senderIndexByTrack.get(trackSid);
+            if (senderIndex == null) {
+                senderIndex = senderIndexByTrack.size();
+                senderIndexByTrack.put(trackSid, senderIndex);
+                senders.pushString(senderResolver.identityForTrack(trackSid));
+            }
+            senderIndexes.pushInt(senderIndex);
+            messageArray.pushString(messages.get(i));
+
+            long latency = now - receivedAtMs[i];
+            latencyMs += latency;
+            batchMaxLatencyMs = Math.max(batchMaxLatencyMs, latency);
+        }
+        senderIndexByTrack.clear();
+        messages.clear();
+        messageTrackSids.clear();
+
+        synchronized (this) {
+            batchCount++;
+            messageCount += size;
+            largestBatch = Math.max(largestBatch, size);
+            totalLatencyMs += latencyMs;
+            maxLatencyMs = Math.max(maxLatencyMs, batchMaxLatencyMs);
+        }
+
+        WritableMap batch = new WritableNativeMap();
+        batch.putArray("senders", senders);
+        batch.putArray("senderIndexes", senderIndexes);
+        batch.putArray("messages", messageArray);
+        listener.onBatch(batch);
+    }
+
+    public synchronized WritableMap getMetrics() {
+        WritableMap metrics = new WritableNativeMap();
+        metrics.putBoolean("batchingEnabled", enabled);
+        metrics.putDouble("batches", batchCount);
+        metrics.putDouble("messages", messageCount);
+        metrics.putInt("largestBatch", largestBatch);
+        metrics.putDouble("averageBatchSize", batchCount > 0 ? messageCount / (double) batchCount : 0);
+        metrics.putDouble("averageLatencyMs", messageCount > 0 ? totalLatencyMs / (double) messageCount : 0);
+        metrics.putDouble("maxLatencyMs", maxLatencyMs);
+        return metrics;
+    }
+}
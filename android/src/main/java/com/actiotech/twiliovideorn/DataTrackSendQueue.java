@@ -0,0 +1,358 @@
+/**
+ * Outbound pipeline for the local data track. Messages are queued per priority lane and
+ * sent from a dedicated thread, one chunk at a time, so control messages overtake bulk
+ * transfers. Payloads go out unchanged unless chunking was enabled, then the ones above the
+ * SCTP message limit are split into chunks, sent as prefixed string messages that
+ * DataTrackChunkReassembler puts back together. Only Android peers using this library
+ * reassemble them, others receive the chunk strings as they are.
+ */
+package com.actiotech.twiliovideorn;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Base64;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+import com.twilio.video.LocalDataTrack;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+
+public class DataTrackSendQueue {
+
+    private static final String TAG = "DataTrackSendQueue";
+    private static final String THREAD_NAME = "DataTrackSender";
+
+    /*
+     * Chunk layout, a string message: prefix type|message id|chunk index|chunk count|payload,
+     * type being s or b and the payload base64. Binary messages are never chunks, and a string
+     * is only taken for one when all of its fields parse.
+     */
+    static final String CHUNK_PREFIX = "~TVCHUNK1~|";
+    static final byte TYPE_STRING = 0;
+    static final byte TYPE_BINARY = 1;
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Data track messages above 16 KiB are not reliably delivered
+    static final int MAX_MESSAGE_SIZE = 16 * 1024;
+    // Room left in a chunk message for the prefix and the header fields
+    private static final int CHUNK_HEADER_RESERVE = 64;
+    // Payload bytes per chunk, base64 grows them by a third
+    static final int CHUNK_PAYLOAD_SIZE = (MAX_MESSAGE_SIZE - CHUNK_HEADER_RESERVE) / 4 * 3;
+    // Largest message sent in chunks, and so the largest a receiver reassembles
+    static final int MAX_CHUNKED_MESSAGE_SIZE = 4 * 1024 * 1024;
+    static final int MAX_CHUNK_COUNT = (MAX_CHUNKED_MESSAGE_SIZE + CHUNK_PAYLOAD_SIZE - 1) / CHUNK_PAYLOAD_SIZE;
+    // How long to back off when the SDK refuses a message because its buffer is full
+    private static final int RETRY_DELAY_MS = 20;
+
+    public static final int PRIORITY_HIGH = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_BULK = 2;
+    private static final int LANE_COUNT = 3;
+
+    public interface Listener {
+        /*
+         * Called when the queue crosses its high or low water mark.
+         */
+        void onQueueStateChanged(WritableMap state);
+    }
+
+    private static final class PendingMessage {
+        final byte type;
+        @Nullable final String text;
+        @Nullable final byte[] payload;
+        final int size;
+        final int id;
+        // 0 for a message sent as it is
+        final int chunkCount;
+        int nextChunk = 0;
+
+        PendingMessage(byte type, @Nullable String text, @Nullable byte[] payload, int size, int id, int chunkCount) {
+            this.type = type;
+            this.text = text;
+            this.payload = payload;
+            this.size = size;
+            this.id = id;
+            this.chunkCount = chunkCount;
+        }
+
+        int sendCount() {
+            return Math.max(1, chunkCount);
+        }
+    }
+
+    private final Listener listener;
+    private final ByteBufferPool bufferPool;
+    private final Object lock = new Object();
+    @SuppressWarnings("unchecked")
+    private final ArrayDeque<PendingMessage>[] lanes = new ArrayDeque[LANE_COUNT];
+    private Handler handler;
+    private volatile LocalDataTrack localDataTrack;
+    // Off by default, chunks are only readable by Android peers using this library
+    private volatile boolean chunkingEnabled = false;
+
+    private int nextMessageId = 0;
+    private boolean drainScheduled = false;
+    private int queuedMessages = 0;
+    private long queuedBytes = 0;
+    private long highWaterMarkBytes = 256 * 1024;
+    private boolean saturated = false;
+
+    private long sentMessages = 0;
+    private long sentChunks = 0;
+    private long retries = 0;
+    private long rejectedMessages = 0;
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            drainOne();
+        }
+    };
+
+    public DataTrackSendQueue(Listener listener, ByteBufferPool bufferPool) {
+        this.listener = listener;
+        this.bufferPool = bufferPool;
+        for (int i = 0; i < LANE_COUNT; i++) {
+            lanes[i] = new ArrayDeque<>();
+        }
+    }
+
+    public static int parsePriority(@Nullable String priority) {
+        if ("high".equals(priority)) {
+            return PRIORITY_HIGH;
+        }
+        if ("bulk".equals(priority)) {
+            return PRIORITY_BULK;
+        }
+        return PRIORITY_NORMAL;
+    }
+
+    public void setLocalDataTrack(@Nullable LocalDataTrack localDataTrack) {
+        this.localDataTrack = localDataTrack;
+        // The drain stops while there is no track, pick up whatever queued up meanwhile
+        synchronized (lock) {
+            if (localDataTrack != null && queuedMessages > 0) {
+                scheduleDrain(0);
+            }
+        }
+    }
+
+    /*
+     * Split messages above MAX_MESSAGE_SIZE into chunks. When disabled they are sent whole, as
+     * the SDK would.
+     */
+    public void setChunkingEnabled(boolean enabled) {
+        chunkingEnabled = enabled;
+    }
+
+    public void setHighWaterMark(long bytes) {
+        synchronized (lock) {
+            highWaterMarkBytes = bytes;
+        }
+    }
+
+    public void enqueueString(String message, int priority) {
+        byte[] bytes = message.getBytes(UTF_8);
+        if (bytes.length <= MAX_MESSAGE_SIZE || !chunkingEnabled) {
+            // Small strings go out as plain string messages so any peer can read them
+            enqueue(new PendingMessage(TYPE_STRING, message, null, bytes.length, 0, 0), priority);
+        } else {
+            enqueueChunked(TYPE_STRING, bytes, priority);
+        }
+    }
+
+    public void enqueueBinary(byte[] bytes, int priority) {
+        if (bytes.length <= MAX_MESSAGE_SIZE || !chunkingEnabled) {
+            enqueue(new PendingMessage(TYPE_BINARY, null, bytes, bytes.length, 0, 0), priority);
+        } else {
+            enqueueChunked(TYPE_BINARY, bytes, priority);
+        }
+    }
+
+    private void enqueueChunked(byte type, byte[] bytes, int priority) {
+        if (bytes.length > MAX_CHUNKED_MESSAGE_SIZE) {
+            Log.w(TAG, "Dropping a " + bytes.length + " byte message, above " + MAX_CHUNKED_MESSAGE_SIZE);
+            synchronized (lock) {
+                rejectedMessages++;
+            }
+            return;
+        }
+        int chunkCount = (bytes.length + CHUNK_PAYLOAD_SIZE - 1) / CHUNK_PAYLOAD_SIZE;
+        int id;
+        synchronized (lock) {
+            id = nextMessageId++;
+        }
+        enqueue(new PendingMessage(type, null, bytes, bytes.length, id, chunkCount), priority);
+    }
+
+    private void enqueue(PendingMessage message, int priority) {
+        synchronized (lock) {
+            lanes[Math.max(0, Math.min(LANE_COUNT - 1, priority))].addLast(message);
+            queuedMessages++;
+            queuedBytes += message.size;
+            updateSaturation();
+            scheduleDrain(0);
+        }
+    }
+
+    /*
+     * Drop everything still queued.
+     */
+    public void clear() {
+        synchronized (lock) {
+            for (ArrayDeque<PendingMessage> lane : lanes) {
+                lane.clear();
+            }
+            queuedMessages = 0;
+            queuedBytes = 0;
+            updateSaturation();
+        }
+    }
+
+    /*
+     * Drop everything still queued and quit the sender thread. It is started again by the
+     * next message.
+     */
+    public void release() {
+        synchronized (lock) {
+            clear();
+            if (handler != null) {
+                handler.removeCallbacks(drain);
+                handler.getLooper().quit();
+                handler = null;
+            }
+            drainScheduled = false;
+        }
+    }
+
+    public WritableMap getMetrics() {
+        WritableMap metrics = new WritableNativeMap();
+        synchronized (lock) {
+            metrics.putInt("queuedMessages", queuedMessages);
+            metrics.putDouble("queuedBytes", queuedBytes);
+            metrics.putBoolean("saturated", saturated);
+            metrics.putDouble("sentMessages", sentMessages);
+            metrics.putDouble("sentChunks", sentChunks);
+            metrics.putDouble("retries", retries);
+            metrics.putDouble("rejectedMessages", rejectedMessages);
+        }
+        return metrics;
+    }
+
+    private void scheduleDrain(int delayMs) {
+        if (drainScheduled) {
+            return;
+        }
+        if (handler == null) {
+            HandlerThread thread = new HandlerThread(THREAD_NAME);
+            thread.start();
+            handler = new Handler(thread.getLooper());
+        }
+        drainScheduled = true;
+        handler.postDelayed(drain, delayMs);
+    }
+
+    /*
+     * Send a single chunk of the highest priority message, then yield so anything queued in
+     * the meantime on a higher lane goes next.
+     */
+    private void drainOne() {
+        PendingMessage message = null;
+        synchronized (lock) {
+            drainScheduled = false;
+            for (ArrayDeque<PendingMessage> lane : lanes) {
+                message = lane.peekFirst();
+                if (message != null) {
+                    break;
+                }
+            }
+        }
+        LocalDataTrack localDataTrack = this.localDataTrack;
+        // Without a track the queue waits for setLocalDataTrack to start draining again
+        if (message == null || localDataTrack == null) {
+            return;
+        }
+
+        boolean sent;
+        int chunkBytes;
+        if (message.text != null) {
+            chunkBytes = message.size;
+            sent = localDataTrack.send(message.text);
+        } else if (message.chunkCount == 0) {
+            chunkBytes = message.size;
+            ByteBuffer buffer = bufferPool.acquire(chunkBytes);
+            buffer.put(message.payload);
+            buffer.flip();
+            try {
+                sent = localDataTrack.send(buffer);
+            } finally {
+                bufferPool.release(buffer);
+            }
+        } else {
+            int offset = message.nextChunk * CHUNK_PAYLOAD_SIZE;
+            chunkBytes = Math.min(CHUNK_PAYLOAD_SIZE, message.payload.length - offset);
+            String chunk = CHUNK_PREFIX
+                    + (message.type == TYPE_STRING ? 's' : 'b') + '|'
+                    + message.id + '|'
+                    + message.nextChunk + '|'
+                    + message.chunkCount + '|'
+                    + Base64.encodeToString(message.payload, offset, chunkBytes, Base64.NO_WRAP);
+            sent = localDataTrack.send(chunk);
+        }
+
+        synchronized (lock) {
+            if (!sent) {
+                retries++;
+                if (queuedMessages > 0) {
+                    scheduleDrain(RETRY_DELAY_MS);
+                }
+                return;
+            }
+            sentChunks++;
+            message.nextChunk++;
+            // The message may have been dropped by clear() while its chunk was being sent
+            ArrayDeque<PendingMessage> owningLane = null;
+            for (ArrayDeque<PendingMessage> lane : lanes) {
+                if (lane.peekFirst() == message) {
+                    owningLane = lane;
+                    break;
+                }
+            }
+            if (owningLane != null) {
+                queuedBytes -= chunkBytes;
+                if (message.nextChunk >= message.sendCount()) {
+                    owningLane.pollFirst();
+                    queuedMessages--;
+                    sentMessages++;
+                }
+            }
+            updateSaturation();
+            if (queuedMessages > 0) {
+                scheduleDrain(0);
+            }
+        }
+    }
+
+    // Hysteresis: saturated above the high water mark, clear again below half of it
+    private void updateSaturation() {
+        boolean wasSaturated = saturated;
+        if (queuedBytes >= highWaterMarkBytes) {
+            saturated = true;
+        } else if (queuedBytes <= highWaterMarkBytes / 2) {
+            saturated = false;
+        }
+        if (wasSaturated != saturated) {
+            WritableMap state = new WritableNativeMap();
+            state.putBoolean("saturated", saturated);
+            state.putInt("queuedMessages", queuedMessages);
+            state.putDouble("queuedBytes", queuedBytes);
+            listener.onQueueStateChanged(state);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/**
+ * Queues module events natively and delivers them to JS once per frame as a
+ * single batched payload, merging events that supersede each other.
+ */
+package com.actiotech.twiliovideorn;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeArray;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class EventDispatcher {
+
+    /*
+     * Upper bound on how long an event may wait for a frame callback. Choreographer stops
+     * ticking while the screen is off, so this keeps events flowing in that case.
+     */
+    private static final long MAX_FLUSH_DELAY_MS = 100;
+
+    public interface Emitter {
+        void emit(String name, @Nullable Object data);
+    }
+
+    private static final class PendingEvent {
+        final String name;
+        final ReadableMap data;
+
+        PendingEvent(String name, ReadableMap data) {
+            this.name = name;
+            this.data = data;
+        }
+    }
+
+    private final String batchEventName;
+    private final Emitter emitter;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Object lock = new Object();
+
+    // Insertion ordered; a superseding event moves to the end so JS sees the latest state last
+    private final LinkedHashMap<String, PendingEvent> pending = new LinkedHashMap<>();
+    private long uniqueKeySequence = 0;
+    private boolean flushScheduled = false;
+    private volatile boolean batchingEnabled = false;
+
+    private long enqueuedCount = 0;
+    private long mergedCount = 0;
+    private long dispatchedCount = 0;
+    private long batchCount = 0;
+    private int largestBatch = 0;
+
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            flush();
+        }
+    };
+
+    private final Runnable scheduleFrameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(frameCallback);
+        }
+    };
+
+    private final Runnable fallbackFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public EventDispatcher(String batchEventName, Emitter emitter) {
+        this.batchEventName = batchEventName;
+        this.emitter = emitter;
+    }
+
+    public void setBatchingEnabled(boolean enabled) {
+        batchingEnabled = enabled;
+        if (!enabled) {
+            flush();
+        }
+    }
+
+    public boolean isBatchingEnabled() {
+        return batchingEnabled;
+    }
+
+    /*
+     * Dispatch an event that never supersedes another one.
+     */
+    public void dispatch(String name, ReadableMap data) {
+        dispatch(name, data, null);
+    }
+
+    /*
+     * Dispatch an event. A queued event with the same coalesce key is dropped in favour of
+     * this one, which takes the later position in the batch.
+     */
+    public void dispatch(String name, ReadableMap data, @Nullable String coalesceKey) {
+        if (!batchingEnabled) {
+            synchronized (lock) {
+                dispatchedCount++;
+            }
+            emitter.emit(name, data);
+            return;
+        }
+
+        boolean schedule;
+        synchronized (lock) {
+            enqueuedCount++;
+            String key = coalesceKey != null ? coalesceKey : "#" + (uniqueKeySequence++);
+            if (pending.remove(key) != null) {
+                mergedCount++;
+            }
+            pending.put(key, new PendingEvent(name, data));
+            schedule = !flushScheduled;
+            flushScheduled = true;
+        }
+
+        if (schedule) {
+            scheduleFlush();
+        }
+    }
+
+    private void scheduleFlush() {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            scheduleFrameRunnable.run();
+        } else {
+            mainHandler.post(scheduleFrameRunnable);
+        }
+        mainHandler.postDelayed(fallbackFlushRunnable, MAX_FLUSH_DELAY_MS);
+    }
+
+    /*
+     * Deliver everything queued so far as one batch.
+     */
+    public void flush() {
+        WritableArray batch;
+        synchronized (lock) {
+            flushScheduled = false;
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = new WritableNativeArray();
+            int size = 0;
+            Iterator<Map.Entry<String, PendingEvent>> iterator = pending.entrySet().iterator();
+            while (iterator.hasNext()) {
+                PendingEvent event = iterator.next().getValue();
+                WritableMap entry = new WritableNativeMap();
+                entry.putString("name", event.name);
+                entry.putMap("data", event.data);
+                batch.pushMap(entry);
+                iterator.remove();
+                size++;
+            }
+            dispatchedCount += size;
+            batchCount++;
+            largestBatch = Math.max(largestBatch, size);
+            // Emit under the lock so concurrent flushes cannot reorder batches
+            emitter.emit(batchEventName, batch);
+        }
+        mainHandler.removeCallbacks(fallbackFlushRunnable);
+    }
+
+    /*
+     * Drop anything still queued, e.g. when the module is torn down.
+     */
+    public void clear() {
+        synchronized (lock) {
+            pending.clear();
+            flushScheduled = false;
+        }
+        mainHandler.removeCallbacks(scheduleFrameRunnable);
+        mainHandler.removeCallbacks(fallbackFlushRunnable);
+    }
+
+    public WritableMap getMetrics() {
+        WritableMap metrics = new WritableNativeMap();
+        synchronized (lock) {
+            metrics.putBoolean("batchingEnabled", batchingEnabled);
+            metrics.putDouble("enqueued", enqueuedCount);
+            metrics.putDouble("merged", mergedCount);
+            metrics.putDouble("dispatched", dispatchedCount);
+            metrics.putDouble("batches", batchCount);
+            metrics.putInt("largestBatch", largestBatch);
+            metrics.putInt("pending", pending.size());
+        }
+        return metrics;
+    }
+}
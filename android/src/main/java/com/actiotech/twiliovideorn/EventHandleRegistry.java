@@ -0,0 +1,111 @@
+/**
+ * Assigns small integer handles to participants and tracks for the compact event schema.
+ * Each descriptor is announced once, later events only carry its handle.
+ */
+package com.actiotech.twiliovideorn;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeArray;
+import com.facebook.react.bridge.WritableNativeMap;
+import com.twilio.video.Participant;
+import com.twilio.video.TrackPublication;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class EventHandleRegistry {
+
+    public interface Listener {
+        /*
+         * Called with the descriptors of newly assigned handles, before any event uses them.
+         */
+        void onAnnounce(WritableMap announcement);
+    }
+
+    private final Listener listener;
+    private final Map<String, Integer> participantHandles = new HashMap<>();
+    private final Map<String, Integer> trackHandles = new HashMap<>();
+    // Never reset, so a handle seen by JS always refers to the same descriptor
+    private int nextHandle = 1;
+    private volatile boolean enabled = false;
+
+    public EventHandleRegistry(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /*
+     * Handle for the participant, or null when it cannot be interned and the verbose
+     * representation has to be used.
+     */
+    @Nullable
+    public Integer participantHandle(Participant participant) {
+        String sid = participant.getSid();
+        if (sid == null) {
+            return null;
+        }
+        synchronized (this) {
+            Integer existing = participantHandles.get(sid);
+            if (existing != null) {
+                return existing;
+            }
+            int handle = nextHandle++;
+            participantHandles.put(sid, handle);
+            WritableMap descriptor = new WritableNativeMap();
+            descriptor.putInt("handle", handle);
+            descriptor.putString("identity", participant.getIdentity());
+            descriptor.putString("sid", sid);
+            announce(descriptor);
+            return handle;
+        }
+    }
+
+    @Nullable
+    public Integer trackHandle(TrackPublication publication) {
+        String trackSid = publication.getTrackSid();
+        if (trackSid == null) {
+            return null;
+        }
+        synchronized (this) {
+            Integer existing = trackHandles.get(trackSid);
+            if (existing != null) {
+                return existing;
+            }
+            int handle = nextHandle++;
+            trackHandles.put(trackSid, handle);
+            WritableMap descriptor = new WritableNativeMap();
+            descriptor.putInt("handle", handle);
+            descriptor.putString("trackSid", trackSid);
+            descriptor.putString("trackName", publication.getTrackName());
+            announce(descriptor);
+            return handle;
+        }
+    }
+
+    /*
+     * Forget the descriptors of the room that was left.
+     */
+    public synchronized void clear() {
+        participantHandles.clear();
+        trackHandles.clear();
+    }
+
+    // Announced under the lock so announcements reach the dispatcher in handle order
+    private void announce(WritableMap descriptor) {
+        WritableArray descriptors = new WritableNativeArray();
+        descriptors.pushMap(descriptor);
+        WritableMap announcement = new WritableNativeMap();
+        announcement.putArray("descriptors", descriptors);
+        listener.onAnnounce(announcement);
+    }
+}
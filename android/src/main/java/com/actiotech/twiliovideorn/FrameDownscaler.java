@@ -0,0 +1,143 @@
+/**
+ * Crops and scales frames down to the size they are displayed at before they are uploaded,
+ * so small tiles do not upload full resolution frames. Texture frames are scaled on the GPU
+ * by their producer, I420 planes are scaled here into pooled buffers. Used on a render thread.
+ */
+package com.actiotech.twiliovideorn;
+
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+
+import tvi.webrtc.JavaI420Buffer;
+import tvi.webrtc.VideoFrame;
+
+public class FrameDownscaler {
+
+    // Scaling is only worth it when it at least halves the pixels
+    private static final float MAX_PIXEL_RATIO = 0.5f;
+
+    private final ByteBufferPool bufferPool = new ByteBufferPool(4);
+
+    /*
+     * A new frame cropped to the aspect ratio of the target when crop is set, and scaled down
+     * to the target size, or null when the frame is small enough already. The caller releases
+     * the returned frame.
+     */
+    @Nullable
+    public VideoFrame downscale(VideoFrame frame, int targetWidth, int targetHeight, boolean crop) {
+        return downscale(frame, targetWidth, targetHeight, crop, MAX_PIXEL_RATIO);
+    }
+
+    /*
+     * As above, scaling whenever it keeps at most maxPixelRatio of the pixels.
+     */
+    @Nullable
+    public VideoFrame downscale(VideoFrame frame, int targetWidth, int targetHeight, boolean crop,
+                                float maxPixelRatio) {
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            return null;
+        }
+        VideoFrame.Buffer buffer = frame.getBuffer();
+        // The target is in display orientation, the buffer is not rotated yet
+        if (frame.getRotation() % 180 != 0) {
+            int swap = targetWidth;
+            targetWidth = targetHeight;
+            targetHeight = swap;
+        }
+
+        int cropWidth = buffer.getWidth();
+        int cropHeight = buffer.getHeight();
+        if (crop) {
+            float targetAspectRatio = targetWidth / (float) targetHeight;
+            if (cropWidth / (float) cropHeight > targetAspectRatio) {
+                cropWidth = Math.round(cropHeight * targetAspectRatio);
+            } else {
+                cropHeight = Math.round(cropWidth / targetAspectRatio);
+            }
+            cropWidth = Math.max(2, cropWidth & ~1);
+            cropHeight = Math.max(2, cropHeight & ~1);
+        }
+        float scale = Math.min(targetWidth / (float) cropWidth, targetHeight / (float) cropHeight);
+        if (scale >= 1f || scale * scale > maxPixelRatio) {
+            return null;
+        }
+        int scaledWidth = Math.max(2, Math.round(cropWidth * scale) & ~1);
+        int scaledHeight = Math.max(2, Math.round(cropHeight * scale) & ~1);
+        int cropX = ((buffer.getWidth() - cropWidth) / 2) & ~1;
+        int cropY = ((buffer.getHeight() - cropHeight) / 2) & ~1;
+
+        VideoFrame.Buffer scaled;
+        if (buffer instanceof VideoFrame.TextureBuffer) {
+            scaled = buffer.cropAndScale(cropX, cropY, cropWidth, cropHeight, scaledWidth, scaledHeight);
+        } else {
+            VideoFrame.I420Buffer i420 = buffer.toI420();
+            if (i420 == null) {
+                return null;
+            }
+            try {
+                scaled = scaleI420(i420, cropX, cropY, cropWidth, cropHeight, scaledWidth, scaledHeight);
+            } finally {
+                i420.release();
+            }
+        }
+        return new VideoFrame(scaled, frame.getRotation(), frame.getTimestampNs());
+    }
+
+    private VideoFrame.I420Buffer scaleI420(VideoFrame.I420Buffer source, int cropX, int cropY,
+                                            int cropWidth, int cropHeight, int width, int height) {
+        int chromaWidth = (width + 1) / 2;
+        int chromaHeight = (height + 1) / 2;
+        int ySize = width * height;
+        int chromaSize = chromaWidth * chromaHeight;
+        final ByteBuffer planes = bufferPool.acquire(ySize + 2 * chromaSize);
+
+        scalePlane(source.getDataY(), source.getStrideY(), cropX, cropY, cropWidth, cropHeight,
+                slice(planes, 0, ySize), width, width, height);
+        scalePlane(source.getDataU(), source.getStrideU(), cropX / 2, cropY / 2, cropWidth / 2, cropHeight / 2,
+                slice(planes, ySize, chromaSize), chromaWidth, chromaWidth, chromaHeight);
+        scalePlane(source.getDataV(), source.getStrideV(), cropX / 2, cropY / 2, cropWidth / 2, cropHeight / 2,
+                slice(planes, ySize + chromaSize, chromaSize), chromaWidth, chromaWidth, chromaHeight);
+
+        return JavaI420Buffer.wrap(width, height,
+                slice(planes, 0, ySize), width,
+                slice(planes, ySize, chromaSize), chromaWidth,
+                slice(planes, ySize + chromaSize, chromaSize), chromaWidth,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        bufferPool.release(planes);
+                    }
+                });
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(offset);
+        duplicate.limit(offset + length);
+        return duplicate.slice();
+    }
+
+    /*
+     * Each destination pixel averages the 2x2 source block at its position, which costs
+     * four reads per destination pixel however large the source is.
+     */
+    private static void scalePlane(ByteBuffer src, int srcStride, int srcX, int srcY,
+                                   int srcWidth, int srcHeight,
+                                   ByteBuffer dst, int dstStride, int dstWidth, int dstHeight) {
+        for (int y = 0; y < dstHeight; y++) {
+            int sy = srcY + Math.min(srcHeight - 2, (int) ((y + 0.5f) * srcHeight / dstHeight - 0.5f));
+            sy = Math.max(srcY, sy);
+            int row0 = sy * srcStride;
+            int row1 = row0 + srcStride;
+            int dstRow = y * dstStride;
+            for (int x = 0; x < dstWidth; x++) {
+                int sx = srcX + Math.min(srcWidth - 2, (int) ((x + 0.5f) * srcWidth / dstWidth - 0.5f));
+                sx = Math.max(srcX, sx);
+                int sum = (src.get(row0 + sx) & 0xff) + (src.get(row0 + sx + 1) & 0xff)
+                        + (src.get(row1 + sx) & 0xff) + (src.get(row1 + sx + 1) & 0xff);
+                dst.put(dstRow + x, (byte) ((sum + 2) >> 2));
+            }
+        }
+    }
+}
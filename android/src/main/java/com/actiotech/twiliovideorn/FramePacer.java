@@ -0,0 +1,50 @@
+/**
+ * Frame rate cap of one video source. Paces by frame timestamps rather than by counting
+ * frames, so the cap holds whatever the source frame rate is. Consulted on the thread
+ * delivering frames, the cap can be changed from any thread.
+ */
+package com.actiotech.twiliovideorn;
+
+public class FramePacer {
+
+    // 0 lets every frame through
+    private volatile long minFrameIntervalNs = 0;
+    // Only touched on the thread delivering frames
+    private long nextFrameTimestampNs = 0;
+
+    /*
+     * Cap the rate frames are let through at, 0 or less removes the cap.
+     */
+    public void setMaxFps(float maxFps) {
+        minFrameIntervalNs = maxFps > 0 ? (long) (1_000_000_000L / maxFps) : 0;
+    }
+
+    public float getMaxFps() {
+        long intervalNs = minFrameIntervalNs;
+        return intervalNs > 0 ? 1_000_000_000f / intervalNs : 0;
+    }
+
+    public long getFrameIntervalNs() {
+        return minFrameIntervalNs;
+    }
+
+    public boolean shouldRender(long timestampNs) {
+        long intervalNs = minFrameIntervalNs;
+        if (intervalNs == 0) {
+            return true;
+        }
+        // A timestamp far from the expected one means a new source, start pacing over
+        if (nextFrameTimestampNs == 0
+                || timestampNs < nextFrameTimestampNs - 2 * intervalNs
+                || timestampNs > nextFrameTimestampNs + 2 * intervalNs) {
+            nextFrameTimestampNs = timestampNs + intervalNs;
+            return true;
+        }
+        // Tolerate capture jitter, otherwise a frame arriving marginally early halves the rate
+        if (timestampNs < nextFrameTimestampNs - intervalNs / 8) {
+            return false;
+        }
+        nextFrameTimestampNs = Math.max(nextFrameTimestampNs + intervalNs, timestampNs);
+        return true;
+    }
+}
@@ -0,0 +1,281 @@
+/**
+ * Still images of video tracks. A one-shot sink takes the next frame of the track, and
+ * scaling, rotation and JPEG encoding happen on a single background thread with a bounded
+ * queue, so neither the render threads nor the main thread wait for a snapshot.
+ */
+package com.actiotech.twiliovideorn;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Base64;
+
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+import com.twilio.video.VideoTrack;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import tvi.webrtc.VideoFrame;
+import tvi.webrtc.VideoSink;
+
+public class FrameSnapshotter {
+
+    public interface Callback {
+        void onSnapshot(WritableMap snapshot);
+
+        void onError(String code, String message);
+    }
+
+    // Snapshots waiting for a frame or for the encoder, more are rejected
+    private static final int MAX_PENDING = 4;
+    // A track that delivers no frame for this long, disabled or stalled, fails the snapshot
+    private static final int FRAME_TIMEOUT_MS = 2000;
+    private static final int KEEP_ALIVE_SECONDS = 10;
+
+    private final Handler mainThreadHandler = new Handler(Looper.getMainLooper());
+    private final AtomicInteger pending = new AtomicInteger();
+    private final ThreadPoolExecutor encoder;
+    private final FrameDownscaler downscaler = new FrameDownscaler();
+
+    // Only touched on the encoder thread, grown to the largest snapshot taken
+    private byte[] nv21Scratch = new byte[0];
+    private final ByteArrayOutputStream jpegStream = new ByteArrayOutputStream();
+
+    private long snapshots = 0;
+    private long failures = 0;
+
+    public FrameSnapshotter() {
+        encoder = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_PENDING),
+                runnable -> new Thread(runnable, "VideoSnapshot"));
+        encoder.allowCoreThreadTimeOut(true);
+    }
+
+    /*
+     * Take the next frame of the track, scaled to fit maxWidth by maxHeight when they are
+     * positive, and encode it as JPEG at the given quality. Must be called on the main thread.
+     */
+    public void capture(final VideoTrack track, int maxWidth, int maxHeight,
+                        final int quality, final Callback callback) {
+        // A single bound leaves the other dimension free
+        if (maxWidth > 0 || maxHeight > 0) {
+            maxWidth = maxWidth > 0 ? maxWidth : Integer.MAX_VALUE;
+            maxHeight = maxHeight > 0 ? maxHeight : Integer.MAX_VALUE;
+        }
+        if (pending.incrementAndGet() > MAX_PENDING) {
+            pending.decrementAndGet();
+            fail(callback, "E_SNAPSHOT_BUSY", "Too many snapshots pending");
+            return;
+        }
+        final int targetWidth = maxWidth;
+        final int targetHeight = maxHeight;
+        final long requestedAtMs = SystemClock.elapsedRealtime();
+        final AtomicBoolean taken = new AtomicBoolean(false);
+        final VideoSink[] sink = new VideoSink[1];
+        final Runnable timeout = new Runnable() {
+            @Override
+            public void run() {
+                if (taken.compareAndSet(false, true)) {
+                    PatchedVideoView.removeSink(track, sink[0]);
+                    pending.decrementAndGet();
+                    fail(callback, "E_SNAPSHOT_TIMEOUT", "No frame received from the track");
+                }
+            }
+        };
+        sink[0] = new VideoSink() {
+            @Override
+            public void onFrame(VideoFrame frame) {
+                if (!taken.compareAndSet(false, true)) {
+                    return;
+                }
+                // A sink cannot be removed from inside its own onFrame
+                mainThreadHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mainThreadHandler.removeCallbacks(timeout);
+                        PatchedVideoView.removeSink(track, sink[0]);
+                    }
+                });
+                VideoFrame snapshot = takeFrame(frame, targetWidth, targetHeight);
+                if (snapshot == null) {
+                    pending.decrementAndGet();
+                    fail(callback, "E_SNAPSHOT_FAILED", "Unable to convert the frame");
+                    return;
+                }
+                encode(snapshot, targetWidth, targetHeight, quality, requestedAtMs, callback);
+            }
+        };
+        mainThreadHandler.postDelayed(timeout, FRAME_TIMEOUT_MS);
+        PatchedVideoView.addSink(track, sink[0]);
+    }
+
+    /*
+     * Texture frames are scaled and read back right away on the thread delivering them, their
+     * producer has few buffers and would stall while one waits for the encoder. I420 frames
+     * are only retained.
+     */
+    private VideoFrame takeFrame(VideoFrame frame, int maxWidth, int maxHeight) {
+        if (!(frame.getBuffer() instanceof VideoFrame.TextureBuffer)) {
+            frame.retain();
+            return frame;
+        }
+        VideoFrame scaled = downscaler.downscale(frame, maxWidth, maxHeight, false, 1f);
+        VideoFrame source = scaled != null ? scaled : frame;
+        try {
+            VideoFrame.I420Buffer i420 = source.getBuffer().toI420();
+            return i420 != null ? new VideoFrame(i420, frame.getRotation(), frame.getTimestampNs()) : null;
+        } finally {
+            if (scaled != null) {
+                scaled.release();
+            }
+        }
+    }
+
+    private void encode(final VideoFrame frame, final int maxWidth, final int maxHeight,
+                        final int quality, final long requestedAtMs, final Callback callback) {
+        try {
+            encoder.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        encodeFrame(frame, maxWidth, maxHeight, quality, requestedAtMs, callback);
+                    } finally {
+                        frame.release();
+                        pending.decrementAndGet();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            frame.release();
+            pending.decrementAndGet();
+            fail(callback, "E_SNAPSHOT_BUSY", "Too many snapshots pending");
+        }
+    }
+
+    private void fail(Callback callback, String code, String message) {
+        synchronized (this) {
+            failures++;
+        }
+        callback.onError(code, message);
+    }
+
+    public synchronized WritableMap getMetrics() {
+        WritableMap metrics = new WritableNativeMap();
+        metrics.putInt("pending", pending.get());
+        metrics.putDouble("snapshots", snapshots);
+        metrics.putDouble("failures", failures);
+        return metrics;
+    }
+
+    // ===== Encoder thread only ===================================================================
+
+    private void encodeFrame(VideoFrame frame, int maxWidth, int maxHeight, int quality,
+                             long requestedAtMs, Callback callback) {
+        long startMs = SystemClock.elapsedRealtime();
+        VideoFrame scaled = null;
+        VideoFrame.I420Buffer i420 = null;
+        try {
+            scaled = downscaler.downscale(frame, maxWidth, maxHeight, false, 1f);
+            i420 = (scaled != null ? scaled : frame).getBuffer().toI420();
+            if (i420 == null) {
+                fail(callback, "E_SNAPSHOT_FAILED", "Unable to convert the frame");
+                return;
+            }
+            int rotation = frame.getRotation();
+            int width = (rotation % 180 == 0 ? i420.getWidth() : i420.getHeight()) & ~1;
+            int height = (rotation % 180 == 0 ? i420.getHeight() : i420.getWidth()) & ~1;
+            byte[] nv21 = toNv21(i420, rotation, width, height);
+
+            jpegStream.reset();
+            new YuvImage(nv21, ImageFormat.NV21, width, height, null)
+                    .compressToJpeg(new Rect(0, 0, width, height), quality, jpegStream);
+
+            WritableMap snapshot = new WritableNativeMap();
+            snapshot.putString("data", Base64.encodeToString(jpegStream.toByteArray(), Base64.NO_WRAP));
+            snapshot.putString("mimeType", "image/jpeg");
+            snapshot.putInt("width", width);
+            snapshot.putInt("height", height);
+            snapshot.putDouble("timestampNs", frame.getTimestampNs());
+            snapshot.putDouble("encodeTimeMs", SystemClock.elapsedRealtime() - startMs);
+            snapshot.putDouble("latencyMs", SystemClock.elapsedRealtime() - requestedAtMs);
+            synchronized (this) {
+                snapshots++;
+            }
+            callback.onSnapshot(snapshot);
+        } catch (RuntimeException e) {
+            fail(callback, "E_SNAPSHOT_FAILED", String.valueOf(e.getMessage()));
+        } finally {
+            if (scaled != null) {
+                scaled.release();
+            }
+            if (i420 != null) {
+                i420.release();
+            }
+        }
+    }
+
+    /*
+     * Interleave the planes into NV21 for YuvImage, applying the frame rotation on the way so
+     * the encoded image is upright without a second pass.
+     */
+    private byte[] toNv21(VideoFrame.I420Buffer i420, int rotation, int width, int height) {
+        int chromaWidth = width / 2;
+        int chromaHeight = height / 2;
+        int size = width * height + 2 * chromaWidth * chromaHeight;
+        if (nv21Scratch.length < size) {
+            nv21Scratch = new byte[size];
+        }
+        byte[] nv21 = nv21Scratch;
+
+        ByteBuffer dataY = i420.getDataY();
+        int strideY = i420.getStrideY();
+        int sourceWidth = i420.getWidth();
+        int sourceHeight = i420.getHeight();
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                nv21[row + x] = dataY.get(sourceOffset(x, y, rotation, sourceWidth, sourceHeight, strideY));
+            }
+        }
+
+        ByteBuffer dataU = i420.getDataU();
+        ByteBuffer dataV = i420.getDataV();
+        int strideU = i420.getStrideU();
+        int strideV = i420.getStrideV();
+        int sourceChromaWidth = (sourceWidth + 1) / 2;
+        int sourceChromaHeight = (sourceHeight + 1) / 2;
+        int offset = width * height;
+        for (int y = 0; y < chromaHeight; y++) {
+            for (int x = 0; x < chromaWidth; x++) {
+                nv21[offset++] = dataV.get(sourceOffset(x, y, rotation, sourceChromaWidth, sourceChromaHeight, strideV));
+                nv21[offset++] = dataU.get(sourceOffset(x, y, rotation, sourceChromaWidth, sourceChromaHeight, strideU));
+            }
+        }
+        return nv21;
+    }
+
+    // Offset in a source plane of the pixel shown at x, y once the plane is rotated clockwise
+    private static int sourceOffset(int x, int y, int rotation, int sourceWidth, int sourceHeight, int stride) {
+        switch (rotation) {
+            case 90:
+                return (sourceHeight - 1 - x) * stride + y;
+            case 180:
+                return (sourceHeight - 1 - y) * stride + (sourceWidth - 1 - x);
+            case 270:
+                return x * stride + (sourceWidth - 1 - y);
+            default:
+                return y * stride + x;
+        }
+    }
+}
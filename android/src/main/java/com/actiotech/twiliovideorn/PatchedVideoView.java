@@ -9,42 +9,225 @@ package com.actiotech.twiliovideorn;
 import android.content.Context;
 import android.os.Handler;
 import android.os.Looper;
-import android.util.AttributeSet;
+import android.view.ViewGroup;
 
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+import com.twilio.video.VideoScaleType;
+import com.twilio.video.VideoTrack;
 import com.twilio.video.VideoView;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import tvi.webrtc.RendererCommon;
 import tvi.webrtc.VideoFrame;
+import tvi.webrtc.VideoSink;
 
 /*
- * VideoView that notifies Listener of the first frame rendered and the first frame after a reset
- * request.
+ * Video renderer that notifies Listener of the first frame rendered and the first frame after a
+ * reset request. Frames are drawn by a Twilio VideoView with its own GL thread, or when shared
+ * rendering is enabled by a SharedRenderView on a thread of the shared RenderThreadPool.
  */
-public class PatchedVideoView extends VideoView {
+public class PatchedVideoView extends ViewGroup implements VideoSink {
 
-    private boolean notifyFrameRendered = false;
-    private Listener listener;
+    // Set on the main thread, consumed on the thread delivering frames
+    private final AtomicBoolean notifyFrameRendered = new AtomicBoolean(false);
+    private volatile Listener listener;
+    // Run on the main thread once the next frame is on screen
+    private final AtomicReference<Runnable> nextFrameCallback = new AtomicReference<>();
+    private final RenderTelemetry telemetry = new RenderTelemetry();
     private final Handler mainThreadHandler = new Handler(Looper.getMainLooper());
 
-    public PatchedVideoView(Context context) {
-        super(context);
-    }
+    // Exactly one of them is set
+    @Nullable
+    private final VideoView videoView;
+    @Nullable
+    private final SharedRenderView sharedRenderView;
+    private VideoScaleType videoScaleType = VideoScaleType.ASPECT_FILL;
+    private boolean mirror = false;
+
+    private final FramePacer pacer = new FramePacer();
+    // Each counter has a single writer: paced frames are counted on the thread delivering
+    // frames, rendered ones on the thread drawing them
+    private volatile long framesRendered = 0;
+    private volatile long framesPaced = 0;
 
-    public PatchedVideoView(Context context, AttributeSet attrs) {
-        super(context, attrs);
+    public PatchedVideoView(Context context, RenderThreadPool renderThreadPool, boolean sharedRendering) {
+        super(context);
+        if (sharedRendering) {
+            videoView = null;
+            sharedRenderView = new SharedRenderView(context, this, renderThreadPool);
+            addView(sharedRenderView);
+        } else {
+            videoView = new VideoView(context);
+            sharedRenderView = null;
+            addView(videoView);
+        }
     }
 
     @Override
     public void onFrame(VideoFrame frame) {
-        if (notifyFrameRendered) {
-            notifyFrameRendered = false;
+        if (notifyFrameRendered.compareAndSet(true, false)) {
             mainThreadHandler.post(new Runnable() {
                 @Override
                 public void run() {
-                    listener.onFirstFrame();
+                    Listener listener = PatchedVideoView.this.listener;
+                    if (listener != null) {
+                        listener.onFirstFrame();
+                    }
                 }
             });
         }
-        super.onFrame(frame);
+        if (!pacer.shouldRender(frame.getTimestampNs())) {
+            // Skipped before it is retained, so its buffer is never uploaded
+            framesPaced++;
+            return;
+        }
+        if (sharedRenderView != null) {
+            sharedRenderView.queueFrame(frame);
+        } else {
+            // VideoView draws on its own thread, the frame counts as rendered once handed over
+            videoView.onFrame(frame);
+            onFrameRendered(frame.getRotatedWidth(), frame.getRotatedHeight());
+        }
+    }
+
+    /*
+     * A frame was drawn, called on the thread drawing it.
+     */
+    void onFrameRendered(int width, int height) {
+        framesRendered++;
+        telemetry.onFrameRendered(width, height);
+        Runnable callback = nextFrameCallback.getAndSet(null);
+        if (callback != null) {
+            mainThreadHandler.post(callback);
+        }
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        getChildAt(0).layout(0, 0, r - l, b - t);
+    }
+
+    // ===== VideoView compatible API ==============================================================
+
+    public void setListener(RendererCommon.RendererEvents rendererEvents) {
+        if (sharedRenderView != null) {
+            sharedRenderView.setListener(rendererEvents);
+        } else {
+            videoView.setListener(rendererEvents);
+        }
+    }
+
+    /*
+     * Size the view was laid out at, frames are downscaled to it with shared rendering.
+     */
+    public void setRenderTargetSize(int width, int height) {
+        if (sharedRenderView != null) {
+            sharedRenderView.setRenderTargetSize(width, height);
+        }
+    }
+
+    public void setVideoScaleType(VideoScaleType videoScaleType) {
+        this.videoScaleType = videoScaleType;
+        if (sharedRenderView != null) {
+            sharedRenderView.setVideoScaleType(videoScaleType);
+        } else {
+            videoView.setVideoScaleType(videoScaleType);
+        }
+    }
+
+    public VideoScaleType getVideoScaleType() {
+        return videoScaleType;
+    }
+
+    /*
+     * Cap the rate frames are drawn at, 0 or less removes the cap.
+     */
+    public void setMaxRenderFps(float maxRenderFps) {
+        pacer.setMaxFps(maxRenderFps);
+        telemetry.setFrameInterval(pacer.getFrameIntervalNs() / 1_000_000);
+    }
+
+    public float getMaxRenderFps() {
+        return pacer.getMaxFps();
+    }
+
+    /*
+     * Frames drawn, skipped by the frame rate cap, and replaced by a newer frame before the
+     * render thread got to them.
+     */
+    public WritableMap getFrameCounts() {
+        WritableMap counts = new WritableNativeMap();
+        counts.putDouble("maxRenderFps", getMaxRenderFps());
+        counts.putDouble("framesRendered", framesRendered);
+        counts.putDouble("framesPaced", framesPaced);
+        counts.putDouble("framesSuperseded", sharedRenderView != null ? sharedRenderView.getFramesSuperseded() : 0);
+        return counts;
+    }
+
+    public RenderTelemetry getTelemetry() {
+        return telemetry;
+    }
+
+    /*
+     * Add a sink to a track, starting the time to first frame of a video view.
+     */
+    public static void addSink(VideoTrack track, VideoSink sink) {
+        if (sink instanceof PatchedVideoView) {
+            ((PatchedVideoView) sink).telemetry.onSinkAttached();
+        }
+        track.addSink(sink);
+    }
+
+    public static void removeSink(VideoTrack track, VideoSink sink) {
+        track.removeSink(sink);
+        if (sink instanceof PatchedVideoView) {
+            ((PatchedVideoView) sink).telemetry.onSinkDetached();
+        }
+    }
+
+    public void resetFrameCounts() {
+        framesRendered = 0;
+        framesPaced = 0;
+        if (sharedRenderView != null) {
+            sharedRenderView.resetFramesSuperseded();
+        }
+    }
+
+    public void setMirror(boolean mirror) {
+        this.mirror = mirror;
+        if (sharedRenderView != null) {
+            sharedRenderView.setMirror(mirror);
+        } else {
+            videoView.setMirror(mirror);
+        }
+    }
+
+    public boolean getMirror() {
+        return mirror;
+    }
+
+    /*
+     * Place the surface on top of other video surfaces, for the local thumbnail.
+     */
+    public void applyZOrder(boolean overlaySurface) {
+        if (sharedRenderView != null) {
+            sharedRenderView.setZOrderMediaOverlay(overlaySurface);
+        } else {
+            videoView.applyZOrder(overlaySurface);
+        }
+    }
+
+    /*
+     * Run the callback on the main thread once the next frame has been drawn, replacing a
+     * callback still waiting.
+     */
+    public void runAfterNextFrame(Runnable callback) {
+        nextFrameCallback.set(callback);
     }
 
     /*
@@ -58,7 +241,7 @@ public class PatchedVideoView extends VideoView {
      * Reset the listener so next frame rendered results in callback
      */
     public void resetListener() {
-        notifyFrameRendered = true;
+        notifyFrameRendered.set(true);
     }
 
     public interface Listener {
@@ -8,25 +8,93 @@ package com.actiotech.twiliovideorn;
 
 import android.content.Context;
 import android.graphics.Point;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.View;
 import android.view.ViewGroup;
 
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
 import com.twilio.video.VideoScaleType;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.webrtc.RendererCommon;
 
 public class RNVideoViewGroup extends ViewGroup {
+    // How long a tile has to stay hidden before it stops receiving frames
+    private static final int HIDDEN_DEBOUNCE_MS = 500;
+
+    private final VideoRendererPool rendererPool;
+    private final Handler mainThreadHandler = new Handler(Looper.getMainLooper());
+    // Relayouts across all views, and resolution changes that left the display size unchanged
+    private static final AtomicLong relayouts = new AtomicLong();
+    private static final AtomicLong skippedRelayouts = new AtomicLong();
+
     private PatchedVideoView surfaceViewRenderer = null;
-    private int videoWidth = 0;
-    private int videoHeight = 0;
-    private final Object layoutSync = new Object();
-    private RendererCommon.ScalingType scalingType = RendererCommon.ScalingType.SCALE_ASPECT_FILL;
+    // Video width and height packed into one value, written on the render thread
+    private final AtomicLong packedVideoSize = new AtomicLong(0);
+    // Group size and renderer display size of the last layout, packed the same way
+    private volatile long packedLayoutSize = 0;
+    private volatile long packedDisplaySize = 0;
+    private volatile RendererCommon.ScalingType scalingType = RendererCommon.ScalingType.SCALE_ASPECT_FILL;
+    private float maxRenderFps = 0;
+    // Last visibility passed to onTileVisibilityChanged
+    private boolean reportedVisible = true;
+
+    private final Runnable relayout = new Runnable() {
+        @Override
+        public void run() {
+            relayouts.incrementAndGet();
+            layoutRenderer(getWidth(), getHeight());
+        }
+    };
 
+    private final Runnable reportHidden = new Runnable() {
+        @Override
+        public void run() {
+            if (reportedVisible && !isTileVisible()) {
+                reportedVisible = false;
+                onTileVisibilityChanged(false);
+            }
+        }
+    };
 
-    public RNVideoViewGroup(Context context) {
+    /*
+     * Released after the view left the window, unless it came back in the meantime.
+     * Posted since children cannot be removed while detach is being dispatched.
+     */
+    private final Runnable releaseIfDetached = new Runnable() {
+        @Override
+        public void run() {
+            if (!isAttachedToWindow()) {
+                releaseRenderer();
+            }
+        }
+    };
+
+    private final Runnable reacquire = new Runnable() {
+        @Override
+        public void run() {
+            if (isAttachedToWindow() && surfaceViewRenderer == null) {
+                acquireRenderer();
+                onRendererAcquired(surfaceViewRenderer);
+            }
+        }
+    };
+
+    public RNVideoViewGroup(Context context, VideoRendererPool rendererPool) {
         super(context);
+        this.rendererPool = rendererPool;
+        acquireRenderer();
+    }
 
-        surfaceViewRenderer = new PatchedVideoView(context);
+    private void acquireRenderer() {
+        surfaceViewRenderer = rendererPool.acquire(getContext());
         surfaceViewRenderer.setVideoScaleType(VideoScaleType.ASPECT_FILL);
+        surfaceViewRenderer.setMaxRenderFps(maxRenderFps);
         addView(surfaceViewRenderer);
         surfaceViewRenderer.setListener(
                 new tvi.webrtc.RendererCommon.RendererEvents() {
@@ -37,16 +105,150 @@ public class RNVideoViewGroup extends ViewGroup {
 
                     @Override
                     public void onFrameResolutionChanged(int vw, int vh, int rotation) {
-                        synchronized (layoutSync) {
-                            videoHeight = vh;
-                            videoWidth = vw;
-                            RNVideoViewGroup.this.forceLayout();
-                        }
+                        onVideoSizeChanged(vw, vh);
                     }
                 }
         );
     }
 
+    /*
+     * Called on the render thread. Simulcast layer switches change the resolution but rarely
+     * the aspect ratio, so a relayout is only posted when the display size changes.
+     */
+    private void onVideoSizeChanged(int videoWidth, int videoHeight) {
+        long packed = pack(videoWidth, videoHeight);
+        if (packedVideoSize.getAndSet(packed) == packed) {
+            return;
+        }
+        long layoutSize = packedLayoutSize;
+        if (layoutSize == 0) {
+            // Not laid out yet, the first layout picks the size up
+            return;
+        }
+        Point displaySize = displaySize(videoWidth, videoHeight, unpackWidth(layoutSize), unpackHeight(layoutSize));
+        if (pack(displaySize.x, displaySize.y) == packedDisplaySize) {
+            skippedRelayouts.incrementAndGet();
+            return;
+        }
+        mainThreadHandler.post(relayout);
+    }
+
+    public static WritableMap getLayoutMetrics() {
+        WritableMap metrics = new WritableNativeMap();
+        metrics.putDouble("relayouts", relayouts.get());
+        metrics.putDouble("skippedRelayouts", skippedRelayouts.get());
+        return metrics;
+    }
+
+    private static long pack(int width, int height) {
+        return ((long) width << 32) | (height & 0xffffffffL);
+    }
+
+    private static int unpackWidth(long packed) {
+        return (int) (packed >>> 32);
+    }
+
+    private static int unpackHeight(long packed) {
+        return (int) packed;
+    }
+
+    /*
+     * Hand the renderer back to the pool. Subclasses detach it from its track first in
+     * onRendererReleased.
+     */
+    public void releaseRenderer() {
+        mainThreadHandler.removeCallbacks(releaseIfDetached);
+        mainThreadHandler.removeCallbacks(reacquire);
+        mainThreadHandler.removeCallbacks(reportHidden);
+        mainThreadHandler.removeCallbacks(relayout);
+        PatchedVideoView renderer = surfaceViewRenderer;
+        if (renderer == null) {
+            return;
+        }
+        surfaceViewRenderer = null;
+        onRendererReleased(renderer);
+        removeView(renderer);
+        rendererPool.release(renderer);
+    }
+
+    /*
+     * Called when a renderer is acquired again after the previous one went back to the pool.
+     */
+    protected void onRendererAcquired(PatchedVideoView renderer) {
+    }
+
+    protected void onRendererReleased(PatchedVideoView renderer) {
+    }
+
+    /*
+     * Called once the tile stayed hidden for HIDDEN_DEBOUNCE_MS, and as soon as it is visible
+     * again.
+     */
+    protected void onTileVisibilityChanged(boolean visible) {
+    }
+
+    protected boolean isTileReportedVisible() {
+        return reportedVisible;
+    }
+
+    private boolean isTileVisible() {
+        return isAttachedToWindow()
+                && getWidth() > 0
+                && getHeight() > 0
+                && getWindowVisibility() == VISIBLE
+                && isShown();
+    }
+
+    private void updateTileVisibility() {
+        mainThreadHandler.removeCallbacks(reportHidden);
+        if (isTileVisible()) {
+            if (!reportedVisible) {
+                reportedVisible = true;
+                onTileVisibilityChanged(true);
+            }
+        } else if (reportedVisible) {
+            mainThreadHandler.postDelayed(reportHidden, HIDDEN_DEBOUNCE_MS);
+        }
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        updateTileVisibility();
+    }
+
+    @Override
+    protected void onVisibilityChanged(View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        updateTileVisibility();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        updateTileVisibility();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        mainThreadHandler.removeCallbacks(releaseIfDetached);
+        if (surfaceViewRenderer == null) {
+            // Children cannot be added while attach is being dispatched either
+            mainThreadHandler.post(reacquire);
+        }
+        updateTileVisibility();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        mainThreadHandler.removeCallbacks(reacquire);
+        mainThreadHandler.post(releaseIfDetached);
+        updateTileVisibility();
+    }
+
+    @Nullable
     public PatchedVideoView getSurfaceViewRenderer() {
         return surfaceViewRenderer;
     }
@@ -55,38 +257,57 @@ public class RNVideoViewGroup extends ViewGroup {
         this.scalingType = scalingType;
     }
 
+    /*
+     * Cap the frame rate of this view, kept across renderer changes. 0 removes the cap.
+     */
+    public void setMaxRenderFps(float maxRenderFps) {
+        this.maxRenderFps = maxRenderFps;
+        if (surfaceViewRenderer != null) {
+            surfaceViewRenderer.setMaxRenderFps(maxRenderFps);
+        }
+    }
+
     @Override
     protected void onLayout(boolean changed, int l, int t, int r, int b) {
-        int height = b - t;
-        int width = r - l;
+        layoutRenderer(r - l, b - t);
+    }
+
+    private void layoutRenderer(int width, int height) {
+        int l;
+        int t;
+        int r;
+        int b;
         if (height == 0 || width == 0) {
             l = t = r = b = 0;
+            packedLayoutSize = 0;
         } else {
-            int videoHeight;
-            int videoWidth;
-            synchronized (layoutSync) {
-                videoHeight = this.videoHeight;
-                videoWidth = this.videoWidth;
-            }
-
-            if (videoHeight == 0 || videoWidth == 0) {
-                // These are Twilio defaults.
-                videoHeight = 480;
-                videoWidth = 640;
-            }
-
-            Point displaySize = RendererCommon.getDisplaySize(
-                    this.scalingType,
-                    videoWidth / (float) videoHeight,
-                    width,
-                    height
-            );
+            long videoSize = packedVideoSize.get();
+            Point displaySize = displaySize(unpackWidth(videoSize), unpackHeight(videoSize), width, height);
 
             l = (width - displaySize.x) / 2;
             t = (height - displaySize.y) / 2;
             r = l + displaySize.x;
             b = t + displaySize.y;
+            packedDisplaySize = pack(displaySize.x, displaySize.y);
+            packedLayoutSize = pack(width, height);
+        }
+        if (surfaceViewRenderer != null) {
+            surfaceViewRenderer.setRenderTargetSize(r - l, b - t);
+            surfaceViewRenderer.layout(l, t, r, b);
         }
-        surfaceViewRenderer.layout(l, t, r, b);
+    }
+
+    private Point displaySize(int videoWidth, int videoHeight, int width, int height) {
+        if (videoHeight == 0 || videoWidth == 0) {
+            // These are Twilio defaults.
+            videoHeight = 480;
+            videoWidth = 640;
+        }
+        return RendererCommon.getDisplaySize(
+                this.scalingType,
+                videoWidth / (float) videoHeight,
+                width,
+                height
+        );
     }
 }
@@ -0,0 +1,142 @@
+/**
+ * Measures what rendering the current previews costs over a time window: process CPU time,
+ * memory, thread count and frame pacing of the render threads. Run it with different
+ * render thread counts to compare configurations on a device.
+ */
+package com.actiotech.twiliovideorn;
+
+import android.os.Debug;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import java.io.File;
+
+public class RenderBenchmark {
+
+    public interface Listener {
+        void onResult(WritableMap result);
+
+        void onError(String message);
+    }
+
+    private final RenderThreadPool renderThreadPool;
+    private final Handler mainThreadHandler = new Handler(Looper.getMainLooper());
+    private boolean running = false;
+
+    public RenderBenchmark(RenderThreadPool renderThreadPool) {
+        this.renderThreadPool = renderThreadPool;
+    }
+
+    /*
+     * Run twice, first without and then with downscaling before upload, and report both
+     * results. The previous setting is restored afterwards.
+     */
+    public void compareDownscaling(final int durationMs, final Listener listener) {
+        final boolean previouslyEnabled = renderThreadPool.isDownscalingEnabled();
+        renderThreadPool.setDownscalingEnabled(false);
+        run(durationMs, new Listener() {
+            @Override
+            public void onResult(final WritableMap off) {
+                renderThreadPool.setDownscalingEnabled(true);
+                run(durationMs, new Listener() {
+                    @Override
+                    public void onResult(WritableMap on) {
+                        renderThreadPool.setDownscalingEnabled(previouslyEnabled);
+                        WritableMap comparison = new WritableNativeMap();
+                        comparison.putMap("off", off);
+                        comparison.putMap("on", on);
+                        listener.onResult(comparison);
+                    }
+
+                    @Override
+                    public void onError(String message) {
+                        renderThreadPool.setDownscalingEnabled(previouslyEnabled);
+                        listener.onError(message);
+                    }
+                });
+            }
+
+            @Override
+            public void onError(String message) {
+                renderThreadPool.setDownscalingEnabled(previouslyEnabled);
+                listener.onError(message);
+            }
+        });
+    }
+
+    public synchronized void run(final int durationMs, final Listener listener) {
+        if (running) {
+            listener.onError("A render benchmark is already running");
+            return;
+        }
+        if (durationMs <= 0) {
+            listener.onError("durationMs must be positive");
+            return;
+        }
+        running = true;
+
+        renderThreadPool.resetStats();
+        final long startMs = SystemClock.elapsedRealtime();
+        final long startCpuMs = Process.getElapsedCpuTime();
+        final long startPssKb = Debug.getPss();
+        final int startThreads = processThreadCount();
+
+        mainThreadHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                long elapsedMs = SystemClock.elapsedRealtime() - startMs;
+                long cpuMs = Process.getElapsedCpuTime() - startCpuMs;
+                RenderThreadPool.Stats stats = renderThreadPool.collectStats();
+
+                WritableMap result = new WritableNativeMap();
+                result.putDouble("durationMs", elapsedMs);
+                result.putInt("renderThreads", renderThreadPool.getMaxThreads());
+                result.putInt("renderers", stats.renderers);
+                result.putDouble("cpuTimeMs", cpuMs);
+                result.putDouble("cpuUsage", elapsedMs > 0 ? cpuMs / (double) elapsedMs : 0);
+                result.putDouble("pssStartKb", startPssKb);
+                result.putDouble("pssEndKb", Debug.getPss());
+                result.putInt("threadsStart", startThreads);
+                result.putInt("threadsEnd", processThreadCount());
+                result.putDouble("framesDrawn", stats.framesDrawn);
+                result.putDouble("framesDropped", stats.framesDropped);
+                result.putDouble("fps", elapsedMs > 0 ? stats.framesDrawn * 1000.0 / elapsedMs : 0);
+
+                // Frame pacing: spread of the gaps between consecutive frames of a renderer
+                double meanGapMs = stats.frameGaps > 0 ? stats.frameGapSumMs / stats.frameGaps : 0;
+                double variance = stats.frameGaps > 0
+                        ? stats.frameGapSquareSumMs / stats.frameGaps - meanGapMs * meanGapMs : 0;
+                result.putDouble("frameGapMeanMs", meanGapMs);
+                result.putDouble("frameGapStdDevMs", Math.sqrt(Math.max(0, variance)));
+                result.putDouble("frameGapMaxMs", stats.maxFrameGapMs);
+
+                // Upload cost: bytes of I420 planes uploaded and time spent drawing and scaling
+                result.putBoolean("downscalingEnabled", renderThreadPool.isDownscalingEnabled());
+                result.putDouble("framesDownscaled", stats.framesDownscaled);
+                long frames = Math.max(1, stats.framesDrawn);
+                result.putDouble("uploadBytesPerFrame", stats.uploadBytes / (double) frames);
+                result.putDouble("drawTimeMsPerFrame", stats.drawNs / 1e6 / frames);
+                result.putDouble("scaleTimeMsPerFrame", stats.scaleNs / 1e6 / frames);
+
+                synchronized (RenderBenchmark.this) {
+                    running = false;
+                }
+                listener.onResult(result);
+            }
+        }, durationMs);
+    }
+
+    /*
+     * Threads of the whole process, native ones included. Thread.activeCount() only counts the
+     * caller's thread group. -1 when /proc cannot be read.
+     */
+    private static int processThreadCount() {
+        String[] tasks = new File("/proc/self/task").list();
+        return tasks != null ? tasks.length : -1;
+    }
+}
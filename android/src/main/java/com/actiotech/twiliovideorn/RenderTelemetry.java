@@ -0,0 +1,154 @@
+/**
+ * Render instrumentation of one video view: time from sink attach to first frame, rolling
+ * fps, a histogram of gaps between frames, resolution changes and stalls. Frames are
+ * recorded on the render thread into primitive rings, snapshots can be taken from any thread.
+ */
+package com.actiotech.twiliovideorn;
+
+import android.os.SystemClock;
+
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeArray;
+import com.facebook.react.bridge.WritableNativeMap;
+
+public class RenderTelemetry {
+
+    // Frame times kept for the rolling fps, enough for one second at 60 fps and more
+    private static final int RING_SIZE = 128;
+    private static final long FPS_WINDOW_MS = 1000;
+    // No frame for this long while attached counts as a stall
+    private static final long STALL_THRESHOLD_MS = 500;
+    // Upper bounds of the gap histogram buckets, the last bucket is open ended
+    private static final long[] GAP_BUCKET_BOUNDS_MS = {20, 40, 70, 100, 200, 500};
+
+    private final long[] frameTimesMs = new long[RING_SIZE];
+    private int frameCount = 0;
+    private int nextFrame = 0;
+    private final long[] gapBuckets = new long[GAP_BUCKET_BOUNDS_MS.length + 1];
+
+    private long attachedAtMs = 0;
+    private long lastFrameAtMs = 0;
+    private long timeToFirstFrameMs = -1;
+    private long framesSinceAttach = 0;
+    private int width = 0;
+    private int height = 0;
+    private long resolutionChanges = 0;
+    private long stalls = 0;
+    private long stalledMs = 0;
+    private long stallThresholdMs = STALL_THRESHOLD_MS;
+
+    /*
+     * A frame rate cap spaces frames out on purpose, gaps up to twice its interval are not
+     * stalls.
+     */
+    public synchronized void setFrameInterval(long frameIntervalMs) {
+        stallThresholdMs = Math.max(STALL_THRESHOLD_MS, 2 * frameIntervalMs);
+    }
+
+    /*
+     * The view became a sink of a track, the next frame is its first one.
+     */
+    public synchronized void onSinkAttached() {
+        attachedAtMs = SystemClock.elapsedRealtime();
+        timeToFirstFrameMs = -1;
+        framesSinceAttach = 0;
+        lastFrameAtMs = 0;
+        frameCount = 0;
+        nextFrame = 0;
+    }
+
+    public synchronized void onSinkDetached() {
+        attachedAtMs = 0;
+    }
+
+    public synchronized void onFrameRendered(int frameWidth, int frameHeight) {
+        long now = SystemClock.elapsedRealtime();
+        if (framesSinceAttach == 0 && attachedAtMs != 0) {
+            timeToFirstFrameMs = now - attachedAtMs;
+        }
+        framesSinceAttach++;
+
+        if (lastFrameAtMs != 0) {
+            long gapMs = now - lastFrameAtMs;
+            int bucket = 0;
+            while (bucket < GAP_BUCKET_BOUNDS_MS.length && gapMs >= GAP_BUCKET_BOUNDS_MS[bucket]) {
+                bucket++;
+            }
+            gapBuckets[bucket]++;
+            if (gapMs >= stallThresholdMs) {
+                stalls++;
+                stalledMs += gapMs;
+            }
+        }
+        lastFrameAtMs = now;
+
+        frameTimesMs[nextFrame] = now;
+        nextFrame = (nextFrame + 1) % RING_SIZE;
+        if (frameCount < RING_SIZE) {
+            frameCount++;
+        }
+
+        if (frameWidth != width || frameHeight != height) {
+            if (width != 0) {
+                resolutionChanges++;
+            }
+            width = frameWidth;
+            height = frameHeight;
+        }
+    }
+
+    public synchronized void reset() {
+        attachedAtMs = 0;
+        lastFrameAtMs = 0;
+        timeToFirstFrameMs = -1;
+        framesSinceAttach = 0;
+        frameCount = 0;
+        nextFrame = 0;
+        width = 0;
+        height = 0;
+        resolutionChanges = 0;
+        stalls = 0;
+        stalledMs = 0;
+        for (int i = 0; i < gapBuckets.length; i++) {
+            gapBuckets[i] = 0;
+        }
+    }
+
+    public synchronized WritableMap snapshot() {
+        long now = SystemClock.elapsedRealtime();
+        int framesInWindow = 0;
+        for (int i = 0; i < frameCount; i++) {
+            if (now - frameTimesMs[i] <= FPS_WINDOW_MS) {
+                framesInWindow++;
+            }
+        }
+        // A stall in progress shows up before the frame that ends it arrives
+        long sinceLastFrameMs = lastFrameAtMs != 0 ? now - lastFrameAtMs : -1;
+        boolean stalled = attachedAtMs != 0
+                && (lastFrameAtMs != 0 ? sinceLastFrameMs : now - attachedAtMs) >= stallThresholdMs;
+
+        WritableArray histogram = new WritableNativeArray();
+        for (int i = 0; i < gapBuckets.length; i++) {
+            WritableMap bucket = new WritableNativeMap();
+            if (i < GAP_BUCKET_BOUNDS_MS.length) {
+                bucket.putDouble("maxMs", GAP_BUCKET_BOUNDS_MS[i]);
+            }
+            bucket.putDouble("count", gapBuckets[i]);
+            histogram.pushMap(bucket);
+        }
+
+        WritableMap telemetry = new WritableNativeMap();
+        telemetry.putDouble("timeToFirstFrameMs", timeToFirstFrameMs);
+        telemetry.putDouble("fps", framesInWindow * 1000.0 / FPS_WINDOW_MS);
+        telemetry.putArray("frameGapHistogram", histogram);
+        telemetry.putInt("width", width);
+        telemetry.putInt("height", height);
+        telemetry.putDouble("resolutionChanges", resolutionChanges);
+        telemetry.putBoolean("stalled", stalled);
+        telemetry.putDouble("stalls", stalls);
+        telemetry.putDouble("stalledMs", stalledMs);
+        telemetry.putDouble("msSinceLastFrame", sinceLastFrameMs);
+        return telemetry;
+    }
+}
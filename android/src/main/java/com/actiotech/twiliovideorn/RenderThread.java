@@ -0,0 +1,309 @@
+/**
+ * One GL render thread with a single EGL context that draws every renderer assigned to it,
+ * switching between their window surfaces. Contexts of all render threads are in one
+ * share group.
+ */
+package com.actiotech.twiliovideorn;
+
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLSurface;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.view.Surface;
+
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.CountDownLatch;
+
+import tvi.webrtc.GlRectDrawer;
+import tvi.webrtc.VideoFrameDrawer;
+
+public class RenderThread {
+
+    private static final int[] CONFIG_ATTRIBUTES = {
+            EGL14.EGL_RED_SIZE, 8,
+            EGL14.EGL_GREEN_SIZE, 8,
+            EGL14.EGL_BLUE_SIZE, 8,
+            EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+            EGL14.EGL_SURFACE_TYPE, EGL14.EGL_WINDOW_BIT | EGL14.EGL_PBUFFER_BIT,
+            EGL14.EGL_NONE
+    };
+    private static final int[] CONTEXT_ATTRIBUTES = {
+            EGL14.EGL_CONTEXT_CLIENT_VERSION, 2,
+            EGL14.EGL_NONE
+    };
+
+    private final HandlerThread thread;
+    private final Handler handler;
+    // Counted down once init ran, whether or not it succeeded
+    private final CountDownLatch initialized = new CountDownLatch(1);
+    // Set once quit was requested, nothing is waited for on the thread after that
+    private boolean quitting = false;
+
+    // Only touched on the render thread, after init
+    private EGLDisplay display = EGL14.EGL_NO_DISPLAY;
+    private EGLConfig config;
+    private EGLContext context = EGL14.EGL_NO_CONTEXT;
+    // Kept current while no window surface is, so GL resources can always be released
+    private EGLSurface dummySurface = EGL14.EGL_NO_SURFACE;
+    private GlRectDrawer drawer;
+    private VideoFrameDrawer frameDrawer;
+    private final FrameDownscaler downscaler = new FrameDownscaler();
+
+    private int renderers = 0;
+    private long framesDrawn = 0;
+    private long framesDropped = 0;
+    private long frameGaps = 0;
+    private double frameGapSumMs = 0;
+    private double frameGapSquareSumMs = 0;
+    private double maxFrameGapMs = 0;
+    private long uploadBytes = 0;
+    private long drawNs = 0;
+    private long scaleNs = 0;
+    private long framesDownscaled = 0;
+
+    RenderThread(String name, @Nullable final RenderThread shareWith) {
+        thread = new HandlerThread(name);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        // EGL is set up on the new thread, the caller usually is the main thread in surfaceCreated.
+        // Anything posted afterwards runs once the context exists.
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    init(shareWith != null ? shareWith.awaitContext() : EGL14.EGL_NO_CONTEXT);
+                } finally {
+                    initialized.countDown();
+                }
+            }
+        });
+    }
+
+    /*
+     * The context to share, waiting for its init. Only called from another render thread.
+     */
+    private EGLContext awaitContext() {
+        await(initialized);
+        return context;
+    }
+
+    private static void await(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void init(EGLContext sharedContext) {
+        display = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        int[] version = new int[2];
+        if (!EGL14.eglInitialize(display, version, 0, version, 1)) {
+            throw new RuntimeException("Unable to initialize EGL: " + EGL14.eglGetError());
+        }
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] configCount = new int[1];
+        if (!EGL14.eglChooseConfig(display, CONFIG_ATTRIBUTES, 0, configs, 0, 1, configCount, 0)
+                || configCount[0] == 0) {
+            throw new RuntimeException("Unable to find an EGL config: " + EGL14.eglGetError());
+        }
+        config = configs[0];
+        context = EGL14.eglCreateContext(display, config, sharedContext, CONTEXT_ATTRIBUTES, 0);
+        if (context == EGL14.EGL_NO_CONTEXT) {
+            throw new RuntimeException("Unable to create EGL context: " + EGL14.eglGetError());
+        }
+        int[] pbufferAttributes = {EGL14.EGL_WIDTH, 1, EGL14.EGL_HEIGHT, 1, EGL14.EGL_NONE};
+        dummySurface = EGL14.eglCreatePbufferSurface(display, config, pbufferAttributes, 0);
+        EGL14.eglMakeCurrent(display, dummySurface, dummySurface, context);
+        drawer = new GlRectDrawer();
+        frameDrawer = new VideoFrameDrawer();
+    }
+
+    public Handler getHandler() {
+        return handler;
+    }
+
+    public boolean isCurrentThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    public void post(Runnable runnable) {
+        handler.post(runnable);
+    }
+
+    /*
+     * Run on the render thread and wait for it, runs inline when already on it. Does nothing
+     * once the thread is quitting.
+     */
+    public void invokeAndWait(final Runnable runnable) {
+        if (isCurrentThread()) {
+            runnable.run();
+            return;
+        }
+        final CountDownLatch done = new CountDownLatch(1);
+        synchronized (this) {
+            if (quitting) {
+                return;
+            }
+            handler.postAtFrontOfQueue(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        runnable.run();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        await(done);
+    }
+
+    /*
+     * Release the EGL context and quit the thread once what is queued has run. Runnables
+     * waited for are all queued before the quit, later ones are not run.
+     */
+    void quit() {
+        synchronized (this) {
+            if (quitting) {
+                return;
+            }
+            quitting = true;
+        }
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (context != EGL14.EGL_NO_CONTEXT) {
+                    if (frameDrawer != null) {
+                        frameDrawer.release();
+                        drawer.release();
+                    }
+                    EGL14.eglMakeCurrent(display, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE,
+                            EGL14.EGL_NO_CONTEXT);
+                    EGL14.eglDestroySurface(display, dummySurface);
+                    EGL14.eglDestroyContext(display, context);
+                    EGL14.eglReleaseThread();
+                    context = EGL14.EGL_NO_CONTEXT;
+                }
+                thread.quit();
+            }
+        });
+    }
+
+    // ===== Render thread only ====================================================================
+
+    EGLSurface createWindowSurface(Surface surface) {
+        int[] attributes = {EGL14.EGL_NONE};
+        EGLSurface eglSurface = EGL14.eglCreateWindowSurface(display, config, surface, attributes, 0);
+        if (eglSurface == EGL14.EGL_NO_SURFACE) {
+            throw new RuntimeException("Unable to create window surface: " + EGL14.eglGetError());
+        }
+        return eglSurface;
+    }
+
+    void releaseWindowSurface(EGLSurface eglSurface) {
+        EGL14.eglMakeCurrent(display, dummySurface, dummySurface, context);
+        EGL14.eglDestroySurface(display, eglSurface);
+    }
+
+    void makeCurrent(EGLSurface eglSurface) {
+        if (!EGL14.eglMakeCurrent(display, eglSurface, eglSurface, context)) {
+            throw new RuntimeException("Unable to make surface current: " + EGL14.eglGetError());
+        }
+    }
+
+    void swapBuffers(EGLSurface eglSurface) {
+        EGL14.eglSwapBuffers(display, eglSurface);
+    }
+
+    GlRectDrawer getDrawer() {
+        return drawer;
+    }
+
+    VideoFrameDrawer getFrameDrawer() {
+        return frameDrawer;
+    }
+
+    FrameDownscaler getDownscaler() {
+        return downscaler;
+    }
+
+    // ===== Bookkeeping ===========================================================================
+
+    synchronized int getRendererCount() {
+        return renderers;
+    }
+
+    synchronized void addRenderer() {
+        renderers++;
+    }
+
+    synchronized void removeRenderer() {
+        renderers--;
+    }
+
+    /*
+     * Record a drawn frame: the gap since the previous frame of the same renderer or a
+     * negative gap for its first frame, the bytes uploaded, and the time spent drawing and
+     * downscaling it.
+     */
+    synchronized void onFrameDrawn(double gapMs, long uploadBytes, long drawNs, long scaleNs, boolean downscaled) {
+        framesDrawn++;
+        this.uploadBytes += uploadBytes;
+        this.drawNs += drawNs;
+        this.scaleNs += scaleNs;
+        if (downscaled) {
+            framesDownscaled++;
+        }
+        if (gapMs < 0) {
+            return;
+        }
+        frameGaps++;
+        frameGapSumMs += gapMs;
+        frameGapSquareSumMs += gapMs * gapMs;
+        maxFrameGapMs = Math.max(maxFrameGapMs, gapMs);
+    }
+
+    // A frame was replaced by a newer one before the thread got to draw it
+    synchronized void onFrameDropped() {
+        framesDropped++;
+    }
+
+    synchronized void collectStats(RenderThreadPool.Stats stats) {
+        stats.renderers += renderers;
+        stats.framesDrawn += framesDrawn;
+        stats.framesDropped += framesDropped;
+        stats.frameGaps += frameGaps;
+        stats.frameGapSumMs += frameGapSumMs;
+        stats.frameGapSquareSumMs += frameGapSquareSumMs;
+        stats.maxFrameGapMs = Math.max(stats.maxFrameGapMs, maxFrameGapMs);
+        stats.uploadBytes += uploadBytes;
+        stats.drawNs += drawNs;
+        stats.scaleNs += scaleNs;
+        stats.framesDownscaled += framesDownscaled;
+    }
+
+    synchronized void resetStats() {
+        framesDrawn = 0;
+        framesDropped = 0;
+        uploadBytes = 0;
+        drawNs = 0;
+        scaleNs = 0;
+        framesDownscaled = 0;
+        frameGaps = 0;
+        frameGapSumMs = 0;
+        frameGapSquareSumMs = 0;
+        maxFrameGapMs = 0;
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * The render threads shared by all video renderers. Threads are started on demand up to the
+ * configured count, and each renderer is assigned to the least loaded one while its surface
+ * exists. The first thread's EGL context is the base every other context shares.
+ */
+package com.actiotech.twiliovideorn;
+
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeArray;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class RenderThreadPool {
+
+    // Previews keep their own VideoView unless a thread count is given, the grid view uses one
+    public static final int DEFAULT_THREAD_COUNT = 0;
+    private static final String THREAD_NAME = "VideoRender";
+
+    /*
+     * Frame statistics summed over all threads.
+     */
+    static final class Stats {
+        int renderers = 0;
+        long framesDrawn = 0;
+        long framesDropped = 0;
+        long frameGaps = 0;
+        double frameGapSumMs = 0;
+        double frameGapSquareSumMs = 0;
+        double maxFrameGapMs = 0;
+        long uploadBytes = 0;
+        long drawNs = 0;
+        long scaleNs = 0;
+        long framesDownscaled = 0;
+    }
+
+    private final int maxThreads;
+    private final List<RenderThread> threads = new ArrayList<>();
+    private volatile boolean downscalingEnabled = false;
+
+    public RenderThreadPool(int maxThreads) {
+        // The grid view always draws on the pool
+        this.maxThreads = Math.max(1, maxThreads);
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    /*
+     * Scale frames down to the size of their view before uploading them.
+     */
+    public void setDownscalingEnabled(boolean enabled) {
+        downscalingEnabled = enabled;
+    }
+
+    public boolean isDownscalingEnabled() {
+        return downscalingEnabled;
+    }
+
+    public synchronized RenderThread acquire() {
+        RenderThread leastLoaded = null;
+        for (RenderThread thread : threads) {
+            if (leastLoaded == null || thread.getRendererCount() < leastLoaded.getRendererCount()) {
+                leastLoaded = thread;
+            }
+        }
+        if (threads.size() < maxThreads && (leastLoaded == null || leastLoaded.getRendererCount() > 0)) {
+            leastLoaded = new RenderThread(THREAD_NAME + threads.size(), threads.isEmpty() ? null : threads.get(0));
+            threads.add(leastLoaded);
+        }
+        leastLoaded.addRenderer();
+        return leastLoaded;
+    }
+
+    public void release(RenderThread thread) {
+        thread.removeRenderer();
+    }
+
+    /*
+     * Quit every render thread, when the React instance goes away. Views still holding one
+     * stop drawing, the next surface starts new threads.
+     */
+    public synchronized void quitThreads() {
+        for (RenderThread thread : threads) {
+            thread.quit();
+        }
+        threads.clear();
+    }
+
+    synchronized Stats collectStats() {
+        Stats stats = new Stats();
+        for (RenderThread thread : threads) {
+            thread.collectStats(stats);
+        }
+        return stats;
+    }
+
+    synchronized void resetStats() {
+        for (RenderThread thread : threads) {
+            thread.resetStats();
+        }
+    }
+
+    public synchronized WritableMap getMetrics() {
+        WritableArray renderersPerThread = new WritableNativeArray();
+        for (RenderThread thread : threads) {
+            renderersPerThread.pushInt(thread.getRendererCount());
+        }
+        Stats stats = collectStats();
+        WritableMap metrics = new WritableNativeMap();
+        metrics.putInt("maxThreads", maxThreads);
+        metrics.putInt("threads", threads.size());
+        metrics.putArray("renderersPerThread", renderersPerThread);
+        metrics.putDouble("framesDrawn", stats.framesDrawn);
+        metrics.putDouble("framesDropped", stats.framesDropped);
+        metrics.putBoolean("downscalingEnabled", downscalingEnabled);
+        metrics.putDouble("framesDownscaled", stats.framesDownscaled);
+        return metrics;
+    }
+}
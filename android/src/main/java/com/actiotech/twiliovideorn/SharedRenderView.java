@@ -0,0 +1,263 @@
+/**
+ * Surface of a PatchedVideoView drawn on a render thread from the shared RenderThreadPool
+ * instead of a GL thread of its own. Texture frames are read back to I420 before upload, see
+ * VideoFrameRenderer, so this pays off for many remote tiles rather than the camera preview.
+ */
+package com.actiotech.twiliovideorn;
+
+import android.content.Context;
+import android.opengl.EGLSurface;
+import android.opengl.GLES20;
+import android.os.SystemClock;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+import com.twilio.video.VideoScaleType;
+
+import tvi.webrtc.RendererCommon;
+import tvi.webrtc.VideoFrame;
+
+public class SharedRenderView extends SurfaceView implements SurfaceHolder.Callback {
+
+    private final PatchedVideoView owner;
+    private final RenderThreadPool renderThreadPool;
+    private volatile RendererCommon.RendererEvents rendererEvents;
+    private volatile VideoScaleType videoScaleType = VideoScaleType.ASPECT_FILL;
+    private volatile boolean mirror = false;
+    private volatile int surfaceWidth = 0;
+    private volatile int surfaceHeight = 0;
+    // Size the view was laid out at, the downscaling target
+    private volatile int renderTargetWidth = 0;
+    private volatile int renderTargetHeight = 0;
+    // Only written on the thread delivering frames
+    private volatile long framesSuperseded = 0;
+
+    private final Object frameLock = new Object();
+    // Latest frame not drawn yet, and the thread drawing this view while its surface exists
+    private VideoFrame pendingFrame;
+    private RenderThread renderThread;
+    // Bumped for every surface, a window surface is only made for the current one
+    private int surfaceGeneration = 0;
+
+    // Only touched on the render thread
+    private EGLSurface eglSurface;
+    private final VideoFrameRenderer frameRenderer = new VideoFrameRenderer();
+    private boolean firstFrameReported = false;
+    private int reportedWidth = 0;
+    private int reportedHeight = 0;
+    private int reportedRotation = 0;
+    private long lastDrawNs = 0;
+
+    private final Runnable drawRunnable = new Runnable() {
+        @Override
+        public void run() {
+            drawPendingFrame();
+        }
+    };
+
+    public SharedRenderView(Context context, PatchedVideoView owner, RenderThreadPool renderThreadPool) {
+        super(context);
+        this.owner = owner;
+        this.renderThreadPool = renderThreadPool;
+        getHolder().addCallback(this);
+    }
+
+    /*
+     * Keep only the latest frame, a frame the render thread did not get to yet is dropped.
+     */
+    void queueFrame(VideoFrame frame) {
+        VideoFrame dropped;
+        RenderThread thread;
+        synchronized (frameLock) {
+            thread = renderThread;
+            if (thread == null) {
+                return;
+            }
+            dropped = pendingFrame;
+            frame.retain();
+            pendingFrame = frame;
+        }
+        if (dropped != null) {
+            dropped.release();
+            framesSuperseded++;
+            thread.onFrameDropped();
+        } else {
+            thread.post(drawRunnable);
+        }
+    }
+
+    private void drawPendingFrame() {
+        VideoFrame frame;
+        RenderThread thread;
+        synchronized (frameLock) {
+            // A draw posted before the surface moved to another thread is stale
+            if (renderThread == null || !renderThread.isCurrentThread()) {
+                return;
+            }
+            frame = pendingFrame;
+            pendingFrame = null;
+            thread = renderThread;
+        }
+        if (frame == null) {
+            return;
+        }
+        try {
+            if (eglSurface != null) {
+                render(thread, frame);
+            }
+        } finally {
+            frame.release();
+        }
+    }
+
+    private void render(RenderThread thread, VideoFrame frame) {
+        int width = surfaceWidth;
+        int height = surfaceHeight;
+        if (width == 0 || height == 0) {
+            return;
+        }
+        reportFrameEvents(frame);
+
+        long drawStartNs = SystemClock.elapsedRealtimeNanos();
+        thread.makeCurrent(eglSurface);
+        GLES20.glClearColor(0f, 0f, 0f, 1f);
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        // Scale to the size the view was laid out at, falling back to the surface size
+        if (!frameRenderer.draw(thread, frame, scalingType(videoScaleType), mirror,
+                renderThreadPool.isDownscalingEnabled(), 0, 0, width, height,
+                renderTargetWidth, renderTargetHeight)) {
+            return;
+        }
+        thread.swapBuffers(eglSurface);
+        long now = SystemClock.elapsedRealtimeNanos();
+
+        owner.onFrameRendered(frame.getRotatedWidth(), frame.getRotatedHeight());
+        thread.onFrameDrawn(lastDrawNs != 0 ? (now - lastDrawNs) / 1e6 : -1,
+                frameRenderer.getUploadBytes(), now - drawStartNs - frameRenderer.getScaleNs(),
+                frameRenderer.getScaleNs(), frameRenderer.wasDownscaled());
+        lastDrawNs = now;
+    }
+
+    private void reportFrameEvents(VideoFrame frame) {
+        RendererCommon.RendererEvents events = rendererEvents;
+        if (!firstFrameReported) {
+            firstFrameReported = true;
+            if (events != null) {
+                events.onFirstFrameRendered();
+            }
+        }
+        int width = frame.getRotatedWidth();
+        int height = frame.getRotatedHeight();
+        if (width != reportedWidth || height != reportedHeight || frame.getRotation() != reportedRotation) {
+            reportedWidth = width;
+            reportedHeight = height;
+            reportedRotation = frame.getRotation();
+            // Dimensions are reported after rotation, ready to be used for layout
+            if (events != null) {
+                events.onFrameResolutionChanged(width, height, reportedRotation);
+            }
+        }
+    }
+
+    static RendererCommon.ScalingType scalingType(VideoScaleType videoScaleType) {
+        switch (videoScaleType) {
+            case ASPECT_FIT:
+                return RendererCommon.ScalingType.SCALE_ASPECT_FIT;
+            case ASPECT_BALANCED:
+                return RendererCommon.ScalingType.SCALE_ASPECT_BALANCED;
+            default:
+                return RendererCommon.ScalingType.SCALE_ASPECT_FILL;
+        }
+    }
+
+    // ===== Surface ===============================================================================
+
+    @Override
+    public void surfaceCreated(SurfaceHolder holder) {
+        final RenderThread thread = renderThreadPool.acquire();
+        final Surface surface = holder.getSurface();
+        final int generation;
+        synchronized (frameLock) {
+            renderThread = thread;
+            generation = ++surfaceGeneration;
+        }
+        thread.post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (frameLock) {
+                    // Destroyed before the thread got to it, surfaceDestroyed may have run first
+                    if (renderThread != thread || surfaceGeneration != generation) {
+                        return;
+                    }
+                }
+                eglSurface = thread.createWindowSurface(surface);
+                firstFrameReported = false;
+                reportedWidth = reportedHeight = reportedRotation = 0;
+                lastDrawNs = 0;
+            }
+        });
+    }
+
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        surfaceWidth = width;
+        surfaceHeight = height;
+    }
+
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder) {
+        final RenderThread thread;
+        VideoFrame dropped;
+        synchronized (frameLock) {
+            thread = renderThread;
+            renderThread = null;
+            dropped = pendingFrame;
+            pendingFrame = null;
+        }
+        if (dropped != null) {
+            dropped.release();
+        }
+        if (thread == null) {
+            return;
+        }
+        // The surface must not be used anymore once this returns
+        thread.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                if (eglSurface != null) {
+                    thread.releaseWindowSurface(eglSurface);
+                    eglSurface = null;
+                }
+            }
+        });
+        renderThreadPool.release(thread);
+    }
+
+    // ===== Properties ============================================================================
+
+    public void setListener(RendererCommon.RendererEvents rendererEvents) {
+        this.rendererEvents = rendererEvents;
+    }
+
+    public void setRenderTargetSize(int width, int height) {
+        renderTargetWidth = width;
+        renderTargetHeight = height;
+    }
+
+    public void setVideoScaleType(VideoScaleType videoScaleType) {
+        this.videoScaleType = videoScaleType;
+    }
+
+    public void setMirror(boolean mirror) {
+        this.mirror = mirror;
+    }
+
+    public long getFramesSuperseded() {
+        return framesSuperseded;
+    }
+
+    public void resetFramesSuperseded() {
+        framesSuperseded = 0;
+    }
+}
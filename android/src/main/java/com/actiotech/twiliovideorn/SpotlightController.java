@@ -0,0 +1,353 @@
+/**
+ * Native spotlight driven by dominant speaker changes. The spotlight views are rebound to
+ * the new speaker's track in place, without a new renderer or surface. The last speakers keep
+ * a warm sink at low priority, so their frames are already flowing when they speak again.
+ * A speaker has to stay dominant for a hold time before the spotlight moves to them. That
+ * window also warms their track. Only touched on the main thread.
+ */
+package com.actiotech.twiliovideorn;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+import com.twilio.video.RemoteParticipant;
+import com.twilio.video.RemoteVideoTrack;
+import com.twilio.video.RemoteVideoTrackPublication;
+import com.twilio.video.TrackPriority;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import tvi.webrtc.VideoFrame;
+import tvi.webrtc.VideoSink;
+
+public class SpotlightController {
+
+    public interface Listener {
+        /*
+         * The spotlight moved and its first frame of the new speaker was drawn.
+         */
+        void onSpotlightChanged(WritableMap event);
+    }
+
+    public static final int DEFAULT_HOLD_MS = 1000;
+    public static final int DEFAULT_WARM_COUNT = 2;
+
+    /*
+     * Keeps a track decoding while no view shows it, so a switch does not wait for a keyframe.
+     */
+    private static final class WarmSink implements VideoSink {
+        volatile long frames = 0;
+
+        @Override
+        public void onFrame(VideoFrame frame) {
+            frames++;
+        }
+    }
+
+    private final VideoTrackRegistry registry;
+    private final Handler mainThreadHandler = new Handler(Looper.getMainLooper());
+    private Listener listener;
+
+    private boolean enabled = false;
+    private int holdMs = DEFAULT_HOLD_MS;
+    private int warmCount = DEFAULT_WARM_COUNT;
+
+    private final Set<PatchedVideoView> views = new LinkedHashSet<>();
+    // Warm tracks by sid, least recent speaker first
+    private final LinkedHashMap<String, WarmSink> warmSinks = new LinkedHashMap<>();
+    @Nullable
+    private String spotlightTrackSid;
+    @Nullable
+    private String spotlightParticipantSid;
+
+    // Speaker waiting out the hold time
+    @Nullable
+    private String candidateTrackSid;
+    @Nullable
+    private String candidateParticipantSid;
+    private long candidateSinceMs = 0;
+
+    private long switches = 0;
+    private long warmSwitches = 0;
+    private long measuredSwitches = 0;
+    private long totalSwitchLatencyMs = 0;
+    private long maxSwitchLatencyMs = 0;
+
+    private final Runnable commitCandidate = new Runnable() {
+        @Override
+        public void run() {
+            if (candidateTrackSid != null) {
+                switchTo(candidateParticipantSid, candidateTrackSid, candidateSinceMs);
+            }
+        }
+    };
+
+    public SpotlightController(VideoTrackRegistry registry) {
+        this.registry = registry;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /*
+     * holdMs is how long a speaker has to stay dominant before the spotlight moves, warmCount
+     * the number of recent speakers kept warm besides the one in the spotlight.
+     */
+    public void configure(boolean enabled, int holdMs, int warmCount) {
+        this.enabled = enabled;
+        this.holdMs = Math.max(0, holdMs);
+        this.warmCount = Math.max(0, warmCount);
+        if (!enabled) {
+            cancelCandidate();
+            while (!warmSinks.isEmpty()) {
+                coolDown(warmSinks.keySet().iterator().next());
+            }
+        } else {
+            trimWarmSinks();
+        }
+    }
+
+    // ===== Views =================================================================================
+
+    public void addView(PatchedVideoView view) {
+        views.add(view);
+        registry.bind(view, spotlightTrackSid);
+    }
+
+    public void removeView(PatchedVideoView view) {
+        if (views.remove(view)) {
+            registry.unbind(view);
+        }
+    }
+
+    // ===== Speakers ==============================================================================
+
+    public void onDominantSpeakerChanged(@Nullable RemoteParticipant participant) {
+        if (!enabled) {
+            return;
+        }
+        // Silence keeps the last speaker in the spotlight
+        String trackSid = participant != null ? videoTrackSid(participant) : null;
+        if (trackSid == null || trackSid.equals(spotlightTrackSid)) {
+            cancelCandidate();
+            return;
+        }
+        if (trackSid.equals(candidateTrackSid)) {
+            return;
+        }
+        cancelCandidate();
+        warmUp(trackSid);
+        long now = SystemClock.elapsedRealtime();
+        if (spotlightTrackSid == null || holdMs == 0) {
+            switchTo(participant.getSid(), trackSid, now);
+            return;
+        }
+        candidateTrackSid = trackSid;
+        candidateParticipantSid = participant.getSid();
+        candidateSinceMs = now;
+        mainThreadHandler.postDelayed(commitCandidate, holdMs);
+    }
+
+    public void onParticipantDisconnected(RemoteParticipant participant) {
+        String participantSid = participant.getSid();
+        if (participantSid.equals(candidateParticipantSid)) {
+            cancelCandidate();
+        }
+        for (RemoteVideoTrackPublication publication : participant.getRemoteVideoTracks()) {
+            if (warmSinks.containsKey(publication.getTrackSid())) {
+                coolDown(publication.getTrackSid());
+            }
+        }
+        if (participantSid.equals(spotlightParticipantSid)) {
+            spotlightParticipantSid = null;
+            spotlightTrackSid = null;
+        }
+    }
+
+    /*
+     * A track warmed or spotlighted before it was subscribed gets its priority now.
+     */
+    public void onTrackSubscribed(String trackSid) {
+        if (getPriority(trackSid) != null) {
+            applyPriority(trackSid);
+        }
+    }
+
+    /*
+     * Forget the room's speakers, the views stay in spotlight mode for the next room.
+     */
+    public void reset() {
+        cancelCandidate();
+        while (!warmSinks.isEmpty()) {
+            coolDown(warmSinks.keySet().iterator().next());
+        }
+        spotlightTrackSid = null;
+        spotlightParticipantSid = null;
+        for (PatchedVideoView view : views) {
+            registry.unbind(view);
+        }
+    }
+
+    /*
+     * Priority of a track the spotlight manages, null for any other track.
+     */
+    @Nullable
+    public TrackPriority getPriority(String trackSid) {
+        if (trackSid.equals(spotlightTrackSid)) {
+            return TrackPriority.HIGH;
+        }
+        return warmSinks.containsKey(trackSid) ? TrackPriority.LOW : null;
+    }
+
+    private void switchTo(String participantSid, final String trackSid, long speakerChangedAtMs) {
+        cancelCandidate();
+        final String previousTrackSid = spotlightTrackSid;
+        WarmSink warmSink = warmSinks.get(trackSid);
+        final boolean warm = warmSink != null && warmSink.frames > 0;
+        spotlightTrackSid = trackSid;
+        spotlightParticipantSid = participantSid;
+        switches++;
+        if (warm) {
+            warmSwitches++;
+        }
+
+        final long switchedAtMs = SystemClock.elapsedRealtime();
+        final long heldMs = switchedAtMs - speakerChangedAtMs;
+        for (PatchedVideoView view : views) {
+            registry.bind(view, trackSid);
+        }
+        applyPriority(trackSid);
+        // The previous speaker is the most likely next one
+        if (previousTrackSid != null) {
+            warmUp(previousTrackSid);
+        }
+        trimWarmSinks();
+
+        Runnable report = new Runnable() {
+            @Override
+            public void run() {
+                if (!trackSid.equals(spotlightTrackSid)) {
+                    return;
+                }
+                long latencyMs = SystemClock.elapsedRealtime() - switchedAtMs;
+                measuredSwitches++;
+                totalSwitchLatencyMs += latencyMs;
+                maxSwitchLatencyMs = Math.max(maxSwitchLatencyMs, latencyMs);
+                reportSwitch(trackSid, previousTrackSid, warm, heldMs, latencyMs);
+            }
+        };
+        if (views.isEmpty()) {
+            reportSwitch(trackSid, previousTrackSid, warm, heldMs, -1);
+        } else {
+            views.iterator().next().runAfterNextFrame(report);
+        }
+    }
+
+    private void reportSwitch(String trackSid, @Nullable String previousTrackSid, boolean warm,
+                              long heldMs, long switchLatencyMs) {
+        if (listener == null) {
+            return;
+        }
+        WritableMap event = new WritableNativeMap();
+        event.putString("participantSid", spotlightParticipantSid);
+        event.putString("trackSid", trackSid);
+        event.putString("previousTrackSid", previousTrackSid);
+        event.putBoolean("warm", warm);
+        event.putDouble("holdMs", heldMs);
+        event.putDouble("switchLatencyMs", switchLatencyMs);
+        event.putDouble("speakerChangeLatencyMs", switchLatencyMs >= 0 ? heldMs + switchLatencyMs : -1);
+        listener.onSpotlightChanged(event);
+    }
+
+    private void cancelCandidate() {
+        mainThreadHandler.removeCallbacks(commitCandidate);
+        candidateTrackSid = null;
+        candidateParticipantSid = null;
+        candidateSinceMs = 0;
+    }
+
+    // ===== Warm tracks ===========================================================================
+
+    private void warmUp(String trackSid) {
+        WarmSink sink = warmSinks.remove(trackSid);
+        if (sink == null) {
+            sink = new WarmSink();
+            registry.bind(sink, trackSid);
+        }
+        // Most recent speaker last
+        warmSinks.put(trackSid, sink);
+        applyPriority(trackSid);
+    }
+
+    private void coolDown(String trackSid) {
+        WarmSink sink = warmSinks.remove(trackSid);
+        if (sink != null) {
+            registry.unbind(sink);
+            applyPriority(trackSid);
+        }
+    }
+
+    /*
+     * Keep the spotlight track warm too, views moving in and out of the window do not make it
+     * cold, and keep warmCount more. The candidate waiting out the hold time is never evicted.
+     */
+    private void trimWarmSinks() {
+        int others = 0;
+        for (String trackSid : warmSinks.keySet()) {
+            if (!trackSid.equals(spotlightTrackSid) && !trackSid.equals(candidateTrackSid)) {
+                others++;
+            }
+        }
+        List<String> evicted = new ArrayList<>();
+        Iterator<Map.Entry<String, WarmSink>> iterator = warmSinks.entrySet().iterator();
+        while (others > warmCount && iterator.hasNext()) {
+            String trackSid = iterator.next().getKey();
+            if (!trackSid.equals(spotlightTrackSid) && !trackSid.equals(candidateTrackSid)) {
+                evicted.add(trackSid);
+                others--;
+            }
+        }
+        for (String trackSid : evicted) {
+            coolDown(trackSid);
+        }
+    }
+
+    private void applyPriority(String trackSid) {
+        RemoteVideoTrack track = registry.getTrack(trackSid);
+        if (track != null) {
+            track.setPriority(getPriority(trackSid));
+        }
+    }
+
+    @Nullable
+    private static String videoTrackSid(RemoteParticipant participant) {
+        List<RemoteVideoTrackPublication> publications = participant.getRemoteVideoTracks();
+        return publications.isEmpty() ? null : publications.get(0).getTrackSid();
+    }
+
+    public WritableMap getMetrics() {
+        WritableMap metrics = new WritableNativeMap();
+        metrics.putBoolean("enabled", enabled);
+        metrics.putString("trackSid", spotlightTrackSid);
+        metrics.putInt("views", views.size());
+        metrics.putInt("warmTracks", warmSinks.size());
+        metrics.putDouble("switches", switches);
+        metrics.putDouble("warmSwitches", warmSwitches);
+        metrics.putDouble("averageSwitchLatencyMs",
+                measuredSwitches > 0 ? totalSwitchLatencyMs / (double) measuredSwitches : 0);
+        metrics.putDouble("maxSwitchLatencyMs", maxSwitchLatencyMs);
+        return metrics;
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * Timestamps of the stages of a multi-step operation, such as preparing the local media or
+ * joining a room, relative to when it started.
+ */
+package com.actiotech.twiliovideorn;
+
+import android.os.SystemClock;
+
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class StageTimeline {
+
+    private final Map<String, Long> stages = new LinkedHashMap<>();
+    private long startMs = -1;
+    private long endMs = -1;
+
+    /*
+     * Start over, startMs being a SystemClock.elapsedRealtime() taken when the operation was
+     * requested.
+     */
+    public synchronized void start(long startMs) {
+        stages.clear();
+        this.startMs = startMs;
+        this.endMs = -1;
+    }
+
+    public synchronized void mark(String stage) {
+        if (startMs < 0) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        stages.put(stage, now - startMs);
+        endMs = now;
+    }
+
+    public synchronized boolean isStarted() {
+        return startMs >= 0;
+    }
+
+    /*
+     * { stages: { name: ms since start }, totalMs }, stages in the order they were reached.
+     */
+    public synchronized WritableMap toMap() {
+        WritableMap offsets = new WritableNativeMap();
+        for (Map.Entry<String, Long> stage : stages.entrySet()) {
+            offsets.putDouble(stage.getKey(), stage.getValue());
+        }
+        WritableMap map = new WritableNativeMap();
+        map.putMap("stages", offsets);
+        map.putDouble("totalMs", startMs >= 0 && endMs >= 0 ? endMs - startMs : 0);
+        return map;
+    }
+}
@@ -0,0 +1,301 @@
+/**
+ * Keeps a rolling window of stats samples per track on a background thread and
+ * summarises them as p50/p95/max so JS does not have to retain raw reports.
+ */
+package com.actiotech.twiliovideorn;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+import com.twilio.video.BaseTrackStats;
+import com.twilio.video.LocalAudioTrackStats;
+import com.twilio.video.LocalVideoTrackStats;
+import com.twilio.video.RemoteAudioTrackStats;
+import com.twilio.video.RemoteVideoTrackStats;
+import com.twilio.video.StatsReport;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+public class StatsAggregator {
+
+    private static final String THREAD_NAME = "StatsAggregator";
+    public static final int DEFAULT_WINDOW_SIZE = 30;
+
+    public interface Listener {
+        void onSummary(WritableMap summary);
+    }
+
+    /*
+     * Fixed-size ring of primitive samples.
+     */
+    private static final class Ring {
+        final double[] values;
+        int count = 0;
+        int next = 0;
+
+        Ring(int capacity) {
+            values = new double[capacity];
+        }
+
+        void add(double value) {
+            values[next] = value;
+            next = (next + 1) % values.length;
+            if (count < values.length) {
+                count++;
+            }
+        }
+    }
+
+    private static final class TrackWindow {
+        final String kind;
+        final Ring roundTripTime;
+        final Ring jitter;
+        final Ring packetsLost;
+        final Ring frameRate;
+        final Ring bitrate;
+        long lastBytes = -1;
+        int lastPacketsLost = -1;
+        double lastTimestamp = -1;
+        long generation;
+
+        TrackWindow(String kind, int capacity) {
+            this.kind = kind;
+            roundTripTime = new Ring(capacity);
+            jitter = new Ring(capacity);
+            packetsLost = new Ring(capacity);
+            frameRate = new Ring(capacity);
+            bitrate = new Ring(capacity);
+        }
+    }
+
+    private final Listener listener;
+    // Only touched on the aggregator thread
+    private final Map<String, TrackWindow> tracks = new HashMap<>();
+    // Null once released, emitSummary reads it without the lock
+    private volatile Handler handler;
+    private int windowSize = DEFAULT_WINDOW_SIZE;
+    private int summaryIntervalMs = 0;
+    private volatile boolean running = false;
+    private long generation = 0;
+    // Sorting scratch, sized to the window and reused for every percentile
+    private double[] scratch = new double[DEFAULT_WINDOW_SIZE];
+
+    private final Runnable emitSummary = new Runnable() {
+        @Override
+        public void run() {
+            if (!running || summaryIntervalMs <= 0) {
+                return;
+            }
+            listener.onSummary(buildSummary());
+            Handler handler = StatsAggregator.this.handler;
+            if (handler != null) {
+                handler.postDelayed(this, summaryIntervalMs);
+            }
+        }
+    };
+
+    public StatsAggregator(Listener listener) {
+        this.listener = listener;
+    }
+
+    /*
+     * Start aggregating over the last windowSize reports. A positive summaryIntervalMs also
+     * emits a summary at that cadence.
+     */
+    public synchronized void start(int windowSize, int summaryIntervalMs) {
+        if (handler == null) {
+            HandlerThread thread = new HandlerThread(THREAD_NAME);
+            thread.start();
+            handler = new Handler(thread.getLooper());
+        }
+        final int size = windowSize > 0 ? windowSize : DEFAULT_WINDOW_SIZE;
+        final Handler handler = this.handler;
+        // Rescheduled on the aggregator thread, in order with other start and stop calls, so
+        // only one summary chain is ever pending
+        handler.post(() -> {
+            handler.removeCallbacks(emitSummary);
+            if (size != this.windowSize) {
+                tracks.clear();
+                this.windowSize = size;
+                scratch = new double[size];
+            }
+            this.summaryIntervalMs = summaryIntervalMs;
+            running = true;
+            if (summaryIntervalMs > 0) {
+                handler.postDelayed(emitSummary, summaryIntervalMs);
+            }
+        });
+    }
+
+    public synchronized void stop() {
+        final Handler handler = this.handler;
+        if (handler == null) {
+            running = false;
+            return;
+        }
+        handler.post(() -> {
+            running = false;
+            handler.removeCallbacks(emitSummary);
+            tracks.clear();
+        });
+    }
+
+    /*
+     * Stop and quit the aggregator thread, the next start() creates a new one.
+     */
+    public synchronized void release() {
+        running = false;
+        final Handler handler = this.handler;
+        if (handler == null) {
+            return;
+        }
+        this.handler = null;
+        // The windows are cleared on the aggregator thread, which then quits
+        handler.post(() -> {
+            running = false;
+            handler.removeCallbacks(emitSummary);
+            tracks.clear();
+            handler.getLooper().quit();
+        });
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public synchronized void submit(final List<StatsReport> statsReports) {
+        if (!running || handler == null) {
+            return;
+        }
+        handler.post(() -> aggregate(statsReports));
+    }
+
+    /*
+     * Resolve the current summary on the aggregator thread.
+     */
+    public synchronized void querySummary(final Listener callback) {
+        if (handler == null) {
+            callback.onSummary(new WritableNativeMap());
+            return;
+        }
+        handler.post(() -> callback.onSummary(buildSummary()));
+    }
+
+    private void aggregate(List<StatsReport> statsReports) {
+        if (!running) {
+            return;
+        }
+        generation++;
+        for (StatsReport sr : statsReports) {
+            for (RemoteAudioTrackStats s : sr.getRemoteAudioTrackStats()) {
+                TrackWindow window = window(s, "remoteAudio");
+                window.jitter.add(s.jitter);
+                addCounters(window, s, s.bytesReceived);
+            }
+            for (RemoteVideoTrackStats s : sr.getRemoteVideoTrackStats()) {
+                TrackWindow window = window(s, "remoteVideo");
+                window.frameRate.add(s.frameRate);
+                addCounters(window, s, s.bytesReceived);
+            }
+            for (LocalAudioTrackStats s : sr.getLocalAudioTrackStats()) {
+                TrackWindow window = window(s, "localAudio");
+                window.jitter.add(s.jitter);
+                window.roundTripTime.add(s.roundTripTime);
+                addCounters(window, s, s.bytesSent);
+            }
+            for (LocalVideoTrackStats s : sr.getLocalVideoTrackStats()) {
+                TrackWindow window = window(s, "localVideo");
+                window.frameRate.add(s.frameRate);
+                window.roundTripTime.add(s.roundTripTime);
+                addCounters(window, s, s.bytesSent);
+            }
+        }
+
+        Iterator<TrackWindow> iterator = tracks.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().generation != generation) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private TrackWindow window(BaseTrackStats bs, String kind) {
+        TrackWindow window = tracks.get(bs.trackSid);
+        if (window == null) {
+            window = new TrackWindow(kind, windowSize);
+            tracks.put(bs.trackSid, window);
+        }
+        window.generation = generation;
+        return window;
+    }
+
+    // Packets lost and bytes are cumulative counters, the window holds per-report deltas
+    private void addCounters(TrackWindow window, BaseTrackStats bs, long bytes) {
+        if (window.lastPacketsLost >= 0) {
+            window.packetsLost.add(Math.max(0, bs.packetsLost - window.lastPacketsLost));
+        }
+        if (window.lastBytes >= 0 && bs.timestamp > window.lastTimestamp) {
+            double elapsedMs = bs.timestamp - window.lastTimestamp;
+            window.bitrate.add(Math.max(0, bytes - window.lastBytes) * 8 * 1000 / elapsedMs);
+        }
+        window.lastPacketsLost = bs.packetsLost;
+        window.lastBytes = bytes;
+        window.lastTimestamp = bs.timestamp;
+    }
+
+    private WritableMap buildSummary() {
+        WritableMap summary = new WritableNativeMap();
+        summary.putInt("windowSize", windowSize);
+        WritableMap tracksMap = new WritableNativeMap();
+        for (Map.Entry<String, TrackWindow> entry : tracks.entrySet()) {
+            TrackWindow window = entry.getValue();
+            WritableMap trackMap = new WritableNativeMap();
+            trackMap.putString("kind", window.kind);
+            putPercentiles(trackMap, "roundTripTime", window.roundTripTime);
+            putPercentiles(trackMap, "jitter", window.jitter);
+            putPercentiles(trackMap, "packetsLost", window.packetsLost);
+            putPercentiles(trackMap, "frameRate", window.frameRate);
+            putPercentiles(trackMap, "bitrate", window.bitrate);
+            tracksMap.putMap(entry.getKey(), trackMap);
+        }
+        summary.putMap("tracks", tracksMap);
+        return summary;
+    }
+
+    private void putPercentiles(WritableMap trackMap, String name, Ring ring) {
+        WritableMap percentiles = percentiles(ring);
+        if (percentiles != null) {
+            trackMap.putMap(name, percentiles);
+        }
+    }
+
+    @Nullable
+    private WritableMap percentiles(Ring ring) {
+        int count = ring.count;
+        if (count == 0) {
+            return null;
+        }
+        System.arraycopy(ring.values, 0, scratch, 0, count);
+        Arrays.sort(scratch, 0, count);
+        WritableMap result = new WritableNativeMap();
+        result.putDouble("p50", scratch[rank(count, 0.50)]);
+        result.putDouble("p95", scratch[rank(count, 0.95)]);
+        result.putDouble("max", scratch[count - 1]);
+        result.putInt("samples", count);
+        return result;
+    }
+
+    // Nearest-rank percentile index
+    private static int rank(int count, double percentile) {
+        int rank = (int) Math.ceil(percentile * count) - 1;
+        return Math.min(count - 1, Math.max(0, rank));
+    }
+}
@@ -0,0 +1,238 @@
+/**
+ * Encodes stats reports as flat per-track records carrying only the fields that
+ * changed since the previous report, keyed by trackSid.
+ */
+package com.actiotech.twiliovideorn;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeArray;
+import com.facebook.react.bridge.WritableNativeMap;
+import com.twilio.video.BaseTrackStats;
+import com.twilio.video.LocalAudioTrackStats;
+import com.twilio.video.LocalTrackStats;
+import com.twilio.video.LocalVideoTrackStats;
+import com.twilio.video.RemoteAudioTrackStats;
+import com.twilio.video.RemoteTrackStats;
+import com.twilio.video.RemoteVideoTrackStats;
+import com.twilio.video.StatsReport;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+public class StatsDeltaEncoder {
+
+    private static final String[] KIND_NAMES = {
+            "remoteAudio",
+            "remoteVideo",
+            "localAudio",
+            "localVideo"
+    };
+    private static final int KIND_REMOTE_AUDIO = 0;
+    private static final int KIND_REMOTE_VIDEO = 1;
+    private static final int KIND_LOCAL_AUDIO = 2;
+    private static final int KIND_LOCAL_VIDEO = 3;
+
+    private static final String[] FIELD_NAMES = {
+            "packetsLost",
+            "timestamp",
+            "bytesReceived",
+            "packetsReceived",
+            "bytesSent",
+            "packetsSent",
+            "roundTripTime",
+            "audioLevel",
+            "jitter",
+            "width",
+            "height",
+            "frameRate"
+    };
+    private static final int PACKETS_LOST = 0;
+    private static final int TIMESTAMP = 1;
+    private static final int BYTES_RECEIVED = 2;
+    private static final int PACKETS_RECEIVED = 3;
+    private static final int BYTES_SENT = 4;
+    private static final int PACKETS_SENT = 5;
+    private static final int ROUND_TRIP_TIME = 6;
+    private static final int AUDIO_LEVEL = 7;
+    private static final int JITTER = 8;
+    private static final int WIDTH = 9;
+    private static final int HEIGHT = 10;
+    private static final int FRAME_RATE = 11;
+    private static final int FIELD_COUNT = FIELD_NAMES.length;
+
+    /*
+     * Last values sent to JS for one track. Reused across reports.
+     */
+    private static final class TrackState {
+        final double[] values = new double[FIELD_COUNT];
+        String codec;
+        String ssrc;
+        long generation;
+        boolean announced;
+
+        TrackState() {
+            Arrays.fill(values, Double.NaN);
+        }
+    }
+
+    private final Map<String, TrackState> tracks = new HashMap<>();
+    private long generation = 0;
+
+    // Scratch state for the track being encoded, reused to avoid allocating per track
+    private int changedMask;
+    private TrackState current;
+
+    /*
+     * Returns the delta event for the given reports, or null when nothing changed.
+     */
+    @Nullable
+    public synchronized WritableMap encode(List<StatsReport> statsReports) {
+        generation++;
+        WritableArray changed = null;
+
+        for (StatsReport sr : statsReports) {
+            String peerConnectionId = sr.getPeerConnectionId();
+            for (RemoteAudioTrackStats s : sr.getRemoteAudioTrackStats()) {
+                begin(s);
+                setBase(s);
+                setRemote(s);
+                set(AUDIO_LEVEL, s.audioLevel);
+                set(JITTER, s.jitter);
+                changed = end(changed, s, KIND_REMOTE_AUDIO, peerConnectionId);
+            }
+            for (RemoteVideoTrackStats s : sr.getRemoteVideoTrackStats()) {
+                begin(s);
+                setBase(s);
+                setRemote(s);
+                set(WIDTH, s.dimensions.width);
+                set(HEIGHT, s.dimensions.height);
+                set(FRAME_RATE, s.frameRate);
+                changed = end(changed, s, KIND_REMOTE_VIDEO, peerConnectionId);
+            }
+            for (LocalAudioTrackStats s : sr.getLocalAudioTrackStats()) {
+                begin(s);
+                setBase(s);
+                setLocal(s);
+                set(AUDIO_LEVEL, s.audioLevel);
+                set(JITTER, s.jitter);
+                changed = end(changed, s, KIND_LOCAL_AUDIO, peerConnectionId);
+            }
+            for (LocalVideoTrackStats s : sr.getLocalVideoTrackStats()) {
+                begin(s);
+                setBase(s);
+                setLocal(s);
+                set(WIDTH, s.dimensions.width);
+                set(HEIGHT, s.dimensions.height);
+                set(FRAME_RATE, s.frameRate);
+                changed = end(changed, s, KIND_LOCAL_VIDEO, peerConnectionId);
+            }
+        }
+
+        WritableArray removed = null;
+        Iterator<Map.Entry<String, TrackState>> iterator = tracks.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, TrackState> entry = iterator.next();
+            if (entry.getValue().generation != generation) {
+                if (removed == null) {
+                    removed = new WritableNativeArray();
+                }
+                removed.pushString(entry.getKey());
+                iterator.remove();
+            }
+        }
+
+        if (changed == null && removed == null) {
+            return null;
+        }
+        WritableMap event = new WritableNativeMap();
+        event.putArray("tracks", changed != null ? changed : new WritableNativeArray());
+        event.putArray("removed", removed != null ? removed : new WritableNativeArray());
+        return event;
+    }
+
+    /*
+     * Forget everything sent so far so the next report is encoded in full.
+     */
+    public synchronized void reset() {
+        tracks.clear();
+    }
+
+    private void begin(BaseTrackStats bs) {
+        changedMask = 0;
+        current = tracks.get(bs.trackSid);
+        if (current == null) {
+            current = new TrackState();
+            tracks.put(bs.trackSid, current);
+        }
+        current.generation = generation;
+    }
+
+    private void setBase(BaseTrackStats bs) {
+        set(PACKETS_LOST, bs.packetsLost);
+        set(TIMESTAMP, bs.timestamp);
+    }
+
+    private void setRemote(RemoteTrackStats ts) {
+        set(BYTES_RECEIVED, ts.bytesReceived);
+        set(PACKETS_RECEIVED, ts.packetsReceived);
+    }
+
+    private void setLocal(LocalTrackStats ts) {
+        set(BYTES_SENT, ts.bytesSent);
+        set(PACKETS_SENT, ts.packetsSent);
+        set(ROUND_TRIP_TIME, ts.roundTripTime);
+    }
+
+    private void set(int field, double value) {
+        if (Double.compare(current.values[field], value) != 0) {
+            current.values[field] = value;
+            changedMask |= 1 << field;
+        }
+    }
+
+    @Nullable
+    private WritableArray end(@Nullable WritableArray changed, BaseTrackStats bs, int kind, String peerConnectionId) {
+        boolean codecChanged = !equals(current.codec, bs.codec);
+        boolean ssrcChanged = !equals(current.ssrc, bs.ssrc);
+        if (current.announced && changedMask == 0 && !codecChanged && !ssrcChanged) {
+            return changed;
+        }
+
+        WritableMap record = new WritableNativeMap();
+        record.putString("trackSid", bs.trackSid);
+        if (!current.announced) {
+            current.announced = true;
+            record.putString("kind", KIND_NAMES[kind]);
+            record.putString("peerConnectionId", peerConnectionId);
+        }
+        if (codecChanged) {
+            current.codec = bs.codec;
+            record.putString("codec", bs.codec);
+        }
+        if (ssrcChanged) {
+            current.ssrc = bs.ssrc;
+            record.putString("ssrc", bs.ssrc);
+        }
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            if ((changedMask & (1 << field)) != 0) {
+                record.putDouble(FIELD_NAMES[field], current.values[field]);
+            }
+        }
+
+        if (changed == null) {
+            changed = new WritableNativeArray();
+        }
+        changed.pushMap(record);
+        return changed;
+    }
+
+    private static boolean equals(@Nullable String a, @Nullable String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,228 @@
+/**
+ * Periodically requests stats on a single reusable thread. A tick is skipped while the
+ * previous request is still in flight or the host is paused, and the interval is
+ * stretched when nobody listens for stats or the network quality is poor.
+ */
+package com.actiotech.twiliovideorn;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+
+public class StatsScheduler {
+
+    private static final String THREAD_NAME = "StatsScheduler";
+    private static final int IDLE_INTERVAL_MULTIPLIER = 4;
+    private static final int POOR_NETWORK_INTERVAL_MULTIPLIER = 2;
+    // Network quality levels at or below this (0..5 scale) are considered poor
+    private static final int POOR_NETWORK_QUALITY_LEVEL = 1;
+    // A request that has not answered after this many intervals is given up on
+    private static final int IN_FLIGHT_TIMEOUT_INTERVALS = 5;
+
+    public interface Requester {
+        /*
+         * Issue a stats request, returning false when there is nothing to ask stats for.
+         */
+        boolean requestStats();
+    }
+
+    private final Requester requester;
+    private final Object lock = new Object();
+    private Handler handler;
+
+    private int baseIntervalMs = 0;
+    private boolean running = false;
+    private boolean paused = false;
+    // Matches the JS side, which reports the first onStatsReceived listener
+    private boolean listenerAttached = false;
+    private int networkQualityLevel = -1;
+    private boolean inFlight = false;
+    private long inFlightSinceMs = 0;
+
+    private long tickCount = 0;
+    private long requestCount = 0;
+    private long skippedInFlightCount = 0;
+    private long skippedPausedCount = 0;
+    private long mergedCount = 0;
+    private long timedOutCount = 0;
+
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            onTick();
+        }
+    };
+
+    public StatsScheduler(Requester requester) {
+        this.requester = requester;
+    }
+
+    public void start(int intervalMs) {
+        synchronized (lock) {
+            Handler handler = getHandler();
+            handler.removeCallbacks(tick);
+            baseIntervalMs = Math.max(1, intervalMs);
+            running = true;
+            handler.post(tick);
+        }
+    }
+
+    public void stop() {
+        synchronized (lock) {
+            running = false;
+            inFlight = false;
+            if (handler != null) {
+                handler.removeCallbacks(tick);
+            }
+        }
+    }
+
+    /*
+     * Stop and quit the scheduling thread, the next start() creates a new one.
+     */
+    public void release() {
+        synchronized (lock) {
+            running = false;
+            inFlight = false;
+            if (handler != null) {
+                handler.removeCallbacks(tick);
+                handler.getLooper().quit();
+                handler = null;
+            }
+        }
+    }
+
+    public void pause() {
+        synchronized (lock) {
+            paused = true;
+        }
+    }
+
+    public void resume() {
+        synchronized (lock) {
+            if (!paused) {
+                return;
+            }
+            paused = false;
+            if (running) {
+                // Pick up immediately rather than waiting out a possibly stretched interval
+                handler.removeCallbacks(tick);
+                handler.post(tick);
+            }
+        }
+    }
+
+    public void setListenerAttached(boolean attached) {
+        synchronized (lock) {
+            listenerAttached = attached;
+        }
+    }
+
+    public void setNetworkQualityLevel(int level) {
+        synchronized (lock) {
+            networkQualityLevel = level;
+        }
+    }
+
+    /*
+     * Called for every stats delivery, whether it was scheduled or requested directly.
+     */
+    public void onStatsDelivered() {
+        synchronized (lock) {
+            inFlight = false;
+        }
+    }
+
+    /*
+     * Returns true when a one-off request can be folded into the request already in flight.
+     */
+    public boolean mergeIfInFlight() {
+        synchronized (lock) {
+            if (inFlight) {
+                mergedCount++;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    public WritableMap getMetrics() {
+        WritableMap metrics = new WritableNativeMap();
+        synchronized (lock) {
+            metrics.putBoolean("running", running);
+            metrics.putBoolean("paused", paused);
+            metrics.putInt("intervalMs", running ? currentIntervalMs() : 0);
+            metrics.putDouble("ticks", tickCount);
+            metrics.putDouble("requests", requestCount);
+            metrics.putDouble("skippedInFlight", skippedInFlightCount);
+            metrics.putDouble("skippedPaused", skippedPausedCount);
+            metrics.putDouble("merged", mergedCount);
+            metrics.putDouble("timedOut", timedOutCount);
+        }
+        return metrics;
+    }
+
+    private Handler getHandler() {
+        if (handler == null) {
+            HandlerThread thread = new HandlerThread(THREAD_NAME);
+            thread.start();
+            handler = new Handler(thread.getLooper());
+        }
+        return handler;
+    }
+
+    private void onTick() {
+        boolean request = false;
+        synchronized (lock) {
+            if (!running) {
+                return;
+            }
+            tickCount++;
+            long now = SystemClock.elapsedRealtime();
+            int intervalMs = currentIntervalMs();
+
+            if (inFlight && now - inFlightSinceMs > (long) intervalMs * IN_FLIGHT_TIMEOUT_INTERVALS) {
+                timedOutCount++;
+                inFlight = false;
+            }
+
+            if (paused) {
+                // Stop ticking altogether, resume() posts the next tick
+                skippedPausedCount++;
+                return;
+            }
+            if (inFlight) {
+                skippedInFlightCount++;
+            } else {
+                inFlight = true;
+                inFlightSinceMs = now;
+                request = true;
+            }
+            handler.postDelayed(tick, intervalMs);
+        }
+
+        if (request) {
+            if (requester.requestStats()) {
+                synchronized (lock) {
+                    requestCount++;
+                }
+            } else {
+                onStatsDelivered();
+            }
+        }
+    }
+
+    private int currentIntervalMs() {
+        int intervalMs = baseIntervalMs;
+        if (!listenerAttached) {
+            intervalMs *= IDLE_INTERVAL_MULTIPLIER;
+        }
+        if (networkQualityLevel >= 0 && networkQualityLevel <= POOR_NETWORK_QUALITY_LEVEL) {
+            intervalMs *= POOR_NETWORK_INTERVAL_MULTIPLIER;
+        }
+        return intervalMs;
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Component for a grid of Twilio Video participant views sharing one surface.
+ */
+
+package com.actiotech.twiliovideorn;
+
+import android.graphics.RectF;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.uimanager.PixelUtil;
+import com.facebook.react.uimanager.SimpleViewManager;
+import com.facebook.react.uimanager.ThemedReactContext;
+import com.facebook.react.uimanager.annotations.ReactProp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import tvi.webrtc.RendererCommon;
+
+public class TwilioCompositePreviewManager extends SimpleViewManager<CompositeVideoView> {
+
+    public static final String REACT_CLASS = "RNTwilioCompositePreview";
+    private final VideoRendererPool rendererPool;
+
+    public TwilioCompositePreviewManager(VideoRendererPool rendererPool) {
+        this.rendererPool = rendererPool;
+    }
+
+    @Override
+    public String getName() {
+        return REACT_CLASS;
+    }
+
+    @ReactProp(name = "scaleType")
+    public void setScaleType(CompositeVideoView view, @Nullable String scaleType) {
+        if ("fit".equals(scaleType)) {
+            view.setScalingType(RendererCommon.ScalingType.SCALE_ASPECT_FIT);
+        } else {
+            view.setScalingType(RendererCommon.ScalingType.SCALE_ASPECT_FILL);
+        }
+    }
+
+    @ReactProp(name = "maxRenderFps", defaultFloat = 0f)
+    public void setMaxRenderFps(CompositeVideoView view, float maxRenderFps) {
+        view.setMaxRenderFps(maxRenderFps);
+    }
+
+    @ReactProp(name = "trackSids")
+    public void setTrackSids(CompositeVideoView view, @Nullable ReadableArray trackSids) {
+        List<String> sids = new ArrayList<>();
+        if (trackSids != null) {
+            for (int i = 0; i < trackSids.size(); i++) {
+                sids.add(trackSids.getString(i));
+            }
+        }
+        view.setTrackSids(sids);
+    }
+
+    /*
+     * { columns, spacing } with spacing in dp, and optionally tiles: [{ x, y, width, height }]
+     * as fractions of the view.
+     */
+    @ReactProp(name = "layout")
+    public void setLayout(CompositeVideoView view, @Nullable ReadableMap layout) {
+        int columns = 0;
+        int spacing = 0;
+        List<RectF> tileRects = null;
+        if (layout != null) {
+            if (layout.hasKey("columns")) {
+                columns = layout.getInt("columns");
+            }
+            if (layout.hasKey("spacing")) {
+                spacing = Math.round(PixelUtil.toPixelFromDIP(layout.getDouble("spacing")));
+            }
+            if (layout.hasKey("tiles")) {
+                ReadableArray tiles = layout.getArray("tiles");
+                tileRects = new ArrayList<>();
+                for (int i = 0; i < tiles.size(); i++) {
+                    ReadableMap tile = tiles.getMap(i);
+                    float x = (float) tile.getDouble("x");
+                    float y = (float) tile.getDouble("y");
+                    tileRects.add(new RectF(x, y,
+                            x + (float) tile.getDouble("width"), y + (float) tile.getDouble("height")));
+                }
+            }
+        }
+        view.setLayout(columns, spacing, tileRects);
+    }
+
+    @Override
+    protected CompositeVideoView createViewInstance(ThemedReactContext reactContext) {
+        return new CompositeVideoView(reactContext, rendererPool.getRenderThreadPool());
+    }
+
+    @Override
+    public void onDropViewInstance(CompositeVideoView view) {
+        super.onDropViewInstance(view);
+        view.release();
+    }
+}
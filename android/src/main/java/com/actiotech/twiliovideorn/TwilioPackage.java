@@ -20,19 +20,41 @@ import java.util.List;
 import androidx.annotation.NonNull;
 
 public class TwilioPackage implements ReactPackage {
+    // Shared by all previews of the app, renderers are reused across view managers
+    private final VideoRendererPool rendererPool;
+
+    public TwilioPackage() {
+        this(VideoRendererPool.DEFAULT_MAX_SIZE);
+    }
+
+    public TwilioPackage(int rendererPoolSize) {
+        this(rendererPoolSize, RenderThreadPool.DEFAULT_THREAD_COUNT);
+    }
+
+    /*
+     * rendererPoolSize is the number of released video renderers kept for reuse, 0 disables
+     * pooling. renderThreadCount is the number of shared GL threads previews are drawn on. With
+     * 0, the default, every preview is a Twilio VideoView drawing on its own thread.
+     */
+    public TwilioPackage(int rendererPoolSize, int renderThreadCount) {
+        rendererPool = new VideoRendererPool(rendererPoolSize, new RenderThreadPool(renderThreadCount),
+                renderThreadCount > 0);
+    }
+
     @NonNull
     @Override
     public List<NativeModule> createNativeModules(@NonNull ReactApplicationContext reactContext) {
         return Collections.singletonList(
-                new TwilioVideoModule(reactContext)
+                new TwilioVideoModule(reactContext, rendererPool)
         );
     }
 
     @Override
     public List<ViewManager> createViewManagers(ReactApplicationContext reactContext) {
         return Arrays.<ViewManager>asList(
-                new TwilioRemotePreviewManager(),
-                new TwilioVideoPreviewManager()
+                new TwilioRemotePreviewManager(rendererPool),
+                new TwilioVideoPreviewManager(rendererPool),
+                new TwilioCompositePreviewManager(rendererPool)
         );
     }
 }
@@ -15,13 +15,65 @@ public class TwilioRemotePreview extends RNVideoViewGroup {
 
     private static final String TAG = "TwilioRemotePreview";
 
+    private String trackSid;
+    // Follows the dominant speaker instead of trackSid
+    private boolean spotlight = false;
 
-    public TwilioRemotePreview(Context context, String trackSid) {
-        super(context);
+    public TwilioRemotePreview(Context context, String trackSid, VideoRendererPool rendererPool) {
+        super(context, rendererPool);
         Log.i("CustomTwilioVideoView", "Remote Prview Construct");
         Log.i("CustomTwilioVideoView", trackSid);
 
-
+        this.trackSid = trackSid;
         TwilioVideoModule.registerPrimaryVideoView(this.getSurfaceViewRenderer(), trackSid);
     }
+
+    public void setTrackSid(String trackSid) {
+        this.trackSid = trackSid;
+        if (getSurfaceViewRenderer() != null && !spotlight) {
+            TwilioVideoModule.registerPrimaryVideoView(getSurfaceViewRenderer(), trackSid);
+        }
+    }
+
+    public void setSpotlight(boolean spotlight) {
+        if (this.spotlight == spotlight) {
+            return;
+        }
+        this.spotlight = spotlight;
+        PatchedVideoView renderer = getSurfaceViewRenderer();
+        if (renderer == null) {
+            return;
+        }
+        if (spotlight) {
+            TwilioVideoModule.registerSpotlightVideoView(renderer);
+        } else {
+            TwilioVideoModule.unregisterSpotlightVideoView(renderer);
+            TwilioVideoModule.registerPrimaryVideoView(renderer, trackSid);
+        }
+    }
+
+    @Override
+    protected void onRendererAcquired(PatchedVideoView renderer) {
+        if (spotlight) {
+            TwilioVideoModule.registerSpotlightVideoView(renderer);
+        } else {
+            TwilioVideoModule.registerPrimaryVideoView(renderer, trackSid);
+        }
+        if (!isTileReportedVisible()) {
+            TwilioVideoModule.setPrimaryVideoViewVisible(renderer, false);
+        }
+    }
+
+    @Override
+    protected void onRendererReleased(PatchedVideoView renderer) {
+        TwilioVideoModule.unregisterSpotlightVideoView(renderer);
+        TwilioVideoModule.unregisterPrimaryVideoView(renderer);
+    }
+
+    @Override
+    protected void onTileVisibilityChanged(boolean visible) {
+        if (getSurfaceViewRenderer() != null) {
+            TwilioVideoModule.setPrimaryVideoViewVisible(getSurfaceViewRenderer(), visible);
+        }
+    }
 }
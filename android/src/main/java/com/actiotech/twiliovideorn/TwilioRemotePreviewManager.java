@@ -22,6 +22,11 @@ public class TwilioRemotePreviewManager extends SimpleViewManager<TwilioRemotePr
 
     public static final String REACT_CLASS = "RNTwilioRemotePreview";
     public String myTrackSid = "";
+    private final VideoRendererPool rendererPool;
+
+    public TwilioRemotePreviewManager(VideoRendererPool rendererPool) {
+        this.rendererPool = rendererPool;
+    }
 
     @Override
     public String getName() {
@@ -38,18 +43,34 @@ public class TwilioRemotePreviewManager extends SimpleViewManager<TwilioRemotePr
         }
     }
 
+    @ReactProp(name = "maxRenderFps", defaultFloat = 0f)
+    public void setMaxRenderFps(TwilioRemotePreview view, float maxRenderFps) {
+        view.setMaxRenderFps(maxRenderFps);
+    }
+
+    @ReactProp(name = "spotlight", defaultBoolean = false)
+    public void setSpotlight(TwilioRemotePreview view, boolean spotlight) {
+        view.setSpotlight(spotlight);
+    }
+
     @ReactProp(name = "trackSid")
     public void setTrackId(TwilioRemotePreview view, @Nullable String trackSid) {
 
         Log.i("CustomTwilioVideoView", "Initialize Twilio REMOTE");
         Log.i("CustomTwilioVideoView", trackSid);
         myTrackSid = trackSid;
-        TwilioVideoModule.registerPrimaryVideoView(view.getSurfaceViewRenderer(), trackSid);
+        view.setTrackSid(trackSid);
     }
 
 
     @Override
     protected TwilioRemotePreview createViewInstance(ThemedReactContext reactContext) {
-        return new TwilioRemotePreview(reactContext, myTrackSid);
+        return new TwilioRemotePreview(reactContext, myTrackSid, rendererPool);
+    }
+
+    @Override
+    public void onDropViewInstance(TwilioRemotePreview view) {
+        super.onDropViewInstance(view);
+        view.releaseRenderer();
     }
 }
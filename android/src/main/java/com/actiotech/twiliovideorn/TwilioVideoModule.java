@@ -11,12 +11,15 @@ package com.actiotech.twiliovideorn;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import android.content.Context;
 import android.media.AudioManager;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.util.Base64;
 
 import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
@@ -24,15 +27,18 @@ import androidx.annotation.Nullable;
 import androidx.annotation.StringDef;
 
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import android.util.Pair;
 import android.view.View;
 
 import com.facebook.react.bridge.LifecycleEventListener;
+import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
@@ -79,8 +85,8 @@ import com.twilio.video.TrackPublication;
 import com.twilio.video.TwilioException;
 import com.twilio.video.Video;
 import com.twilio.video.VideoBandwidthProfileOptions;
-import com.twilio.video.VideoDimensions;
 import com.twilio.video.VideoFormat;
+import com.twilio.video.VideoTrack;
 import com.twilio.video.Vp8Codec;
 
 import org.webrtc.voiceengine.WebRtcAudioManager;
@@ -89,17 +95,21 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.Collections;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import kotlin.Unit;
 
+import tvi.webrtc.VideoSink;
+
 import static com.actiotech.twiliovideorn.TwilioVideoModule.Events.ON_AUDIO_CHANGED;
 import static com.actiotech.twiliovideorn.TwilioVideoModule.Events.ON_CAMERA_SWITCHED;
+import static com.actiotech.twiliovideorn.TwilioVideoModule.Events.ON_CAPTURE_FORMAT_CHANGED;
 import static com.actiotech.twiliovideorn.TwilioVideoModule.Events.ON_CONNECTED;
 import static com.actiotech.twiliovideorn.TwilioVideoModule.Events.ON_CONNECT_FAILURE;
 import static com.actiotech.twiliovideorn.TwilioVideoModule.Events.ON_DISCONNECTED;
+import static com.actiotech.twiliovideorn.TwilioVideoModule.Events.ON_DATATRACK_BINARY_MESSAGE_RECEIVED;
 import static com.actiotech.twiliovideorn.TwilioVideoModule.Events.ON_DATATRACK_MESSAGE_RECEIVED;
+import static com.actiotech.twiliovideorn.TwilioVideoModule.Events.ON_DATATRACK_MESSAGES_RECEIVED;
+import static com.actiotech.twiliovideorn.TwilioVideoModule.Events.ON_DATATRACK_SEND_QUEUE_CHANGED;
 import static com.actiotech.twiliovideorn.TwilioVideoModule.Events.ON_PARTICIPANT_ADDED_DATA_TRACK;
 import static com.actiotech.twiliovideorn.TwilioVideoModule.Events.ON_PARTICIPANT_ADDED_AUDIO_TRACK;
 import static com.actiotech.twiliovideorn.TwilioVideoModule.Events.ON_PARTICIPANT_ADDED_VIDEO_TRACK;
@@ -115,16 +125,23 @@ import static com.actiotech.twiliovideorn.TwilioVideoModule.Events.ON_PARTICIPAN
 import static com.actiotech.twiliovideorn.TwilioVideoModule.Events.ON_PARTICIPANT_REMOVED_DATA_TRACK;
 import static com.actiotech.twiliovideorn.TwilioVideoModule.Events.ON_PARTICIPANT_REMOVED_AUDIO_TRACK;
 import static com.actiotech.twiliovideorn.TwilioVideoModule.Events.ON_PARTICIPANT_REMOVED_VIDEO_TRACK;
+import static com.actiotech.twiliovideorn.TwilioVideoModule.Events.ON_STATS_DELTA_RECEIVED;
 import static com.actiotech.twiliovideorn.TwilioVideoModule.Events.ON_STATS_RECEIVED;
+import static com.actiotech.twiliovideorn.TwilioVideoModule.Events.ON_STATS_SUMMARY;
 import static com.actiotech.twiliovideorn.TwilioVideoModule.Events.ON_VIDEO_CHANGED;
 import static com.actiotech.twiliovideorn.TwilioVideoModule.Events.ON_NETWORK_QUALITY_LEVELS_CHANGED;
 import static com.actiotech.twiliovideorn.TwilioVideoModule.Events.ON_DOMINANT_SPEAKER_CHANGED;
+import static com.actiotech.twiliovideorn.TwilioVideoModule.Events.ON_LOCAL_VIDEO_RESUMED;
+import static com.actiotech.twiliovideorn.TwilioVideoModule.Events.ON_HANDLES_ANNOUNCED;
+import static com.actiotech.twiliovideorn.TwilioVideoModule.Events.ON_RENDER_TELEMETRY;
+import static com.actiotech.twiliovideorn.TwilioVideoModule.Events.ON_SPOTLIGHT_CHANGED;
 
 public class TwilioVideoModule extends ReactContextBaseJavaModule implements LifecycleEventListener, StatsListener {
     private static final String TAG = "TwilioVideoModule";
     private static final String DATA_TRACK_MESSAGE_THREAD_NAME = "DataTrackMessages";
     private static final int DefaultAudioBitrate = 32;
     private static final int DefaultVideoBitrate = 5500;
+    private static final String STATS_ENCODING_DELTA = "delta";
     private boolean enableRemoteAudio = false;
     private boolean enableNetworkQualityReporting = false;
 
@@ -153,7 +170,18 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
             Events.ON_PARTICIPANT_DISABLED_AUDIO_TRACK,
             Events.ON_STATS_RECEIVED,
             Events.ON_NETWORK_QUALITY_LEVELS_CHANGED,
-            Events.ON_DOMINANT_SPEAKER_CHANGED})
+            Events.ON_DOMINANT_SPEAKER_CHANGED,
+            Events.ON_EVENT_BATCH,
+            Events.ON_STATS_DELTA_RECEIVED,
+            Events.ON_STATS_SUMMARY,
+            Events.ON_DATATRACK_BINARY_MESSAGE_RECEIVED,
+            Events.ON_DATATRACK_MESSAGES_RECEIVED,
+            Events.ON_DATATRACK_SEND_QUEUE_CHANGED,
+            Events.ON_HANDLES_ANNOUNCED,
+            Events.ON_RENDER_TELEMETRY,
+            Events.ON_SPOTLIGHT_CHANGED,
+            Events.ON_CAPTURE_FORMAT_CHANGED,
+            Events.ON_LOCAL_VIDEO_RESUMED})
     public @interface Events {
         String ON_CAMERA_SWITCHED = "TwilioVideo.onCameraSwitched";
         String ON_VIDEO_CHANGED = "TwilioVideo.onVideoChanged";
@@ -180,10 +208,24 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
         String ON_STATS_RECEIVED = "TwilioVideo.onStatsReceived";
         String ON_NETWORK_QUALITY_LEVELS_CHANGED = "TwilioVideo.onNetworkQualityLevelsChanged";
         String ON_DOMINANT_SPEAKER_CHANGED = "TwilioVideo.onDominantSpeakerChanged";
+        String ON_EVENT_BATCH = "TwilioVideo.onEventBatch";
+        String ON_STATS_DELTA_RECEIVED = "TwilioVideo.onStatsDeltaReceived";
+        String ON_STATS_SUMMARY = "TwilioVideo.onStatsSummary";
+        String ON_DATATRACK_BINARY_MESSAGE_RECEIVED = "TwilioVideo.onDataTrackBinaryMessageReceived";
+        String ON_DATATRACK_MESSAGES_RECEIVED = "TwilioVideo.onDataTrackMessagesReceived";
+        String ON_DATATRACK_SEND_QUEUE_CHANGED = "TwilioVideo.onDataTrackSendQueueChanged";
+        String ON_HANDLES_ANNOUNCED = "TwilioVideo.onHandlesAnnounced";
+        String ON_RENDER_TELEMETRY = "TwilioVideo.onRenderTelemetry";
+        String ON_SPOTLIGHT_CHANGED = "TwilioVideo.onSpotlightChanged";
+        String ON_CAPTURE_FORMAT_CHANGED = "TwilioVideo.onCaptureFormatChanged";
+        String ON_LOCAL_VIDEO_RESUMED = "TwilioVideo.onLocalVideoResumed";
     }
 
     private final ReactContext context;
     private DeviceEventManagerModule.RCTDeviceEventEmitter eventEmitter;
+    private final EventDispatcher eventDispatcher;
+    private final EventHandleRegistry eventHandles =
+            new EventHandleRegistry(announcement -> pushEvent(ON_HANDLES_ANNOUNCED, announcement));
 
     /*
      * A Room represents communication between the client and one or more participants.
@@ -200,7 +242,35 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
     private static PatchedVideoView thumbnailVideoView;
     private static LocalVideoTrack localVideoTrack;
 
+    /*
+     * Subscribed remote video tracks by sid, and the remote views bound to them.
+     */
+    private static final VideoTrackRegistry videoTrackRegistry = new VideoTrackRegistry(
+            (trackSid, track, visible) -> track.setPriority(
+                    visible ? TwilioVideoModule.spotlight.getPriority(trackSid) : TrackPriority.LOW));
+    // Views following the dominant speaker, and the warm tracks of recent speakers
+    private static final SpotlightController spotlight = new SpotlightController(videoTrackRegistry);
+    private final VideoRendererPool rendererPool;
+    private final RenderBenchmark renderBenchmark;
+    private final FrameSnapshotter frameSnapshotter = new FrameSnapshotter();
+
     private static CameraCapturerCompat cameraCapturer;
+    // Stages of the last prepareLocalMedia and of the last connect
+    private final StageTimeline prepareTimeline = new StageTimeline();
+    private final StageTimeline joinTimeline = new StageTimeline();
+    // Mounted local previews, and whether the camera was opened for them rather than by the app
+    private int localPreviews = 0;
+    private boolean videoPreparedForPreview = false;
+    // Release or pause the local video track in the background
+    private final BackgroundVideoController backgroundVideo =
+            new BackgroundVideoController(event -> pushEvent(ON_LOCAL_VIDEO_RESUMED, event));
+    // Camera flips, reported once the new camera delivers frames
+    private final CameraSwitchController cameraSwitch = new CameraSwitchController((source, event) -> {
+        refreshCaptureFormats();
+        setThumbnailMirror();
+        pushEvent(ON_CAMERA_SWITCHED, event);
+    });
+    private final CaptureFormatEngine captureFormatEngine;
     private LocalAudioTrack localAudioTrack;
     private AudioManager audioManager;
     private AudioSwitch audioSwitch;
@@ -212,22 +282,88 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
 
     private LocalDataTrack localDataTrack;
 
+    // Direct buffers reused for outgoing binary messages
+    private final ByteBufferPool dataTrackBufferPool = new ByteBufferPool(4);
+    // Scratch for copying incoming binary messages, only touched on the data track message thread
+    private byte[] dataTrackReceiveScratch = new byte[0];
+
+    private final DataTrackMessageBatcher dataTrackMessageBatcher = new DataTrackMessageBatcher(
+            batch -> pushEvent(ON_DATATRACK_MESSAGES_RECEIVED, batch),
+            trackSid -> {
+                Pair<RemoteDataTrack, RemoteParticipant> dataTrackInfo = remoteDataTrackMap.get(trackSid);
+                return dataTrackInfo != null ? dataTrackInfo.second.getIdentity() : null;
+            });
+
+    private final DataTrackSendQueue dataTrackSendQueue = new DataTrackSendQueue(
+            state -> pushEvent(ON_DATATRACK_SEND_QUEUE_CHANGED, state, ON_DATATRACK_SEND_QUEUE_CHANGED),
+            dataTrackBufferPool);
+
+    // Only touched on the data track message thread
+    private final DataTrackChunkReassembler dataTrackChunkReassembler = new DataTrackChunkReassembler(
+            new DataTrackChunkReassembler.Listener() {
+                @Override
+                public void onStringMessage(String trackSid, String message) {
+                    onDataTrackStringMessage(trackSid, message);
+                }
+
+                @Override
+                public void onBinaryMessage(String trackSid, ByteBuffer message) {
+                    pushEvent(ON_DATATRACK_BINARY_MESSAGE_RECEIVED, buildDataTrackBinaryEvent(trackSid, message));
+                }
+            });
+
+    // Remote participants of the current room by sid, only touched on the main thread
+    private final Map<String, RemoteParticipant> remoteParticipants = new HashMap<>();
+
     // Map used to map remote data tracks to remote participants
     private final Map<String, Pair<RemoteDataTrack, RemoteParticipant>> remoteDataTrackMap =
             new HashMap<>();
 
-    private class RequestStatsTask extends TimerTask {
+    private final StatsScheduler statsScheduler = new StatsScheduler(() -> {
+        Room room = TwilioVideoModule.room;
+        if (room == null) {
+            return false;
+        }
+        room.getStats(TwilioVideoModule.this);
+        return true;
+    });
+
+    private final StatsDeltaEncoder statsDeltaEncoder = new StatsDeltaEncoder();
+    private final StatsAggregator statsAggregator =
+            new StatsAggregator(summary -> pushEvent(ON_STATS_SUMMARY, summary));
+    private volatile boolean deltaStatsEncoding = false;
+
+    private final Handler mainHandler;
+
+    // Samples the published camera track for the capture format engine while connected
+    private static final int CAPTURE_FORMAT_SAMPLE_INTERVAL_MS = 5000;
+    private final StatsListener captureFormatStatsListener = statsReports -> {
+        for (StatsReport report : statsReports) {
+            for (LocalVideoTrackStats stats : report.getLocalVideoTrackStats()) {
+                captureFormatEngine.onLocalVideoStats(stats);
+            }
+        }
+    };
+    private final Runnable captureFormatTick = new Runnable() {
         @Override
         public void run() {
-            if (room != null) {
-                room.getStats(TwilioVideoModule.this);
+            if (room != null && localVideoTrack != null) {
+                room.getStats(captureFormatStatsListener);
             }
+            mainHandler.postDelayed(this, CAPTURE_FORMAT_SAMPLE_INTERVAL_MS);
         }
-    }
-
-    private Timer requestStatsTimer = new Timer();
+    };
 
-    private final Handler mainHandler;
+    private int renderTelemetryIntervalMs = 0;
+    private final Runnable renderTelemetryTick = new Runnable() {
+        @Override
+        public void run() {
+            WritableMap event = new WritableNativeMap();
+            event.putArray("views", buildVideoViews(true));
+            pushEvent(ON_RENDER_TELEMETRY, event, ON_RENDER_TELEMETRY);
+            mainHandler.postDelayed(this, renderTelemetryIntervalMs);
+        }
+    };
 
     @NonNull
     @Override
@@ -239,9 +375,11 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
         return context;
     }
 
-    public TwilioVideoModule(ReactApplicationContext context) {
+    public TwilioVideoModule(ReactApplicationContext context, VideoRendererPool rendererPool) {
         super(context);
         this.context = context;
+        this.rendererPool = rendererPool;
+        this.renderBenchmark = new RenderBenchmark(rendererPool.getRenderThreadPool());
 
         // add lifecycle for onResume and on onPause
         context.addLifecycleEventListener(this);
@@ -267,8 +405,31 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
         // Create the local data track
         // localDataTrack = LocalDataTrack.create(this);
         localDataTrack = LocalDataTrack.create(context);
+        dataTrackSendQueue.setLocalDataTrack(localDataTrack);
 
         mainHandler = new Handler(Looper.getMainLooper());
+
+        // Enumerate the cameras now, off the connect path
+        CameraRegistry.get(context).warmUp();
+
+        eventDispatcher = new EventDispatcher(Events.ON_EVENT_BATCH, (name, data) -> {
+            if (eventEmitter != null) {
+                eventEmitter.emit(name, data);
+            }
+        });
+        spotlight.setListener(event -> pushEvent(ON_SPOTLIGHT_CHANGED, event));
+        captureFormatEngine = new CaptureFormatEngine(context, (format, reason) -> {
+            // A paused camera picks the new format up when it restarts
+            if (cameraCapturer != null && localVideoTrack != null && !backgroundVideo.isPaused()) {
+                cameraCapturer.changeCaptureFormat(format.width, format.height, format.fps);
+            }
+            WritableMap event = new WritableNativeMap();
+            event.putInt("width", format.width);
+            event.putInt("height", format.height);
+            event.putInt("frameRate", format.fps);
+            event.putString("reason", reason);
+            pushEvent(ON_CAPTURE_FORMAT_CHANGED, event, ON_CAPTURE_FORMAT_CHANGED);
+        });
     }
 
     @Override
@@ -281,7 +442,18 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
     // ===== SETUP =================================================================================
 
     private VideoFormat buildVideoFormat() {
-        return new VideoFormat(VideoDimensions.HD_720P_VIDEO_DIMENSIONS, 24);
+        return captureFormatEngine.getVideoFormat();
+    }
+
+    /*
+     * Rebuild the format ladder for the camera now in use.
+     */
+    @MainThread
+    private void refreshCaptureFormats() {
+        if (cameraCapturer != null) {
+            captureFormatEngine.setSupportedFormats(
+                    cameraCapturer.getSupportedFormats(cameraCapturer.getCameraSource()));
+        }
     }
 
     private CameraCapturerCompat createCameraCaputer(Context context, CameraCapturerCompat.Source cameraSource) {
@@ -292,21 +464,29 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
         }
     }
 
-    private boolean createLocalVideo(boolean enableVideo) {
-        // Share your camera
-        cameraCapturer = this.createCameraCaputer(getContext(), CameraCapturerCompat.Source.FRONT_CAMERA);
-        if (cameraCapturer == null) {
-            cameraCapturer = this.createCameraCaputer(getContext(), CameraCapturerCompat.Source.BACK_CAMERA);
-        }
+    @MainThread
+    private boolean createLocalVideo(boolean enableVideo, StageTimeline timeline) {
+        // Share your camera, the front one when there is one
+        long capturerStartMs = SystemClock.elapsedRealtime();
+        CameraRegistry cameraRegistry = CameraRegistry.get(getContext());
+        CameraCapturerCompat.Source source = cameraRegistry.getCamera(CameraCapturerCompat.Source.FRONT_CAMERA) != null
+                ? CameraCapturerCompat.Source.FRONT_CAMERA
+                : CameraCapturerCompat.Source.BACK_CAMERA;
+        cameraCapturer = cameraRegistry.getCamera(source) != null
+                ? this.createCameraCaputer(getContext(), source)
+                : null;
+        cameraRegistry.recordCapturerCreate(SystemClock.elapsedRealtime() - capturerStartMs);
         if (cameraCapturer == null) {
-            WritableMap event = new WritableNativeMap();
-            event.putString("error", "No camera is supported on this device");
-            pushEvent(ON_CONNECT_FAILURE, event);
             return false;
         }
+        timeline.mark("cameraCapturerCreated");
+        cameraSwitch.setCapturer(cameraCapturer);
+        refreshCaptureFormats();
+        captureFormatEngine.attach(getContext());
         localVideoTrack = LocalVideoTrack.create(getContext(), enableVideo, cameraCapturer, buildVideoFormat());
+        timeline.mark("videoTrackCreated");
         if (thumbnailVideoView != null && localVideoTrack != null) {
-            localVideoTrack.addSink(thumbnailVideoView);
+            PatchedVideoView.addSink(localVideoTrack, thumbnailVideoView);
         }
         setThumbnailMirror();
         return true;
@@ -317,20 +497,31 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
 
     @Override
     public void onHostResume() {
+        statsScheduler.resume();
+
         /*
          * In case it wasn't set.
          */
         if (context.getCurrentActivity() != null) {
+            long resumedAtMs = SystemClock.elapsedRealtime();
+            /*
+             * A track paused in the background is still published, restarting capture is enough.
+             */
+            boolean resumedPaused = backgroundVideo.resume(localVideoTrack, cameraCapturer, buildVideoFormat());
+
             /*
              * If the local video track was released when the app was put in the background, recreate.
              */
             if (cameraCapturer != null && localVideoTrack == null) {
                 localVideoTrack = LocalVideoTrack.create(getContext(), true, cameraCapturer, buildVideoFormat());
+                if (localVideoTrack != null) {
+                    backgroundVideo.onRecreated(localVideoTrack, resumedAtMs);
+                }
             }
 
-            if (localVideoTrack != null) {
+            if (localVideoTrack != null && !resumedPaused) {
                 if (thumbnailVideoView != null) {
-                    localVideoTrack.addSink(thumbnailVideoView);
+                    PatchedVideoView.addSink(localVideoTrack, thumbnailVideoView);
                 }
 
                 /*
@@ -348,11 +539,21 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
 
     @Override
     public void onHostPause() {
+        statsScheduler.pause();
+
+        /*
+         * In pause mode only stop the camera, keeping the track and its publication.
+         */
+        if (localVideoTrack != null && backgroundVideo.pause(localVideoTrack, cameraCapturer)) {
+            return;
+        }
+
         /*
          * Release the local video track before going in the background. This ensures that the
          * camera can be used by other applications while this app is in the background.
          */
         if (localVideoTrack != null) {
+            backgroundVideo.clear();
             /*
              * If this local video track is being shared in a Room, remove from local
              * participant before releasing the video track. Participants will be notified that
@@ -374,6 +575,8 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
          * ensure any memory allocated to the Room resource is freed.
          */
         cancelStatsRequest();
+        statsAggregator.stop();
+        eventDispatcher.clear();
 
         if (room != null && room.getState() != Room.State.DISCONNECTED) {
             room.disconnect();
@@ -383,6 +586,7 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
         /*
          * Release the local media ensuring any memory allocated to audio or video is freed.
          */
+        backgroundVideo.clear();
         if (localVideoTrack != null) {
             localVideoTrack.release();
             localVideoTrack = null;
@@ -393,6 +597,7 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
             localAudioTrack = null;
         }
 
+        dataTrackSendQueue.release();
         quitDataTrackThread();
     }
 
@@ -404,6 +609,19 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
         cameraCapturer = null;
     }
 
+    /*
+     * The module is going away with its React instance, for example on a JS reload. Quit the
+     * threads it owns so they do not outlive it.
+     */
+    @Override
+    public void onCatalystInstanceDestroy() {
+        super.onCatalystInstanceDestroy();
+        statsScheduler.release();
+        statsAggregator.release();
+        dataTrackSendQueue.release();
+        rendererPool.getRenderThreadPool().quitThreads();
+    }
+
     // ====== CONNECTING ===========================================================================
 
     @ReactMethod
@@ -418,23 +636,140 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
         this.enableRemoteAudio = enableAudio;
         this.enableNetworkQualityReporting = enableNetworkQualityReporting;
 
-        mainHandler.post(() -> {
+        joinTimeline.start(SystemClock.elapsedRealtime());
+        runWithCameraFormats(enableVideo, () -> {
+            joinTimeline.mark("connectStarted");
             createDataTrackThread();
 
-            // Share your microphone
-            localAudioTrack = LocalAudioTrack.create(getContext(), enableAudio);
+            // Share your microphone, unless prepareLocalMedia already did
+            if (localAudioTrack == null) {
+                localAudioTrack = LocalAudioTrack.create(getContext(), enableAudio);
+                joinTimeline.mark("audioTrackCreated");
+            } else {
+                localAudioTrack.enable(enableAudio);
+            }
 
+            videoPreparedForPreview = false;
+            if (!enableVideo && cameraCapturer != null) {
+                // A mounted preview opened the camera, it must not be published
+                releaseLocalVideo();
+            }
             if (enableVideo && cameraCapturer == null) {
-                boolean createVideoStatus = createLocalVideo(enableVideo);
+                boolean createVideoStatus = createLocalVideo(enableVideo, joinTimeline);
                 if (!createVideoStatus) {
+                    WritableMap event = new WritableNativeMap();
+                    event.putString("error", "No camera is supported on this device");
+                    pushEvent(ON_CONNECT_FAILURE, event);
                     // No need to connect to room if video creation failed
                     return;
                 }
             }
+            joinTimeline.mark("localMediaReady");
             connectToRoom(options);
         });
     }
 
+    /*
+     * Create and start the local tracks ahead of connect, which then only attaches them.
+     * Options: enableAudio and enableVideo, both true by default. Resolves with the stages
+     * of the preparation.
+     */
+    @ReactMethod
+    public void prepareLocalMedia(@Nullable ReadableMap options, Promise promise) {
+        final boolean enableAudio = options == null || !options.hasKey("enableAudio") || options.getBoolean("enableAudio");
+        final boolean enableVideo = options == null || !options.hasKey("enableVideo") || options.getBoolean("enableVideo");
+        final long requestedAtMs = SystemClock.elapsedRealtime();
+        runWithCameraFormats(enableVideo, () -> {
+            // The app asked for the camera, it stays open when the previews go away
+            videoPreparedForPreview = false;
+            if (!prepareLocalMedia(enableAudio, enableVideo, requestedAtMs)) {
+                promise.reject("E_NO_CAMERA", "No camera is supported on this device");
+                return;
+            }
+            WritableMap result = new WritableNativeMap();
+            result.putBoolean("audio", localAudioTrack != null);
+            result.putBoolean("video", localVideoTrack != null);
+            result.putMap("timeline", prepareTimeline.toMap());
+            promise.resolve(result);
+        });
+    }
+
+    /*
+     * A mounted local preview prepares the camera only, the microphone is not opened before
+     * the app asks for it.
+     */
+    void prepareLocalMediaForPreview() {
+        final long requestedAtMs = SystemClock.elapsedRealtime();
+        mainHandler.post(() -> localPreviews++);
+        runWithCameraFormats(true, () -> {
+            // The preview may have been dropped while the formats were read
+            if (localPreviews > 0 && room == null && cameraCapturer == null) {
+                prepareLocalMedia(false, true, requestedAtMs);
+                videoPreparedForPreview = cameraCapturer != null;
+            }
+        });
+    }
+
+    /*
+     * Run the action on the main thread, once the camera formats are read when it needs the
+     * camera. On Camera1 devices reading them opens every camera, so it is done on a background
+     * thread only when video is first asked for, never at startup.
+     */
+    private void runWithCameraFormats(boolean needsCamera, Runnable action) {
+        if (!needsCamera) {
+            mainHandler.post(action);
+            return;
+        }
+        CameraRegistry.get(getContext()).loadFormats(() -> mainHandler.post(action));
+    }
+
+    /*
+     * The camera a preview opened is closed again once the last preview is gone, unless a room
+     * or the app took it over.
+     */
+    void onLocalPreviewDropped() {
+        mainHandler.post(() -> {
+            localPreviews = Math.max(0, localPreviews - 1);
+            if (localPreviews == 0 && videoPreparedForPreview && room == null) {
+                releaseLocalVideo();
+            }
+        });
+    }
+
+    @MainThread
+    private void releaseLocalVideo() {
+        videoPreparedForPreview = false;
+        backgroundVideo.clear();
+        if (localVideoTrack != null) {
+            localVideoTrack.release();
+            localVideoTrack = null;
+        }
+        cameraCapturer = null;
+        cameraSwitch.setCapturer(null);
+        captureFormatEngine.detach();
+    }
+
+    @MainThread
+    private boolean prepareLocalMedia(boolean enableAudio, boolean enableVideo, long requestedAtMs) {
+        prepareTimeline.start(requestedAtMs);
+        if (enableAudio && localAudioTrack == null) {
+            localAudioTrack = LocalAudioTrack.create(getContext(), true);
+            prepareTimeline.mark("audioTrackCreated");
+        }
+        if (enableVideo && cameraCapturer == null) {
+            if (!createLocalVideo(true, prepareTimeline)) {
+                return false;
+            }
+            // Without camera permission yet, leave the camera for connect to try again
+            if (localVideoTrack == null) {
+                cameraCapturer = null;
+                cameraSwitch.setCapturer(null);
+            }
+        }
+        prepareTimeline.mark("localMediaReady");
+        return true;
+    }
+
     @MainThread
     private void connectToRoom(ReadableMap options) {
         boolean enableAudio = options.getBoolean("enableAudio");
@@ -494,6 +829,7 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
          }
 
         room = Video.connect(getContext(), connectOptionsBuilder.build(), roomListener());
+        joinTimeline.mark("roomConnecting");
     }
 
     @MainThread
@@ -516,6 +852,7 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
         mainHandler.post(() -> {
             quitDataTrackThread();
             cancelStatsRequest();
+            dataTrackSendQueue.clear();
 
             if (room != null) {
                 room.disconnect();
@@ -524,6 +861,7 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
                 localAudioTrack.release();
                 localAudioTrack = null;
             }
+            backgroundVideo.clear();
             if (localVideoTrack != null) {
                 localVideoTrack.release();
                 localVideoTrack = null;
@@ -532,6 +870,8 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
             if (cameraCapturer != null) {
                 cameraCapturer = null;
             }
+            cameraSwitch.setCapturer(null);
+            captureFormatEngine.detach();
         });
     }
 
@@ -543,6 +883,72 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
         }
     }
 
+    /*
+     * Queue a string on the outbound pipeline. Priority is "high", "normal" or "bulk"; with
+     * chunking enabled strings above the data track message limit are chunked.
+     */
+    @ReactMethod
+    public void enqueueString(String message, String priority) {
+        dataTrackSendQueue.enqueueString(message, DataTrackSendQueue.parsePriority(priority));
+    }
+
+    /*
+     * Queue a base64 encoded binary payload on the outbound pipeline, sent as raw bytes unless
+     * it is chunked.
+     */
+    @ReactMethod
+    public void enqueueBinary(String base64, String priority) {
+        dataTrackSendQueue.enqueueBinary(Base64.decode(base64, Base64.NO_WRAP),
+                DataTrackSendQueue.parsePriority(priority));
+    }
+
+    /*
+     * Chunk queued messages above the data track message limit. Only Android receivers using
+     * this module reassemble them, so enable it when every peer is one.
+     */
+    @ReactMethod
+    public void setDataTrackChunkingEnabled(boolean enabled) {
+        dataTrackSendQueue.setChunkingEnabled(enabled);
+    }
+
+    /*
+     * ON_DATATRACK_SEND_QUEUE_CHANGED fires when the queued bytes cross this mark, and again
+     * when they drop below half of it.
+     */
+    @ReactMethod
+    public void setDataTrackSendHighWaterMark(double bytes) {
+        dataTrackSendQueue.setHighWaterMark((long) bytes);
+    }
+
+    /*
+     * When enabled incoming string messages are delivered as one ON_DATATRACK_MESSAGES_RECEIVED
+     * array every flushIntervalMs, or as soon as maxBatchSize messages are buffered.
+     */
+    @ReactMethod
+    public void setDataTrackMessageBatching(boolean enabled, int flushIntervalMs, int maxBatchSize) {
+        dataTrackMessageBatcher.configure(enabled, flushIntervalMs, maxBatchSize);
+    }
+
+    /*
+     * The bridge can only carry strings, so the payload arrives base64 encoded and goes on the
+     * wire as raw binary.
+     */
+    @ReactMethod
+    public void sendBinary(String base64) {
+        if (localDataTrack == null) {
+            return;
+        }
+        byte[] bytes = Base64.decode(base64, Base64.NO_WRAP);
+        ByteBuffer buffer = dataTrackBufferPool.acquire(bytes.length);
+        buffer.put(bytes);
+        buffer.flip();
+        try {
+            localDataTrack.send(buffer);
+        } finally {
+            dataTrackBufferPool.release(buffer);
+        }
+    }
+
     // ===== BUTTON LISTENERS ======================================================================
     @MainThread
     private static void setThumbnailMirror() {
@@ -554,17 +960,13 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
         }
     }
 
+    /*
+     * ON_CAMERA_SWITCHED follows once the new camera delivers frames. Taps during a switch
+     * are coalesced into it.
+     */
     @ReactMethod
     public void flipCamera() {
-        mainHandler.post(() -> {
-            if (cameraCapturer != null) {
-                cameraCapturer.switchCamera();
-                final boolean isBackCamera = cameraCapturer.getCameraSource() == CameraCapturerCompat.Source.BACK_CAMERA;
-                WritableMap event = new WritableNativeMap();
-                event.putBoolean("isBackCamera", isBackCamera);
-                pushEvent(ON_CAMERA_SWITCHED, event);
-            }
-        });
+        mainHandler.post(cameraSwitch::flip);
     }
 
     @ReactMethod
@@ -621,19 +1023,54 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
     public void setRemoteAudioEnabled(String participantSid, boolean enabled) {
         mainHandler.post(() -> {
             if (room != null) {
-                for (RemoteParticipant rp : room.getRemoteParticipants()) {
-                    if (rp.getSid().equals(participantSid)) {
-                        for (AudioTrackPublication at : rp.getAudioTracks()) {
-                            if (at.getAudioTrack() != null) {
-                                ((RemoteAudioTrack) at.getAudioTrack()).enablePlayback(enabled);
-                            }
-                        }
+                RemoteParticipant rp = remoteParticipants.get(participantSid);
+                if (rp != null) {
+                    setRemoteAudioPlayback(rp, enabled);
+                }
+            }
+        });
+    }
+
+    /*
+     * Apply enablePlayback to the given participants, or with allExcept to every remote
+     * participant but them, in a single main thread post.
+     */
+    @ReactMethod
+    public void setRemoteAudioEnabledBulk(ReadableArray participantSids, boolean enabled, boolean allExcept) {
+        final Set<String> sids = new HashSet<>();
+        for (int i = 0; i < participantSids.size(); i++) {
+            sids.add(participantSids.getString(i));
+        }
+        mainHandler.post(() -> {
+            if (room == null) {
+                return;
+            }
+            if (allExcept) {
+                for (Map.Entry<String, RemoteParticipant> entry : remoteParticipants.entrySet()) {
+                    if (!sids.contains(entry.getKey())) {
+                        setRemoteAudioPlayback(entry.getValue(), enabled);
+                    }
+                }
+            } else {
+                for (String sid : sids) {
+                    RemoteParticipant rp = remoteParticipants.get(sid);
+                    if (rp != null) {
+                        setRemoteAudioPlayback(rp, enabled);
                     }
                 }
             }
         });
     }
 
+    @MainThread
+    private static void setRemoteAudioPlayback(RemoteParticipant rp, boolean enabled) {
+        for (AudioTrackPublication at : rp.getAudioTracks()) {
+            if (at.getAudioTrack() != null) {
+                ((RemoteAudioTrack) at.getAudioTrack()).enablePlayback(enabled);
+            }
+        }
+    }
+
     private void convertBaseTrackStats(BaseTrackStats bs, WritableMap result) {
         result.putString("codec", bs.codec);
         result.putInt("packetsLost", bs.packetsLost);
@@ -697,26 +1134,211 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
 
     @ReactMethod
     public void getStats() {
-        if (room != null) {
+        // A request already in flight will deliver fresh stats, no need to ask twice
+        if (room != null && !statsScheduler.mergeIfInFlight()) {
             room.getStats(this);
         }
     }
 
     @ReactMethod
     public void requestStats(int intervalMs) {
-        if (requestStatsTimer != null) {
-            requestStatsTimer.cancel();
-        }
-        requestStatsTimer = new Timer();
-        requestStatsTimer.scheduleAtFixedRate(new RequestStatsTask(), 0, intervalMs);
+        statsScheduler.start(intervalMs);
     }
 
     @ReactMethod
     public void cancelStatsRequest() {
-        if (requestStatsTimer != null) {
-            requestStatsTimer.cancel();
-            requestStatsTimer = null;
+        statsScheduler.stop();
+    }
+
+    /*
+     * Lets the scheduler stretch its interval while JS is not listening for stats.
+     */
+    @ReactMethod
+    public void setStatsListenerAttached(boolean attached) {
+        statsScheduler.setListenerAttached(attached);
+    }
+
+    /*
+     * "full" (default) sends the complete nested stats tree on ON_STATS_RECEIVED, "delta" sends
+     * flat per-track records with only the changed fields on ON_STATS_DELTA_RECEIVED.
+     */
+    @ReactMethod
+    public void setStatsEncoding(String encoding) {
+        deltaStatsEncoding = STATS_ENCODING_DELTA.equals(encoding);
+        statsDeltaEncoder.reset();
+    }
+
+    /*
+     * Aggregate every stats report over a rolling window of windowSize reports per track.
+     * A positive summaryIntervalMs also emits ON_STATS_SUMMARY at that cadence.
+     */
+    @ReactMethod
+    public void startStatsAggregation(int windowSize, int summaryIntervalMs) {
+        statsAggregator.start(windowSize, summaryIntervalMs);
+    }
+
+    @ReactMethod
+    public void stopStatsAggregation() {
+        statsAggregator.stop();
+    }
+
+    @ReactMethod
+    public void getStatsSummary(Promise promise) {
+        statsAggregator.querySummary(promise::resolve);
+    }
+
+    /*
+     * Frame counts of every preview on screen, keyed to the track each one renders.
+     */
+    @ReactMethod
+    public void getVideoViewStats(Promise promise) {
+        promise.resolve(buildVideoViews(false));
+    }
+
+    /*
+     * Render telemetry of every preview on screen: time to first frame, fps, frame gap
+     * histogram, resolution changes and stalls.
+     */
+    @ReactMethod
+    public void getRenderTelemetry(Promise promise) {
+        promise.resolve(buildVideoViews(true));
+    }
+
+    /*
+     * Emit the render telemetry on ON_RENDER_TELEMETRY every intervalMs, 0 stops it.
+     */
+    @ReactMethod
+    public void setRenderTelemetryInterval(int intervalMs) {
+        mainHandler.post(() -> {
+            mainHandler.removeCallbacks(renderTelemetryTick);
+            renderTelemetryIntervalMs = intervalMs;
+            if (intervalMs > 0) {
+                mainHandler.postDelayed(renderTelemetryTick, intervalMs);
+            }
+        });
+    }
+
+    private WritableArray buildVideoViews(boolean telemetry) {
+        WritableArray views = new WritableNativeArray();
+        for (PatchedVideoView renderer : rendererPool.getRenderersInUse()) {
+            WritableMap view = telemetry ? renderer.getTelemetry().snapshot() : renderer.getFrameCounts();
+            if (renderer == thumbnailVideoView) {
+                view.putBoolean("local", true);
+            } else {
+                view.putBoolean("local", false);
+                view.putString("trackSid", videoTrackRegistry.getBoundTrackSid(renderer));
+            }
+            views.pushMap(view);
         }
+        return views;
+    }
+
+    /*
+     * Measure CPU, memory and frame pacing of the current previews over durationMs.
+     */
+    @ReactMethod
+    public void runRenderBenchmark(int durationMs, final Promise promise) {
+        renderBenchmark.run(durationMs, new RenderBenchmark.Listener() {
+            @Override
+            public void onResult(WritableMap result) {
+                promise.resolve(result);
+            }
+
+            @Override
+            public void onError(String message) {
+                promise.reject("E_RENDER_BENCHMARK", message);
+            }
+        });
+    }
+
+    /*
+     * Crop and scale frames down to the size of their view before uploading them.
+     */
+    @ReactMethod
+    public void setRenderDownscalingEnabled(boolean enabled) {
+        rendererPool.getRenderThreadPool().setDownscalingEnabled(enabled);
+    }
+
+    /*
+     * Run the render benchmark without and then with downscaling, resolving with both results.
+     */
+    @ReactMethod
+    public void runDownscaleBenchmark(int durationMs, final Promise promise) {
+        renderBenchmark.compareDownscaling(durationMs, new RenderBenchmark.Listener() {
+            @Override
+            public void onResult(WritableMap result) {
+                promise.resolve(result);
+            }
+
+            @Override
+            public void onError(String message) {
+                promise.reject("E_RENDER_BENCHMARK", message);
+            }
+        });
+    }
+
+    /*
+     * Still image of the next frame of a remote track, or of the local track when trackSid is
+     * null, as a base64 JPEG. Options: maxWidth and maxHeight to scale it down, quality 0-100.
+     */
+    @ReactMethod
+    public void takeSnapshot(@Nullable final String trackSid, @Nullable ReadableMap options, final Promise promise) {
+        final int maxWidth = options != null && options.hasKey("maxWidth") ? options.getInt("maxWidth") : 0;
+        final int maxHeight = options != null && options.hasKey("maxHeight") ? options.getInt("maxHeight") : 0;
+        final int quality = options != null && options.hasKey("quality")
+                ? Math.max(0, Math.min(100, options.getInt("quality"))) : 80;
+        mainHandler.post(() -> {
+            VideoTrack track = trackSid == null || trackSid.isEmpty()
+                    ? localVideoTrack : videoTrackRegistry.getTrack(trackSid);
+            if (track == null) {
+                promise.reject("E_SNAPSHOT_NO_TRACK", "No video track for " + (trackSid != null ? trackSid : "local"));
+                return;
+            }
+            frameSnapshotter.capture(track, maxWidth, maxHeight, quality, new FrameSnapshotter.Callback() {
+                @Override
+                public void onSnapshot(WritableMap snapshot) {
+                    promise.resolve(snapshot);
+                }
+
+                @Override
+                public void onError(String code, String message) {
+                    promise.reject(code, message);
+                }
+            });
+        });
+    }
+
+    /*
+     * Spotlight views follow the dominant speaker once enabled. Options: holdMs, how long a
+     * speaker has to stay dominant before the spotlight moves, and warmCount, how many recent
+     * speakers are kept decoding at low priority.
+     */
+    @ReactMethod
+    public void configureSpotlight(ReadableMap options) {
+        final boolean enabled = !options.hasKey("enabled") || options.getBoolean("enabled");
+        final int holdMs = options.hasKey("holdMs") ? options.getInt("holdMs") : SpotlightController.DEFAULT_HOLD_MS;
+        final int warmCount = options.hasKey("warmCount")
+                ? options.getInt("warmCount") : SpotlightController.DEFAULT_WARM_COUNT;
+        mainHandler.post(() -> spotlight.configure(enabled, holdMs, warmCount));
+    }
+
+    /*
+     * When enabled (default) the camera capture format steps along a ladder of supported
+     * formats following encoder load, network quality and thermal status. When disabled it
+     * stays at the starting format of the device class.
+     */
+    @ReactMethod
+    public void setAdaptiveCaptureEnabled(boolean enabled) {
+        mainHandler.post(() -> captureFormatEngine.setAdaptive(enabled));
+    }
+
+    /*
+     * "release" (default) releases the local video track in the background so other apps can
+     * use the camera, "pause" only stops the camera and keeps the track published.
+     */
+    @ReactMethod
+    public void setBackgroundVideoMode(String mode) {
+        mainHandler.post(() -> backgroundVideo.setMode(mode));
     }
 
     @ReactMethod
@@ -724,6 +1346,52 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
         WebRtcAudioManager.setBlacklistDeviceForOpenSLESUsage(true);
     }
 
+    /*
+     * When enabled events are queued natively, superseded ones are merged and the rest are
+     * delivered once per frame inside a single ON_EVENT_BATCH event.
+     */
+    @ReactMethod
+    public void setEventBatchingEnabled(boolean enabled) {
+        eventDispatcher.setBatchingEnabled(enabled);
+    }
+
+    /*
+     * When enabled participants and tracks are announced once on ON_HANDLES_ANNOUNCED and
+     * events refer to them by handle.
+     */
+    @ReactMethod
+    public void setCompactEventsEnabled(boolean enabled) {
+        eventHandles.setEnabled(enabled);
+    }
+
+    @ReactMethod
+    public void getMetrics(Promise promise) {
+        WritableMap metrics = new WritableNativeMap();
+        metrics.putMap("eventDispatcher", eventDispatcher.getMetrics());
+        metrics.putMap("statsScheduler", statsScheduler.getMetrics());
+        metrics.putMap("videoTrackRegistry", videoTrackRegistry.getMetrics());
+        metrics.putMap("rendererPool", rendererPool.getMetrics());
+        metrics.putMap("videoLayout", RNVideoViewGroup.getLayoutMetrics());
+        metrics.putMap("renderThreads", rendererPool.getRenderThreadPool().getMetrics());
+        metrics.putMap("snapshots", frameSnapshotter.getMetrics());
+        metrics.putMap("spotlight", spotlight.getMetrics());
+        metrics.putMap("captureFormat", captureFormatEngine.getMetrics());
+        metrics.putMap("cameraRegistry", CameraRegistry.get(getContext()).getMetrics());
+        metrics.putMap("prepareTimeline", prepareTimeline.toMap());
+        metrics.putMap("backgroundVideo", backgroundVideo.getMetrics());
+        metrics.putMap("cameraSwitch", cameraSwitch.getMetrics());
+        metrics.putMap("joinTimeline", joinTimeline.toMap());
+
+        WritableMap dataTrack = new WritableNativeMap();
+        dataTrack.putDouble("bufferPoolHits", dataTrackBufferPool.getHitCount());
+        dataTrack.putDouble("bufferPoolMisses", dataTrackBufferPool.getMissCount());
+        dataTrack.putMap("inboundBatching", dataTrackMessageBatcher.getMetrics());
+        dataTrack.putMap("sendQueue", dataTrackSendQueue.getMetrics());
+        dataTrack.putDouble("droppedChunkedMessages", dataTrackChunkReassembler.getDroppedMessages());
+        metrics.putMap("dataTrack", dataTrack);
+        promise.resolve(metrics);
+    }
+
     // ====== ROOM LISTENER ========================================================================
 
     /*
@@ -748,8 +1416,11 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
                 participantsArray.pushMap(buildParticipant(localParticipant));
                 event.putArray("participants", participantsArray);
 
+                joinTimeline.mark("connected");
+                event.putMap("joinTimeline", joinTimeline.toMap());
                 pushEvent(ON_CONNECTED, event);
-
+                mainHandler.removeCallbacks(captureFormatTick);
+                mainHandler.postDelayed(captureFormatTick, CAPTURE_FORMAT_SAMPLE_INTERVAL_MS);
 
                 //There is not .publish it's publishTrack
                 localParticipant.publishTrack(localDataTrack);
@@ -810,6 +1481,12 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
 
 
                 TwilioVideoModule.room = null;
+                remoteParticipants.clear();
+                eventHandles.clear();
+                videoTrackRegistry.clearTracks();
+                spotlight.reset();
+                mainHandler.removeCallbacks(captureFormatTick);
+                statsDeltaEncoder.reset();
                 // Only reinitialize the UI if disconnect was not called from onDestroy()
                 if (!disconnectedFromOnDestroy) {
                     setAudioFocus(false);
@@ -843,6 +1520,7 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
                 event.putMap("participant", buildParticipant(remoteParticipant));
 
                 pushEvent(ON_DOMINANT_SPEAKER_CHANGED, event);
+                spotlight.onDominantSpeakerChanged(remoteParticipant);
             }
         };
     }
@@ -890,8 +1568,11 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
 
                 // Twilio SDK defines Enum 0 as UNKNOWN and 1 as Quality ZERO, so we subtract one to get the correct quality level as an integer
                 event.putInt("quality", networkQualityLevel.ordinal() - 1);
+                statsScheduler.setNetworkQualityLevel(networkQualityLevel.ordinal() - 1);
+                captureFormatEngine.onNetworkQualityLevel(networkQualityLevel.ordinal() - 1);
 
-                pushEvent(ON_NETWORK_QUALITY_LEVELS_CHANGED, event);
+                pushEvent(ON_NETWORK_QUALITY_LEVELS_CHANGED, event,
+                        ON_NETWORK_QUALITY_LEVELS_CHANGED + localParticipant.getSid());
             }
         };
     }
@@ -900,6 +1581,7 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
      * Called when participant joins the room
      */
     private void addParticipant(Room room, RemoteParticipant remoteParticipant) {
+        remoteParticipants.put(remoteParticipant.getSid(), remoteParticipant);
 
         WritableMap event = new WritableNativeMap();
         event.putString("roomName", room.getName());
@@ -930,6 +1612,8 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
      * Called when participant leaves the room
      */
     private void removeParticipant(Room room, RemoteParticipant participant) {
+        remoteParticipants.remove(participant.getSid());
+        spotlight.onParticipantDisconnected(participant);
         WritableMap event = new WritableNativeMap();
         event.putString("roomName", room.getName());
         event.putString("roomSid", room.getSid());
@@ -946,6 +1630,7 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
 
     private void removeRemoteDataTrack(RemoteParticipant remoteParticipant, RemoteDataTrack remoteDataTrack) {
         remoteDataTrackMap.remove(remoteDataTrack.getSid());
+        dataTrackChunkReassembler.removeTrack(remoteDataTrack.getSid());
     }
 
     // ====== MEDIA LISTENER =======================================================================
@@ -1013,11 +1698,14 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
 
             @Override
             public void onVideoTrackSubscribed(RemoteParticipant participant, RemoteVideoTrackPublication publication, RemoteVideoTrack videoTrack) {
+                videoTrackRegistry.onTrackSubscribed(publication.getTrackSid(), videoTrack);
+                spotlight.onTrackSubscribed(publication.getTrackSid());
                 addParticipantVideo(participant, publication);
             }
 
             @Override
             public void onVideoTrackUnsubscribed(RemoteParticipant participant, RemoteVideoTrackPublication publication, RemoteVideoTrack videoTrack) {
+                videoTrackRegistry.onTrackUnsubscribed(publication.getTrackSid(), videoTrack);
                 removeParticipantVideo(participant, publication);
             }
 
@@ -1041,25 +1729,25 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
             public void onAudioTrackEnabled(RemoteParticipant participant, RemoteAudioTrackPublication publication) {//                Log.i(TAG, "onAudioTrackEnabled");
 //                publication.getRemoteAudioTrack().enablePlayback(false);
                 WritableMap event = buildParticipantVideoEvent(participant, publication);
-                pushEvent(ON_PARTICIPANT_ENABLED_AUDIO_TRACK, event);
+                pushEvent(ON_PARTICIPANT_ENABLED_AUDIO_TRACK, event, trackEnabledKey(publication));
             }
 
             @Override
             public void onAudioTrackDisabled(RemoteParticipant participant, RemoteAudioTrackPublication publication) {
                 WritableMap event = buildParticipantVideoEvent(participant, publication);
-                pushEvent(ON_PARTICIPANT_DISABLED_AUDIO_TRACK, event);
+                pushEvent(ON_PARTICIPANT_DISABLED_AUDIO_TRACK, event, trackEnabledKey(publication));
             }
 
             @Override
             public void onVideoTrackEnabled(RemoteParticipant participant, RemoteVideoTrackPublication publication) {
                 WritableMap event = buildParticipantVideoEvent(participant, publication);
-                pushEvent(ON_PARTICIPANT_ENABLED_VIDEO_TRACK, event);
+                pushEvent(ON_PARTICIPANT_ENABLED_VIDEO_TRACK, event, trackEnabledKey(publication));
             }
 
             @Override
             public void onVideoTrackDisabled(RemoteParticipant participant, RemoteVideoTrackPublication publication) {
                 WritableMap event = buildParticipantVideoEvent(participant, publication);
-                pushEvent(ON_PARTICIPANT_DISABLED_VIDEO_TRACK, event);
+                pushEvent(ON_PARTICIPANT_DISABLED_VIDEO_TRACK, event, trackEnabledKey(publication));
             }
 
             @Override
@@ -1071,7 +1759,8 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
                 // Twilio SDK defines Enum 0 as UNKNOWN and 1 as Quality ZERO, so we subtract one to get the correct quality level as an integer
                 event.putInt("quality", networkQualityLevel.ordinal() - 1);
 
-                pushEvent(ON_NETWORK_QUALITY_LEVELS_CHANGED, event);
+                pushEvent(ON_NETWORK_QUALITY_LEVELS_CHANGED, event,
+                        ON_NETWORK_QUALITY_LEVELS_CHANGED + remoteParticipant.getSid());
             }
         };
     }
@@ -1081,47 +1770,48 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
             return null;
         }
         WritableMap participantMap = new WritableNativeMap();
+        Integer handle = eventHandles.isEnabled() ? eventHandles.participantHandle(participant) : null;
+        if (handle != null) {
+            participantMap.putInt("handle", handle);
+            return participantMap;
+        }
         participantMap.putString("identity", participant.getIdentity());
         participantMap.putString("sid", participant.getSid());
         return participantMap;
     }
 
+    private WritableMap buildTrack(TrackPublication publication) {
+        WritableMap trackMap = new WritableNativeMap();
+        Integer handle = eventHandles.isEnabled() ? eventHandles.trackHandle(publication) : null;
+        if (handle != null) {
+            trackMap.putInt("handle", handle);
+        } else {
+            trackMap.putString("trackSid", publication.getTrackSid());
+            trackMap.putString("trackName", publication.getTrackName());
+        }
+        trackMap.putBoolean("enabled", publication.isTrackEnabled());
+        return trackMap;
+    }
 
     private WritableMap buildParticipantDataEvent(Participant participant) {
-        WritableMap participantMap = buildParticipant(participant);
-        WritableMap participantMap2 = buildParticipant(participant);
-
         WritableMap event = new WritableNativeMap();
-        event.putMap("participant", participantMap);
-        event.putMap("track", participantMap2);
+        event.putMap("participant", buildParticipant(participant));
+        // Kept for compatibility, the track of a data event has always described the participant
+        event.putMap("track", buildParticipant(participant));
         return event;
     }
 
     private WritableMap buildParticipantVideoEvent(Participant participant, TrackPublication publication) {
-        WritableMap participantMap = buildParticipant(participant);
-
-        WritableMap trackMap = new WritableNativeMap();
-        trackMap.putString("trackSid", publication.getTrackSid());
-        trackMap.putString("trackName", publication.getTrackName());
-        trackMap.putBoolean("enabled", publication.isTrackEnabled());
-
         WritableMap event = new WritableNativeMap();
-        event.putMap("participant", participantMap);
-        event.putMap("track", trackMap);
+        event.putMap("participant", buildParticipant(participant));
+        event.putMap("track", buildTrack(publication));
         return event;
     }
 
     private WritableMap buildTrackSubscriptionFailedEvent(Participant participant, TrackPublication publication, TwilioException twilioException) {
-        WritableMap participantMap = buildParticipant(participant);
-
-        WritableMap trackMap = new WritableNativeMap();
-        trackMap.putString("trackSid", publication.getTrackSid());
-        trackMap.putString("trackName", publication.getTrackName());
-        trackMap.putBoolean("enabled", publication.isTrackEnabled());
-
         WritableMap event = new WritableNativeMap();
-        event.putMap("participant", participantMap);
-        event.putMap("track", trackMap);
+        event.putMap("participant", buildParticipant(participant));
+        event.putMap("track", buildTrack(publication));
 
         WritableMap error = new WritableNativeMap();
         error.putString("message", twilioException.getMessage());
@@ -1131,8 +1821,8 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
         return event;
     }
 
-    private WritableMap buildDataTrackEvent(RemoteDataTrack remoteDataTrack, String message) {
-        Pair<RemoteDataTrack, RemoteParticipant> dataTrackInfo = remoteDataTrackMap.get(remoteDataTrack.getSid());
+    private WritableMap buildDataTrackEvent(String trackSid, String message) {
+        Pair<RemoteDataTrack, RemoteParticipant> dataTrackInfo = remoteDataTrackMap.get(trackSid);
         String senderId = dataTrackInfo != null ? dataTrackInfo.second.getIdentity() : null;
         WritableMap event = new WritableNativeMap();
         event.putString("message", message);
@@ -1140,6 +1830,29 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
         return event;
     }
 
+    private WritableMap buildDataTrackBinaryEvent(String trackSid, ByteBuffer message) {
+        Pair<RemoteDataTrack, RemoteParticipant> dataTrackInfo = remoteDataTrackMap.get(trackSid);
+        String senderId = dataTrackInfo != null ? dataTrackInfo.second.getIdentity() : null;
+
+        int length = message.remaining();
+        String data;
+        if (message.hasArray()) {
+            data = Base64.encodeToString(message.array(), message.arrayOffset() + message.position(), length, Base64.NO_WRAP);
+        } else {
+            if (dataTrackReceiveScratch.length < length) {
+                dataTrackReceiveScratch = new byte[Integer.highestOneBit(length) << 1];
+            }
+            message.duplicate().get(dataTrackReceiveScratch, 0, length);
+            data = Base64.encodeToString(dataTrackReceiveScratch, 0, length, Base64.NO_WRAP);
+        }
+
+        WritableMap event = new WritableNativeMap();
+        event.putString("data", data);
+        event.putInt("byteLength", length);
+        event.putString("senderId", senderId);
+        return event;
+    }
+
     private void addParticipantVideo(Participant participant, RemoteVideoTrackPublication publication) {
         WritableMap event = this.buildParticipantVideoEvent(participant, publication);
         pushEvent(ON_PARTICIPANT_ADDED_VIDEO_TRACK, event);
@@ -1152,55 +1865,112 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
     // ===== EVENTS TO RN ==========================================================================
 
     void pushEvent(String name, ReadableMap data) {
-        this.eventEmitter.emit(name, data);
+        eventDispatcher.dispatch(name, data);
     }
 
-    public static void registerPrimaryVideoView(PatchedVideoView v, String trackSid) {
-        if (room != null) {
+    /*
+     * Events sharing a coalesce key supersede each other while batching is enabled.
+     */
+    void pushEvent(String name, ReadableMap data, String coalesceKey) {
+        eventDispatcher.dispatch(name, data, coalesceKey);
+    }
 
-            for (RemoteParticipant participant : room.getRemoteParticipants()) {
-                for (RemoteVideoTrackPublication publication : participant.getRemoteVideoTracks()) {
-                    RemoteVideoTrack track = publication.getRemoteVideoTrack();
-                    if (track == null) {
-                        continue;
-                    }
-                    if (publication.getTrackSid().equals(trackSid)) {
-                        track.addSink(v);
-                    } else {
-                        track.removeSink(v);
-                    }
-                }
-            }
-        }
+    // Enabled and disabled events of a track supersede each other, only the last state matters
+    private static String trackEnabledKey(TrackPublication publication) {
+        return "trackEnabled:" + publication.getTrackSid();
+    }
+
+    /*
+     * Bind the view, or a tile of a composite view, to the track. If the track is not
+     * subscribed yet the view is attached as soon as it is.
+     */
+    public static void registerPrimaryVideoView(VideoSink v, String trackSid) {
+        videoTrackRegistry.bind(v, trackSid);
+    }
+
+    public static void unregisterPrimaryVideoView(VideoSink v) {
+        videoTrackRegistry.unbind(v);
+    }
+
+    /*
+     * A hidden view stops receiving frames. Once every view of a track is hidden the track is
+     * deprioritized, so the bandwidth profile can switch it off.
+     */
+    public static void setPrimaryVideoViewVisible(PatchedVideoView v, boolean visible) {
+        videoTrackRegistry.setSinkVisible(v, visible);
+    }
+
+    /*
+     * The view follows the dominant speaker instead of a fixed track.
+     */
+    public static void registerSpotlightVideoView(PatchedVideoView v) {
+        spotlight.addView(v);
+    }
+
+    public static void unregisterSpotlightVideoView(PatchedVideoView v) {
+        spotlight.removeView(v);
     }
 
     public static void registerThumbnailVideoView(PatchedVideoView v) {
         thumbnailVideoView = v;
         if (localVideoTrack != null) {
-            localVideoTrack.addSink(v);
+            PatchedVideoView.addSink(localVideoTrack, v);
         }
         setThumbnailMirror();
     }
 
+    public static void unregisterThumbnailVideoView(PatchedVideoView v) {
+        if (localVideoTrack != null) {
+            PatchedVideoView.removeSink(localVideoTrack, v);
+        }
+        if (thumbnailVideoView == v) {
+            thumbnailVideoView = null;
+        }
+    }
+
     private RemoteDataTrack.Listener remoteDataTrackListener() {
         return new RemoteDataTrack.Listener() {
 
             @Override
             public void onMessage(RemoteDataTrack remoteDataTrack, ByteBuffer byteBuffer) {
-
+                WritableMap event = buildDataTrackBinaryEvent(remoteDataTrack.getSid(), byteBuffer);
+                pushEvent(ON_DATATRACK_BINARY_MESSAGE_RECEIVED, event);
             }
 
 
             @Override
             public void onMessage(RemoteDataTrack remoteDataTrack, String message) {
-                WritableMap event = buildDataTrackEvent(remoteDataTrack, message);
-                pushEvent(ON_DATATRACK_MESSAGE_RECEIVED, event);
+                if (DataTrackChunkReassembler.isChunkMessage(message)
+                        && dataTrackChunkReassembler.onChunk(remoteDataTrack.getSid(), message)) {
+                    return;
+                }
+                onDataTrackStringMessage(remoteDataTrack.getSid(), message);
             }
         };
     }
 
+    private void onDataTrackStringMessage(String trackSid, String message) {
+        if (dataTrackMessageBatcher.isEnabled()) {
+            dataTrackMessageBatcher.add(trackSid, message);
+            return;
+        }
+        WritableMap event = buildDataTrackEvent(trackSid, message);
+        pushEvent(ON_DATATRACK_MESSAGE_RECEIVED, event);
+    }
+
     @Override
     public void onStats(List<StatsReport> statsReports) {
+        statsScheduler.onStatsDelivered();
+        statsAggregator.submit(statsReports);
+
+        if (deltaStatsEncoding) {
+            WritableMap delta = statsDeltaEncoder.encode(statsReports);
+            if (delta != null) {
+                pushEvent(ON_STATS_DELTA_RECEIVED, delta);
+            }
+            return;
+        }
+
         WritableMap event = new WritableNativeMap();
         for (StatsReport sr : statsReports) {
             WritableMap connectionStats = new WritableNativeMap();
@@ -1240,9 +2010,13 @@ public class TwilioVideoModule extends ReactContextBaseJavaModule implements Lif
         // Start the thread where data messages are received
         dataTrackMessageThread.start();
         dataTrackMessageThreadHandler = new Handler(dataTrackMessageThread.getLooper());
+        dataTrackMessageBatcher.attach(dataTrackMessageThreadHandler);
+        dataTrackChunkReassembler.attach(dataTrackMessageThreadHandler);
     }
 
     private void quitDataTrackThread() {
+        dataTrackMessageBatcher.detach();
+        dataTrackChunkReassembler.detach();
         if (dataTrackMessageThread != null) {
             dataTrackMessageThread.quit();
             dataTrackMessageThread = null;
@@ -14,9 +14,19 @@ public class TwilioVideoPreview extends RNVideoViewGroup {
 
     private static final String TAG = "TwilioVideoPreview";
 
-    public TwilioVideoPreview(Context context) {
-        super(context);
-        TwilioVideoModule.registerThumbnailVideoView(this.getSurfaceViewRenderer());
-        this.getSurfaceViewRenderer().applyZOrder(true);
+    public TwilioVideoPreview(Context context, VideoRendererPool rendererPool) {
+        super(context, rendererPool);
+        onRendererAcquired(this.getSurfaceViewRenderer());
+    }
+
+    @Override
+    protected void onRendererAcquired(PatchedVideoView renderer) {
+        TwilioVideoModule.registerThumbnailVideoView(renderer);
+        renderer.applyZOrder(true);
+    }
+
+    @Override
+    protected void onRendererReleased(PatchedVideoView renderer) {
+        TwilioVideoModule.unregisterThumbnailVideoView(renderer);
     }
 }
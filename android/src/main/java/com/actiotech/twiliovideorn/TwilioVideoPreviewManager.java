@@ -18,6 +18,11 @@ import org.webrtc.RendererCommon;
 public class TwilioVideoPreviewManager extends SimpleViewManager<TwilioVideoPreview> {
 
     public static final String REACT_CLASS = "RNTwilioVideoPreview";
+    private final VideoRendererPool rendererPool;
+
+    public TwilioVideoPreviewManager(VideoRendererPool rendererPool) {
+        this.rendererPool = rendererPool;
+    }
 
     @Override
     public String getName() {
@@ -33,8 +38,31 @@ public class TwilioVideoPreviewManager extends SimpleViewManager<TwilioVideoPrev
         }
     }
 
+    @ReactProp(name = "maxRenderFps", defaultFloat = 0f)
+    public void setMaxRenderFps(TwilioVideoPreview view, float maxRenderFps) {
+        view.setMaxRenderFps(maxRenderFps);
+    }
+
     @Override
     protected TwilioVideoPreview createViewInstance(ThemedReactContext reactContext) {
-        return new TwilioVideoPreview(reactContext);
+        // Open the camera while the app shows the preview, ahead of connect
+        TwilioVideoModule module = reactContext.getNativeModule(TwilioVideoModule.class);
+        if (module != null) {
+            module.prepareLocalMediaForPreview();
+        }
+        return new TwilioVideoPreview(reactContext, rendererPool);
+    }
+
+    @Override
+    public void onDropViewInstance(TwilioVideoPreview view) {
+        super.onDropViewInstance(view);
+        view.releaseRenderer();
+        if (view.getContext() instanceof ThemedReactContext) {
+            TwilioVideoModule module =
+                    ((ThemedReactContext) view.getContext()).getNativeModule(TwilioVideoModule.class);
+            if (module != null) {
+                module.onLocalPreviewDropped();
+            }
+        }
     }
 }
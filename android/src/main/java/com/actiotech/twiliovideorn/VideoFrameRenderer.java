@@ -0,0 +1,116 @@
+/**
+ * Draws one frame scaled into an area of the current surface: downscaling before upload,
+ * converting texture frames and cropping to the viewport as EglRenderer does. Shared by the
+ * single video views and the composite grid, used on a render thread only.
+ */
+package com.actiotech.twiliovideorn;
+
+import android.graphics.Matrix;
+import android.graphics.Point;
+import android.os.SystemClock;
+
+import tvi.webrtc.RendererCommon;
+import tvi.webrtc.VideoFrame;
+
+public class VideoFrameRenderer {
+
+    private final Matrix drawMatrix = new Matrix();
+
+    // Cost of the last draw
+    private long uploadBytes = 0;
+    private long scaleNs = 0;
+    private boolean downscaled = false;
+
+    /*
+     * Draw the frame into the area at x, y of the current surface, in GL coordinates with the
+     * origin at the bottom left. With downscale set the frame is scaled to the target size
+     * first, the size the area is laid out at. Returns false when nothing was drawn.
+     */
+    public boolean draw(RenderThread thread, VideoFrame frame, RendererCommon.ScalingType scalingType,
+                        boolean mirror, boolean downscale, int x, int y, int width, int height,
+                        int targetWidth, int targetHeight) {
+        uploadBytes = 0;
+        scaleNs = 0;
+        downscaled = false;
+        if (width <= 0 || height <= 0) {
+            return false;
+        }
+        float frameAspectRatio = frame.getRotatedWidth() / (float) frame.getRotatedHeight();
+        Point viewport = RendererCommon.getDisplaySize(scalingType, frameAspectRatio, width, height);
+        viewport.x = Math.min(viewport.x, width);
+        viewport.y = Math.min(viewport.y, height);
+
+        VideoFrame scaled = null;
+        VideoFrame converted = null;
+        try {
+            VideoFrame drawable = frame;
+            if (downscale) {
+                targetWidth = targetWidth > 0 ? targetWidth : width;
+                targetHeight = targetHeight > 0 ? targetHeight : height;
+                Point target = RendererCommon.getDisplaySize(scalingType, frameAspectRatio, targetWidth, targetHeight);
+                long scaleStartNs = SystemClock.elapsedRealtimeNanos();
+                scaled = thread.getDownscaler().downscale(frame,
+                        Math.min(target.x, targetWidth), Math.min(target.y, targetHeight), true);
+                scaleNs = SystemClock.elapsedRealtimeNanos() - scaleStartNs;
+                if (scaled != null) {
+                    drawable = scaled;
+                    downscaled = true;
+                }
+            }
+
+            // Texture frames live in the SDK's EGL share group, which is not exposed, so they are
+            // converted on their producer's thread before upload
+            if (drawable.getBuffer() instanceof VideoFrame.TextureBuffer) {
+                VideoFrame.I420Buffer i420 = drawable.getBuffer().toI420();
+                if (i420 == null) {
+                    return false;
+                }
+                converted = new VideoFrame(i420, drawable.getRotation(), drawable.getTimestampNs());
+                drawable = converted;
+            }
+
+            // Crop the frame to the viewport aspect ratio, as EglRenderer does
+            float drawableAspectRatio = drawable.getRotatedWidth() / (float) drawable.getRotatedHeight();
+            float viewportAspectRatio = viewport.x / (float) viewport.y;
+            float scaleX = 1f;
+            float scaleY = 1f;
+            if (drawableAspectRatio > viewportAspectRatio) {
+                scaleX = viewportAspectRatio / drawableAspectRatio;
+            } else {
+                scaleY = drawableAspectRatio / viewportAspectRatio;
+            }
+            drawMatrix.reset();
+            drawMatrix.preTranslate(0.5f, 0.5f);
+            if (mirror) {
+                drawMatrix.preScale(-1f, 1f);
+            }
+            drawMatrix.preScale(scaleX, scaleY);
+            drawMatrix.preTranslate(-0.5f, -0.5f);
+
+            thread.getFrameDrawer().drawFrame(drawable, thread.getDrawer(), drawMatrix,
+                    x + (width - viewport.x) / 2, y + (height - viewport.y) / 2, viewport.x, viewport.y);
+            // I420 planes uploaded for this frame
+            uploadBytes = drawable.getBuffer().getWidth() * (long) drawable.getBuffer().getHeight() * 3 / 2;
+            return true;
+        } finally {
+            if (scaled != null) {
+                scaled.release();
+            }
+            if (converted != null) {
+                converted.release();
+            }
+        }
+    }
+
+    public long getUploadBytes() {
+        return uploadBytes;
+    }
+
+    public long getScaleNs() {
+        return scaleNs;
+    }
+
+    public boolean wasDownscaled() {
+        return downscaled;
+    }
+}
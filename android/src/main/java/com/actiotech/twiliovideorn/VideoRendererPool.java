@@ -0,0 +1,130 @@
+/**
+ * Keeps released PatchedVideoViews around so scrolling grids of previews reuse renderers
+ * instead of constructing a new view for every tile that comes into view. Renderers are
+ * handed out and taken back on the main thread.
+ */
+package com.actiotech.twiliovideorn;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+public class VideoRendererPool {
+
+    public static final int DEFAULT_MAX_SIZE = 4;
+
+    private final int maxSize;
+    private final RenderThreadPool renderThreadPool;
+    // Draw renderers on the render thread pool rather than a GL thread each
+    private final boolean sharedRendering;
+    private final ArrayDeque<PatchedVideoView> idle = new ArrayDeque<>();
+    private final Set<PatchedVideoView> inUse = new LinkedHashSet<>();
+
+    private long hits = 0;
+    private long misses = 0;
+    private long firstFrames = 0;
+    private long totalTimeToFirstFrameMs = 0;
+    private long maxTimeToFirstFrameMs = 0;
+
+    public VideoRendererPool(int maxSize, RenderThreadPool renderThreadPool, boolean sharedRendering) {
+        this.maxSize = Math.max(0, maxSize);
+        this.renderThreadPool = renderThreadPool;
+        this.sharedRendering = sharedRendering;
+    }
+
+    public RenderThreadPool getRenderThreadPool() {
+        return renderThreadPool;
+    }
+
+    /*
+     * Hand out an idle renderer created for the same context, or a new one.
+     */
+    public synchronized PatchedVideoView acquire(Context context) {
+        PatchedVideoView renderer = null;
+        Iterator<PatchedVideoView> iterator = idle.iterator();
+        while (iterator.hasNext()) {
+            PatchedVideoView candidate = iterator.next();
+            if (candidate.getContext() == context) {
+                iterator.remove();
+                renderer = candidate;
+                break;
+            }
+        }
+        if (renderer != null) {
+            hits++;
+        } else {
+            misses++;
+            renderer = new PatchedVideoView(context, renderThreadPool, sharedRendering);
+        }
+        inUse.add(renderer);
+        renderer.resetFrameCounts();
+        renderer.getTelemetry().reset();
+        trackFirstFrame(renderer);
+        return renderer;
+    }
+
+    /*
+     * Take a renderer back. The caller has removed it from its parent and from every track it
+     * was a sink of.
+     */
+    public synchronized void release(PatchedVideoView renderer) {
+        inUse.remove(renderer);
+        renderer.setMaxRenderFps(0);
+        renderer.setMirror(false);
+        renderer.applyZOrder(false);
+        if (idle.size() >= maxSize) {
+            // Evict the least recently released renderer
+            idle.pollFirst();
+        }
+        if (maxSize > 0) {
+            idle.addLast(renderer);
+        }
+    }
+
+    /*
+     * Renderers currently handed out.
+     */
+    public synchronized List<PatchedVideoView> getRenderersInUse() {
+        return new ArrayList<>(inUse);
+    }
+
+    public synchronized WritableMap getMetrics() {
+        WritableMap metrics = new WritableNativeMap();
+        metrics.putInt("maxSize", maxSize);
+        metrics.putBoolean("sharedRendering", sharedRendering);
+        metrics.putInt("idle", idle.size());
+        metrics.putDouble("hits", hits);
+        metrics.putDouble("misses", misses);
+        metrics.putDouble("firstFrames", firstFrames);
+        metrics.putDouble("averageTimeToFirstFrameMs",
+                firstFrames > 0 ? totalTimeToFirstFrameMs / (double) firstFrames : 0);
+        metrics.putDouble("maxTimeToFirstFrameMs", maxTimeToFirstFrameMs);
+        return metrics;
+    }
+
+    private void trackFirstFrame(PatchedVideoView renderer) {
+        final long acquiredAtMs = SystemClock.elapsedRealtime();
+        renderer.setListener(new PatchedVideoView.Listener() {
+            @Override
+            public void onFirstFrame() {
+                onFirstFrameRendered(SystemClock.elapsedRealtime() - acquiredAtMs);
+            }
+        });
+        renderer.resetListener();
+    }
+
+    private synchronized void onFirstFrameRendered(long timeToFirstFrameMs) {
+        firstFrames++;
+        totalTimeToFirstFrameMs += timeToFirstFrameMs;
+        maxTimeToFirstFrameMs = Math.max(maxTimeToFirstFrameMs, timeToFirstFrameMs);
+    }
+}
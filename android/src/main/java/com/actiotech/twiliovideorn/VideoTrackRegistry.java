@@ -0,0 +1,214 @@
+/**
+ * Index from trackSid to subscribed RemoteVideoTrack plus the views bound to each sid.
+ * A view bound before its track is subscribed stays pending and is attached as a sink
+ * the moment the track arrives, then detached again when the track goes away. Hidden views
+ * stay bound without being attached, and a track whose views are all hidden is reported so
+ * it can be deprioritized.
+ */
+package com.actiotech.twiliovideorn;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+import com.twilio.video.RemoteVideoTrack;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import tvi.webrtc.VideoSink;
+
+public class VideoTrackRegistry {
+
+    public interface Listener {
+        /*
+         * Called when the last visible view of a subscribed track was hidden, or a view of a
+         * hidden track became visible again.
+         */
+        void onTrackVisibilityChanged(String trackSid, RemoteVideoTrack track, boolean visible);
+    }
+
+    private final Listener listener;
+    private final Map<String, RemoteVideoTrack> tracks = new HashMap<>();
+    private final Map<String, Set<VideoSink>> sinksByTrack = new HashMap<>();
+    private final Map<VideoSink, String> trackBySink = new HashMap<>();
+    private final Set<VideoSink> hiddenSinks = new HashSet<>();
+    private final Set<String> hiddenTracks = new HashSet<>();
+
+    public VideoTrackRegistry(Listener listener) {
+        this.listener = listener;
+    }
+
+    /*
+     * Bind a sink to a trackSid, replacing whatever it was bound to. A null or empty sid only
+     * unbinds.
+     */
+    public synchronized void bind(VideoSink sink, @Nullable String trackSid) {
+        String previous = trackBySink.get(sink);
+        if (previous != null && previous.equals(trackSid)) {
+            return;
+        }
+        boolean hidden = hiddenSinks.contains(sink);
+        unbind(sink);
+        if (hidden) {
+            hiddenSinks.add(sink);
+        }
+        if (trackSid == null || trackSid.isEmpty()) {
+            return;
+        }
+
+        trackBySink.put(sink, trackSid);
+        Set<VideoSink> sinks = sinksByTrack.get(trackSid);
+        if (sinks == null) {
+            sinks = new LinkedHashSet<>();
+            sinksByTrack.put(trackSid, sinks);
+        }
+        sinks.add(sink);
+
+        RemoteVideoTrack track = tracks.get(trackSid);
+        if (track != null && !hiddenSinks.contains(sink)) {
+            PatchedVideoView.addSink(track, sink);
+        }
+        updateTrackVisibility(trackSid);
+    }
+
+    /*
+     * Unbinding also forgets whether the sink was hidden, views are reused for other tiles.
+     */
+    public synchronized void unbind(VideoSink sink) {
+        boolean wasHidden = hiddenSinks.remove(sink);
+        String trackSid = trackBySink.remove(sink);
+        if (trackSid == null) {
+            return;
+        }
+        Set<VideoSink> sinks = sinksByTrack.get(trackSid);
+        if (sinks != null) {
+            sinks.remove(sink);
+            if (sinks.isEmpty()) {
+                sinksByTrack.remove(trackSid);
+            }
+        }
+        RemoteVideoTrack track = tracks.get(trackSid);
+        if (track != null && !wasHidden) {
+            PatchedVideoView.removeSink(track, sink);
+        }
+        updateTrackVisibility(trackSid);
+    }
+
+    public synchronized void setSinkVisible(VideoSink sink, boolean visible) {
+        boolean changed = visible ? hiddenSinks.remove(sink) : hiddenSinks.add(sink);
+        String trackSid = trackBySink.get(sink);
+        if (!changed || trackSid == null) {
+            return;
+        }
+        RemoteVideoTrack track = tracks.get(trackSid);
+        if (track != null) {
+            if (visible) {
+                PatchedVideoView.addSink(track, sink);
+            } else {
+                PatchedVideoView.removeSink(track, sink);
+            }
+        }
+        updateTrackVisibility(trackSid);
+    }
+
+    @Nullable
+    public synchronized RemoteVideoTrack getTrack(String trackSid) {
+        return tracks.get(trackSid);
+    }
+
+    @Nullable
+    public synchronized String getBoundTrackSid(VideoSink sink) {
+        return trackBySink.get(sink);
+    }
+
+    public synchronized void onTrackSubscribed(String trackSid, RemoteVideoTrack track) {
+        tracks.put(trackSid, track);
+        Set<VideoSink> sinks = sinksByTrack.get(trackSid);
+        if (sinks != null) {
+            for (VideoSink sink : sinks) {
+                if (!hiddenSinks.contains(sink)) {
+                    PatchedVideoView.addSink(track, sink);
+                }
+            }
+        }
+        // A new subscription starts out with the publisher's priority
+        hiddenTracks.remove(trackSid);
+        updateTrackVisibility(trackSid);
+    }
+
+    /*
+     * Detach the track from its sinks. The bindings stay, so a resubscription re-attaches them.
+     */
+    public synchronized void onTrackUnsubscribed(String trackSid, RemoteVideoTrack track) {
+        tracks.remove(trackSid);
+        hiddenTracks.remove(trackSid);
+        Set<VideoSink> sinks = sinksByTrack.get(trackSid);
+        if (sinks != null) {
+            for (VideoSink sink : sinks) {
+                if (!hiddenSinks.contains(sink)) {
+                    PatchedVideoView.removeSink(track, sink);
+                }
+            }
+        }
+    }
+
+    /*
+     * Forget all tracks when leaving a room, their sinks are released along with them.
+     */
+    public synchronized void clearTracks() {
+        tracks.clear();
+        hiddenTracks.clear();
+    }
+
+    /*
+     * A subscribed track is hidden while it has views and none of them is visible. Tracks
+     * nobody renders are left alone.
+     */
+    private void updateTrackVisibility(String trackSid) {
+        RemoteVideoTrack track = tracks.get(trackSid);
+        if (track == null) {
+            return;
+        }
+        boolean visible = true;
+        Set<VideoSink> sinks = sinksByTrack.get(trackSid);
+        if (sinks != null) {
+            visible = false;
+            for (VideoSink sink : sinks) {
+                if (!hiddenSinks.contains(sink)) {
+                    visible = true;
+                    break;
+                }
+            }
+        }
+        boolean wasVisible = !hiddenTracks.contains(trackSid);
+        if (visible == wasVisible) {
+            return;
+        }
+        if (visible) {
+            hiddenTracks.remove(trackSid);
+        } else {
+            hiddenTracks.add(trackSid);
+        }
+        listener.onTrackVisibilityChanged(trackSid, track, visible);
+    }
+
+    public synchronized WritableMap getMetrics() {
+        int pending = 0;
+        for (String trackSid : sinksByTrack.keySet()) {
+            if (!tracks.containsKey(trackSid)) {
+                pending += sinksByTrack.get(trackSid).size();
+            }
+        }
+        WritableMap metrics = new WritableNativeMap();
+        metrics.putInt("tracks", tracks.size());
+        metrics.putInt("boundViews", trackBySink.size());
+        metrics.putInt("pendingViews", pending);
+        metrics.putInt("hiddenViews", hiddenSinks.size());
+        metrics.putInt("hiddenTracks", hiddenTracks.size());
+        return metrics;
+    }
+}
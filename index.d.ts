@@ -72,17 +72,40 @@ declare module 'react-native-twilio-video-webrtc' {
 
   interface TwilioVideoLocalViewProps extends ViewProps {
     enabled: boolean;
+    maxRenderFps?: number;
     ref?: React.Ref<any>;
   }
 
   interface TwilioVideoParticipantViewProps extends ViewProps {
-    trackIdentifier: {
+    trackIdentifier?: {
       participantSid: string;
       videoTrackSid: string;
     };
+    maxRenderFps?: number;
+    spotlight?: boolean;
     ref?: React.Ref<any>;
   }
 
+  export interface VideoGridTileRect {
+    x: number;
+    y: number;
+    width: number;
+    height: number;
+  }
+
+  export interface VideoGridLayout {
+    columns?: number;
+    spacing?: number;
+    tiles?: VideoGridTileRect[];
+  }
+
+  interface TwilioVideoGridViewProps extends ViewProps {
+    trackSids: string[];
+    layout?: VideoGridLayout;
+    scaleType?: 'fit' | 'fill';
+    maxRenderFps?: number;
+  }
+
   export interface Participant {
     sid: string;
     identity: string;
@@ -117,6 +140,8 @@ declare module 'react-native-twilio-video-webrtc' {
 
   type RoomEventArgs = RoomEventCommonArgs & {
     participants: Participant[];
+    // Android only
+    joinTimeline?: StageTimeline;
   };
 
   type ParticipantEventArgs = RoomEventCommonArgs & {
@@ -131,6 +156,17 @@ declare module 'react-native-twilio-video-webrtc' {
     message: string,
     senderId: string,
   }) => void;
+  export type MessagesReceivedEventCb = ({
+    // identities of this batch's senders, messages refer to them by index
+    senders: Array<string | null>,
+    senderIndexes: number[],
+    messages: string[],
+  }) => void;
+  export type BinaryMessageReceivedEventCb = ({
+    data: string, // base64 encoded payload
+    byteLength: number,
+    senderId: string,
+  }) => void;
   export type StatsReceivedEventCb = (stats: TwilioStats) => void;
 
   export type RoomEventCb = (p: RoomEventArgs) => void;
@@ -187,6 +223,372 @@ declare module 'react-native-twilio-video-webrtc' {
     };
   }
 
+  export interface TrackStatsDelta {
+    trackSid: string;
+    // kind and peerConnectionId are only sent the first time a track is reported
+    kind?: 'remoteAudio' | 'remoteVideo' | 'localAudio' | 'localVideo';
+    peerConnectionId?: string;
+    codec?: string;
+    ssrc?: string;
+    packetsLost?: number;
+    timestamp?: number;
+    bytesReceived?: number;
+    packetsReceived?: number;
+    bytesSent?: number;
+    packetsSent?: number;
+    roundTripTime?: number;
+    audioLevel?: number;
+    jitter?: number;
+    width?: number;
+    height?: number;
+    frameRate?: number;
+  }
+
+  export interface TwilioStatsDelta {
+    tracks: TrackStatsDelta[];
+    removed: string[];
+  }
+
+  export type StatsDeltaReceivedEventCb = (delta: TwilioStatsDelta) => void;
+
+  export interface StatsPercentiles {
+    p50: number;
+    p95: number;
+    max: number;
+    samples: number;
+  }
+
+  export interface TrackStatsSummary {
+    kind: 'remoteAudio' | 'remoteVideo' | 'localAudio' | 'localVideo';
+    roundTripTime?: StatsPercentiles;
+    jitter?: StatsPercentiles;
+    packetsLost?: StatsPercentiles;
+    frameRate?: StatsPercentiles;
+    bitrate?: StatsPercentiles;
+  }
+
+  export interface TwilioStatsSummary {
+    windowSize: number;
+    tracks: { [trackSid: string]: TrackStatsSummary };
+  }
+
+  export type StatsSummaryEventCb = (summary: TwilioStatsSummary) => void;
+
+  export interface EventDispatcherMetrics {
+    batchingEnabled: boolean;
+    enqueued: number;
+    merged: number;
+    dispatched: number;
+    batches: number;
+    largestBatch: number;
+    pending: number;
+  }
+
+  export interface StatsSchedulerMetrics {
+    running: boolean;
+    paused: boolean;
+    intervalMs: number;
+    ticks: number;
+    requests: number;
+    skippedInFlight: number;
+    skippedPaused: number;
+    merged: number;
+    timedOut: number;
+  }
+
+  export interface DataTrackBatchingMetrics {
+    batchingEnabled: boolean;
+    batches: number;
+    messages: number;
+    largestBatch: number;
+    averageBatchSize: number;
+    averageLatencyMs: number;
+    maxLatencyMs: number;
+  }
+
+  export interface DataTrackSendQueueState {
+    saturated: boolean;
+    queuedMessages: number;
+    queuedBytes: number;
+  }
+
+  export type DataTrackSendQueueChangedEventCb = (state: DataTrackSendQueueState) => void;
+
+  export interface FrameGapBucket {
+    // Absent on the last, open ended bucket
+    maxMs?: number;
+    count: number;
+  }
+
+  export interface RenderTelemetry {
+    local: boolean;
+    trackSid?: string | null;
+    timeToFirstFrameMs: number;
+    fps: number;
+    frameGapHistogram: FrameGapBucket[];
+    width: number;
+    height: number;
+    resolutionChanges: number;
+    stalled: boolean;
+    stalls: number;
+    stalledMs: number;
+    msSinceLastFrame: number;
+  }
+
+  export type RenderTelemetryEventCb = (event: { views: RenderTelemetry[] }) => void;
+
+  export type DataTrackPriority = 'high' | 'normal' | 'bulk';
+
+  export interface DataTrackSendQueueMetrics extends DataTrackSendQueueState {
+    sentMessages: number;
+    sentChunks: number;
+    retries: number;
+    rejectedMessages: number;
+  }
+
+  export interface DataTrackMetrics {
+    bufferPoolHits: number;
+    bufferPoolMisses: number;
+    inboundBatching: DataTrackBatchingMetrics;
+    sendQueue: DataTrackSendQueueMetrics;
+    droppedChunkedMessages: number;
+  }
+
+  export interface VideoTrackRegistryMetrics {
+    tracks: number;
+    boundViews: number;
+    pendingViews: number;
+    hiddenViews: number;
+    hiddenTracks: number;
+  }
+
+  export interface VideoRendererPoolMetrics {
+    maxSize: number;
+    sharedRendering: boolean;
+    idle: number;
+    hits: number;
+    misses: number;
+    firstFrames: number;
+    averageTimeToFirstFrameMs: number;
+    maxTimeToFirstFrameMs: number;
+  }
+
+  export interface RenderThreadMetrics {
+    maxThreads: number;
+    threads: number;
+    renderersPerThread: number[];
+    framesDrawn: number;
+    framesDropped: number;
+    downscalingEnabled: boolean;
+    framesDownscaled: number;
+  }
+
+  export interface RenderBenchmarkResult {
+    durationMs: number;
+    renderThreads: number;
+    renderers: number;
+    cpuTimeMs: number;
+    cpuUsage: number;
+    pssStartKb: number;
+    pssEndKb: number;
+    threadsStart: number;
+    threadsEnd: number;
+    framesDrawn: number;
+    framesDropped: number;
+    fps: number;
+    frameGapMeanMs: number;
+    frameGapStdDevMs: number;
+    frameGapMaxMs: number;
+    downscalingEnabled: boolean;
+    framesDownscaled: number;
+    uploadBytesPerFrame: number;
+    drawTimeMsPerFrame: number;
+    scaleTimeMsPerFrame: number;
+  }
+
+  export interface VideoViewStats {
+    local: boolean;
+    trackSid?: string | null;
+    maxRenderFps: number;
+    framesRendered: number;
+    framesPaced: number;
+    framesSuperseded: number;
+  }
+
+  export interface VideoLayoutMetrics {
+    relayouts: number;
+    skippedRelayouts: number;
+  }
+
+  export interface SnapshotOptions {
+    maxWidth?: number;
+    maxHeight?: number;
+    quality?: number;
+  }
+
+  export interface VideoSnapshot {
+    data: string;
+    mimeType: 'image/jpeg';
+    width: number;
+    height: number;
+    timestampNs: number;
+    encodeTimeMs: number;
+    latencyMs: number;
+  }
+
+  export interface SnapshotMetrics {
+    pending: number;
+    snapshots: number;
+    failures: number;
+  }
+
+  export interface SpotlightOptions {
+    enabled?: boolean;
+    holdMs?: number;
+    warmCount?: number;
+  }
+
+  export interface SpotlightChangedEvent {
+    participantSid: string;
+    trackSid: string;
+    previousTrackSid: string | null;
+    warm: boolean;
+    holdMs: number;
+    switchLatencyMs: number;
+    speakerChangeLatencyMs: number;
+  }
+
+  export type SpotlightChangedEventCb = (event: SpotlightChangedEvent) => void;
+
+  export interface SpotlightMetrics {
+    enabled: boolean;
+    trackSid: string | null;
+    views: number;
+    warmTracks: number;
+    switches: number;
+    warmSwitches: number;
+    averageSwitchLatencyMs: number;
+    maxSwitchLatencyMs: number;
+  }
+
+  export interface CaptureFormat {
+    width: number;
+    height: number;
+    frameRate: number;
+  }
+
+  export interface CaptureFormatChangedEvent extends CaptureFormat {
+    reason: 'thermal' | 'network' | 'encoder' | 'headroom' | 'adaptation disabled';
+  }
+
+  export type CaptureFormatChangedEventCb = (event: CaptureFormatChangedEvent) => void;
+
+  export interface CaptureFormatMetrics {
+    deviceClass: 'low' | 'mid' | 'high';
+    adaptive: boolean;
+    ladder: CaptureFormat[];
+    rung: number;
+    startRung: number;
+    maxRung: number;
+    format: CaptureFormat;
+    thermalStatus: number;
+    networkQualityLevel: number;
+    stepsUp: number;
+    stepsDown: number;
+    lastReason: string;
+  }
+
+  export interface CameraSwitchedEvent {
+    isBackCamera: boolean;
+    // from the first tap to the new camera delivering frames
+    switchLatencyMs: number;
+    // taps made while the switch was in flight
+    coalescedTaps: number;
+    error?: string;
+  }
+
+  export type CameraSwitchedEventCb = (event: CameraSwitchedEvent) => void;
+
+  export interface CameraSwitchMetrics {
+    switching: boolean;
+    switches: number;
+    failures: number;
+    coalescedTaps: number;
+    lastSwitchMs: number;
+    averageSwitchMs: number;
+    maxSwitchMs: number;
+  }
+
+  export type BackgroundVideoMode = 'release' | 'pause';
+
+  export interface LocalVideoResumedEvent {
+    mode: BackgroundVideoMode;
+    resumeToFirstFrameMs: number;
+  }
+
+  export type LocalVideoResumedEventCb = (event: LocalVideoResumedEvent) => void;
+
+  export interface BackgroundResumeMetrics {
+    resumes: number;
+    lastResumeToFirstFrameMs: number;
+    averageResumeToFirstFrameMs: number;
+  }
+
+  export interface BackgroundVideoMetrics {
+    mode: BackgroundVideoMode;
+    paused: boolean;
+    release: BackgroundResumeMetrics;
+    pause: BackgroundResumeMetrics;
+  }
+
+  export interface StageTimeline {
+    // ms since the operation was requested, by stage, in the order reached
+    stages: { [stage: string]: number };
+    totalMs: number;
+  }
+
+  export interface PrepareLocalMediaOptions {
+    enableAudio?: boolean;
+    enableVideo?: boolean;
+  }
+
+  export interface PreparedLocalMedia {
+    audio: boolean;
+    video: boolean;
+    timeline: StageTimeline;
+  }
+
+  export interface CameraRegistryMetrics {
+    loaded: boolean;
+    camera2: boolean;
+    cameras: number;
+    supportedCameras: number;
+    warmedInBackground: boolean;
+    enumerationMs: number;
+    capturers: number;
+    coldLoads: number;
+    estimatedSavedMs: number;
+    lastCapturerCreateMs: number;
+  }
+
+  export interface TwilioMetrics {
+    eventDispatcher: EventDispatcherMetrics;
+    statsScheduler: StatsSchedulerMetrics;
+    videoTrackRegistry: VideoTrackRegistryMetrics;
+    rendererPool: VideoRendererPoolMetrics;
+    videoLayout: VideoLayoutMetrics;
+    renderThreads: RenderThreadMetrics;
+    snapshots: SnapshotMetrics;
+    spotlight: SpotlightMetrics;
+    captureFormat: CaptureFormatMetrics;
+    cameraRegistry: CameraRegistryMetrics;
+    prepareTimeline: StageTimeline;
+    joinTimeline: StageTimeline;
+    backgroundVideo: BackgroundVideoMetrics;
+    cameraSwitch: CameraSwitchMetrics;
+    dataTrack: DataTrackMetrics;
+  }
+
   export type TwilioSubscription<CFunc> = (f: CFunc) => EmitterSubscription;
 
   export interface ConnectionOptions {
@@ -207,6 +609,8 @@ declare module 'react-native-twilio-video-webrtc' {
       options: ConnectionOptions,
     ) => void;
 
+    prepareLocalMedia: (options?: PrepareLocalMediaOptions) => Promise<PreparedLocalMedia>;
+
     disconnect: () => void;
 
     flipCamera: () => void;
@@ -217,14 +621,64 @@ declare module 'react-native-twilio-video-webrtc' {
 
     cancelStatsRequest: () => void;
 
+    setStatsEncoding: (encoding: 'full' | 'delta') => void;
+
+    startStatsAggregation: (windowSize: number, summaryIntervalMs?: number) => void;
+
+    stopStatsAggregation: () => void;
+
+    getStatsSummary: () => Promise<TwilioStatsSummary>;
+
+    setEventBatchingEnabled: (enabled: boolean) => void;
+
+    getMetrics: () => Promise<TwilioMetrics>;
+
+    runRenderBenchmark: (durationMs: number) => Promise<RenderBenchmarkResult>;
+
+    setRenderDownscalingEnabled: (enabled: boolean) => void;
+
+    runDownscaleBenchmark: (
+      durationMs: number,
+    ) => Promise<{ off: RenderBenchmarkResult; on: RenderBenchmarkResult }>;
+
+    getVideoViewStats: () => Promise<VideoViewStats[]>;
+
+    getRenderTelemetry: () => Promise<RenderTelemetry[]>;
+
+    setRenderTelemetryInterval: (intervalMs: number) => void;
+
+    configureSpotlight: (options: SpotlightOptions) => void;
+
+    setAdaptiveCaptureEnabled: (enabled: boolean) => void;
+
+    setBackgroundVideoMode: (mode: BackgroundVideoMode) => void;
+
+    takeSnapshot: (trackSid: string | null, options?: SnapshotOptions) => Promise<VideoSnapshot>;
+
     sendString: (message: string) => void;
 
+    sendBinary: (base64: string) => void;
+
+    enqueueString: (message: string, priority?: DataTrackPriority) => void;
+
+    enqueueBinary: (base64: string, priority?: DataTrackPriority) => void;
+
+    setDataTrackChunkingEnabled: (enabled: boolean) => void;
+
+    setDataTrackSendHighWaterMark: (bytes: number) => void;
+
+    setDataTrackMessageBatching: (enabled: boolean, flushIntervalMs?: number, maxBatchSize?: number) => void;
+
     setLocalVideoEnabled: (enabled: boolean) => Promise<boolean>;
 
     setLocalAudioEnabled: (enabled: boolean) => Promise<boolean>;
 
     setRemoteAudioEnabled: (participantSid: string, enabled: boolean) => void;
 
+    setCompactEventsEnabled: (enabled: boolean) => void;
+
+    setRemoteAudioEnabledBulk: (participantSids: string[], enabled: boolean, allExcept?: boolean) => void;
+
     onRoomDidConnect: TwilioSubscription<RoomEventCb>;
 
     onRoomDidDisconnect: TwilioSubscription<RoomErrorEventCb>;
@@ -255,8 +709,28 @@ declare module 'react-native-twilio-video-webrtc' {
 
     onDataTrackMessageReceived: TwilioSubscription<MessageReceivedEventCb>;
 
+    onDataTrackMessagesReceived: TwilioSubscription<MessagesReceivedEventCb>;
+
+    onDataTrackSendQueueChanged: TwilioSubscription<DataTrackSendQueueChangedEventCb>;
+
+    onRenderTelemetry: TwilioSubscription<RenderTelemetryEventCb>;
+
+    onSpotlightChanged: TwilioSubscription<SpotlightChangedEventCb>;
+
+    onCaptureFormatChanged: TwilioSubscription<CaptureFormatChangedEventCb>;
+
+    onLocalVideoResumed: TwilioSubscription<LocalVideoResumedEventCb>;
+
+    onCameraSwitched: TwilioSubscription<CameraSwitchedEventCb>;
+
+    onDataTrackBinaryMessageReceived: TwilioSubscription<BinaryMessageReceivedEventCb>;
+
     onStatsReceived: TwilioSubscription<StatsReceivedEventCb>;
 
+    onStatsDeltaReceived: TwilioSubscription<StatsDeltaReceivedEventCb>;
+
+    onStatsSummary: TwilioSubscription<StatsSummaryEventCb>;
+
     onNetworkQualityLevelsChanged: TwilioSubscription<NetworkLevelChangeEventCb>;
 
     onDominantSpeakerChanged: TwilioSubscription<NullableParticipantEventCb>;
@@ -328,9 +802,12 @@ declare module 'react-native-twilio-video-webrtc' {
     TwilioVideoParticipantViewProps
   > {}
 
+  class TwilioVideoGridView extends React.Component<TwilioVideoGridViewProps> {}
+
   export {
     TwilioVideoLocalView,
     TwilioVideoParticipantView,
+    TwilioVideoGridView,
     TwilioVideo,
     TwilioVideoView,
     TwilioError,
@@ -1,11 +1,13 @@
 import TwilioVideoLocalView from './src/TwilioVideoLocalView'
 import TwilioVideoParticipantView from './src/TwilioVideoParticipantView'
+import TwilioVideoGridView from './src/TwilioVideoGridView'
 import TwilioVideo, { TwilioError, TwilioErrorCode } from './src/TwilioVideo'
 import TwilioVideoView from './src/TwilioVideoView';
 
 export {
   TwilioVideoLocalView,
   TwilioVideoParticipantView,
+  TwilioVideoGridView,
   TwilioVideo,
   TwilioVideoView,
   TwilioError,
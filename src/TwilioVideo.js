@@ -95,6 +95,11 @@ export class TwilioError extends Error {
 class TwilioVideo {
   subscriptions = [];
 
+  statsListenerCount = 0;
+
+  // Participant and track descriptors by handle, filled from onHandlesAnnounced
+  handles = {};
+
   eventEmitter = Platform.select({
     ios: new NativeEventEmitter(TwilioIosModule),
     android: DeviceEventEmitter,
@@ -105,6 +110,20 @@ class TwilioVideo {
     android: TwilioAndroidModule,
   });
 
+  constructor() {
+    this.eventEmitter.addListener('TwilioVideo.onHandlesAnnounced', ({ descriptors }) => {
+      descriptors.forEach(descriptor => {
+        this.handles[descriptor.handle] = descriptor;
+      });
+    });
+    if (Platform.OS === 'android') {
+      // Batched events are unpacked and re-emitted so listeners keep receiving individual events
+      this.eventEmitter.addListener('TwilioVideo.onEventBatch', events => {
+        events.forEach(({ name, data }) => this.eventEmitter.emit(name, data));
+      });
+    }
+  }
+
   /**
    * Connect to given room name using the JWT access token
    * @param  {String} roomName           The connecting room name
@@ -124,6 +143,15 @@ class TwilioVideo {
     });
   };
 
+  /**
+   * Create and start the local tracks ahead of connect, so joining only attaches them.
+   * A mounted TwilioVideoPreview prepares the camera on its own (Android only)
+   * @param  {Object} options enableAudio, enableVideo, both true by default
+   */
+  prepareLocalMedia = (options = {}) => {
+    return this.nativeModule.prepareLocalMedia(options);
+  };
+
   /**
    * Disconnect from current room
    */
@@ -154,6 +182,16 @@ class TwilioVideo {
     this.nativeModule.setRemoteAudioEnabled(participantSid, enabled);
   };
 
+  /**
+   * Enable/disable remote audio for many participants at once (Android only)
+   * @param participantSids
+   * @param enabled
+   * @param allExcept   Apply to every remote participant except participantSids
+   */
+  setRemoteAudioEnabledBulk = (participantSids, enabled, allExcept = false) => {
+    this.nativeModule.setRemoteAudioEnabledBulk(participantSids, enabled, allExcept);
+  };
+
   /**
    * Flip between the front and back camera
    */
@@ -176,6 +214,35 @@ class TwilioVideo {
     this.nativeModule.requestStats(intervalMs);
   }
 
+  /**
+   * Choose how stats are delivered (Android only): 'full' (default) emits onStatsReceived,
+   * 'delta' emits onStatsDeltaReceived with only the fields that changed per trackSid
+   * @param  {String} encoding
+   */
+  setStatsEncoding = (encoding) => {
+    this.nativeModule.setStatsEncoding(encoding);
+  }
+
+  /**
+   * Aggregate stats natively over the last windowSize reports per track (Android only)
+   * @param  {Number} windowSize         Number of reports kept per track
+   * @param  {Number} summaryIntervalMs  Emit onStatsSummary at this cadence, 0 to only query
+   */
+  startStatsAggregation = (windowSize, summaryIntervalMs = 0) => {
+    this.nativeModule.startStatsAggregation(windowSize, summaryIntervalMs);
+  }
+
+  stopStatsAggregation = () => {
+    this.nativeModule.stopStatsAggregation();
+  }
+
+  /**
+   * Resolves with the p50/p95/max summary of the current window (Android only)
+   */
+  getStatsSummary = () => {
+    return this.nativeModule.getStatsSummary();
+  }
+
   /**
    * Stop all stats requests
    */
@@ -183,6 +250,104 @@ class TwilioVideo {
     this.nativeModule.cancelStatsRequest();
   }
 
+  /**
+   * Queue events natively and deliver them once per frame, merging superseded ones (Android only)
+   * @param  {Boolean} enabled
+   */
+  setEventBatchingEnabled = enabled => {
+    this.nativeModule.setEventBatchingEnabled(enabled);
+  }
+
+  /**
+   * Resolves with the native performance counters (Android only)
+   */
+  getMetrics = () => {
+    return this.nativeModule.getMetrics();
+  }
+
+  /**
+   * Scale frames down to the size of their view before uploading them (Android only). Applies to
+   * views drawn on the shared render threads, see the TwilioPackage render thread count.
+   * @param  {Boolean} enabled
+   */
+  setRenderDownscalingEnabled = enabled => {
+    this.nativeModule.setRenderDownscalingEnabled(enabled);
+  }
+
+  /**
+   * Run the render benchmark without and then with downscaling (Android only)
+   * @param  {Number} durationMs How long to measure each configuration
+   */
+  runDownscaleBenchmark = durationMs => {
+    return this.nativeModule.runDownscaleBenchmark(durationMs);
+  }
+
+  /**
+   * Resolves with a still of the next frame of a video track as a base64 JPEG (Android only)
+   * @param  {String} trackSid The remote video track, or null for the local track
+   * @param  {Object} options maxWidth and maxHeight to scale it down, quality from 0 to 100
+   */
+  takeSnapshot = (trackSid, options = {}) => {
+    return this.nativeModule.takeSnapshot(trackSid, options);
+  }
+
+  /**
+   * Resolves with the frame counts of every video view on screen (Android only)
+   */
+  getVideoViewStats = () => {
+    return this.nativeModule.getVideoViewStats();
+  }
+
+  /**
+   * Resolves with the render telemetry of every video view on screen (Android only)
+   */
+  getRenderTelemetry = () => {
+    return this.nativeModule.getRenderTelemetry();
+  }
+
+  /**
+   * Emit onRenderTelemetry periodically, 0 stops it (Android only)
+   * @param  {Number} intervalMs
+   */
+  setRenderTelemetryInterval = intervalMs => {
+    this.nativeModule.setRenderTelemetryInterval(intervalMs);
+  }
+
+  /**
+   * Make participant views with the spotlight prop follow the dominant speaker (Android only)
+   * @param  {Object} options enabled, holdMs a speaker has to stay dominant before the
+   *                          spotlight moves, warmCount recent speakers kept decoding
+   */
+  configureSpotlight = options => {
+    this.nativeModule.configureSpotlight(options);
+  }
+
+  /**
+   * Let the camera capture format follow encoder load, network quality and thermal
+   * status, on by default (Android only)
+   * @param  {Boolean} enabled
+   */
+  setAdaptiveCaptureEnabled = enabled => {
+    this.nativeModule.setAdaptiveCaptureEnabled(enabled);
+  }
+
+  /**
+   * What happens to the local video track in the background (Android only)
+   * @param  {String} mode 'release' (default) frees the camera and unpublishes the track,
+   *                       'pause' only stops the camera and keeps the track published
+   */
+  setBackgroundVideoMode = mode => {
+    this.nativeModule.setBackgroundVideoMode(mode);
+  }
+
+  /**
+   * Measure CPU, memory and frame pacing of the current video previews (Android only)
+   * @param  {Number} durationMs How long to measure
+   */
+  runRenderBenchmark = durationMs => {
+    return this.nativeModule.runRenderBenchmark(durationMs);
+  }
+
   /**
    * SendString to datatrack
    * @param  {String} message    The message string to send
@@ -191,33 +356,124 @@ class TwilioVideo {
     this.nativeModule.sendString(message);
   };
 
+  /**
+   * Send a binary message on the datatrack (Android only)
+   * @param  {String} base64    The payload, base64 encoded. It is sent as raw bytes.
+   */
+  sendBinary = base64 => {
+    this.nativeModule.sendBinary(base64);
+  };
+
+  /**
+   * Queue a string on the native send pipeline (Android only). Strings above the 16 KiB datatrack
+   * message limit are sent whole, or chunked when setDataTrackChunkingEnabled(true) was called.
+   * @param  {String} message
+   * @param  {String} priority    'high', 'normal' or 'bulk'
+   */
+  enqueueString = (message, priority = 'normal') => {
+    this.nativeModule.enqueueString(message, priority);
+  };
+
+  /**
+   * Queue a base64 encoded binary payload on the native send pipeline (Android only). It is sent
+   * as raw bytes, unless chunking is enabled and it is above 16 KiB.
+   * @param  {String} base64
+   * @param  {String} priority    'high', 'normal' or 'bulk'
+   */
+  enqueueBinary = (base64, priority = 'normal') => {
+    this.nativeModule.enqueueBinary(base64, priority);
+  };
+
+  /**
+   * Split queued messages above 16 KiB into chunks of up to 4 MiB in total (Android only). Only
+   * Android receivers using this library reassemble them. iOS and web peers get every chunk as a
+   * separate string message, '~TVCHUNK1~|<s|b>|<id>|<index>|<count>|<base64 payload>', so only
+   * enable it when all peers run Android.
+   * @param  {Boolean} enabled
+   */
+  setDataTrackChunkingEnabled = enabled => {
+    this.nativeModule.setDataTrackChunkingEnabled(enabled);
+  };
+
+  /**
+   * onDataTrackSendQueueChanged fires when the queued bytes cross this mark (Android only)
+   * @param  {Number} bytes
+   */
+  setDataTrackSendHighWaterMark = bytes => {
+    this.nativeModule.setDataTrackSendHighWaterMark(bytes);
+  };
+
+  /**
+   * Deliver incoming datatrack messages in batches through onDataTrackMessagesReceived (Android only)
+   * @param  {Boolean} enabled
+   * @param  {Number}  flushIntervalMs  Longest time a message is held back
+   * @param  {Number}  maxBatchSize     Flush as soon as this many messages are buffered
+   */
+  setDataTrackMessageBatching = (enabled, flushIntervalMs = 50, maxBatchSize = 64) => {
+    this.nativeModule.setDataTrackMessageBatching(enabled, flushIntervalMs, maxBatchSize);
+  };
+
+  /**
+   * Announce participants and tracks once and refer to them by handle in later events
+   * (Android only). Listeners keep receiving the verbose shape.
+   * @param  {Boolean} enabled
+   */
+  setCompactEventsEnabled = enabled => {
+    this.nativeModule.setCompactEventsEnabled(enabled);
+  };
+
+  // Subscribes with compact descriptors expanded back to their verbose shape
+  addListener = (eventName, callback) => {
+    return this.eventEmitter.addListener(eventName, data => callback(this.expandHandles(data)));
+  };
+
+  expandHandles = data => {
+    if (!data || (!data.participant && !data.track && !data.participants)) {
+      return data;
+    }
+    const expand = value => (
+      value && value.handle !== undefined ? { ...this.handles[value.handle], ...value } : value
+    );
+    const expanded = { ...data };
+    if (data.participant) {
+      expanded.participant = expand(data.participant);
+    }
+    if (data.track) {
+      expanded.track = expand(data.track);
+    }
+    if (data.participants) {
+      expanded.participants = data.participants.map(expand);
+    }
+    return expanded;
+  };
+
   onRoomDidConnect = callback => {
-    return this.eventEmitter.addListener('TwilioVideo.onRoomDidConnect', callback);
+    return this.addListener('TwilioVideo.onRoomDidConnect', callback);
   };
 
   onRoomDidDisconnect = callback => {
-    return this.eventEmitter.addListener(
+    return this.addListener(
       'TwilioVideo.onRoomDidDisconnect',
       ({ error, ...rest }) => callback({ ...rest, error: error ? new TwilioError(error.code, error.message) : undefined }),
     );
   };
 
   onRoomDidFailToConnect = callback => {
-    return this.eventEmitter.addListener(
+    return this.addListener(
       'TwilioVideo.onRoomDidFailToConnect',
       ({ error, ...rest }) => callback({ ...rest, error: new TwilioError(error.code, error.message) }),
     );
   };
 
   onRoomParticipantDidConnect = callback => {
-    return this.eventEmitter.addListener(
+    return this.addListener(
       'TwilioVideo.onRoomParticipantDidConnect',
       callback,
     );
   };
 
   onRoomParticipantDidDisconnect = callback => {
-    return this.eventEmitter.addListener(
+    return this.addListener(
       'TwilioVideo.onRoomParticipantDidDisconnect',
       callback,
     );
@@ -226,21 +482,21 @@ class TwilioVideo {
   // Audio tracks
 
   onParticipantAddedAudioTrack = callback => {
-    return this.eventEmitter.addListener(
+    return this.addListener(
       'TwilioVideo.onParticipantAddedAudioTrack',
       callback,
     );
   };
 
   onParticipantRemovedAudioTrack = callback => {
-    return this.eventEmitter.addListener(
+    return this.addListener(
       'TwilioVideo.onParticipantRemovedAudioTrack',
       callback,
     );
   };
 
   onParticipantFailedToSubscribeToAudioTrack = callback => {
-    return this.eventEmitter.addListener(
+    return this.addListener(
       'TwilioVideo.onParticipantFailedToSubscribeToAudioTrack',
       callback,
     );
@@ -250,21 +506,21 @@ class TwilioVideo {
   // Video tracks
 
   onParticipantAddedVideoTrack = callback => {
-    return this.eventEmitter.addListener(
+    return this.addListener(
       'TwilioVideo.onParticipantAddedVideoTrack',
       callback,
     );
   };
 
   onParticipantRemovedVideoTrack = callback => {
-    return this.eventEmitter.addListener(
+    return this.addListener(
       'TwilioVideo.onParticipantRemovedVideoTrack',
       callback,
     );
   };
 
   onParticipantFailedToSubscribeToVideoTrack = callback => {
-    return this.eventEmitter.addListener(
+    return this.addListener(
       'TwilioVideo.onParticipantFailedToSubscribeToVideoTrack',
       callback,
     );
@@ -273,48 +529,140 @@ class TwilioVideo {
   // Data tracks
 
   onParticipantAddedDataTrack = callback => {
-    return this.eventEmitter.addListener(
+    return this.addListener(
       'TwilioVideo.onParticipantAddedDataTrack',
       callback,
     );
   };
 
   onParticipantRemovedDataTrack = callback => {
-    return this.eventEmitter.addListener(
+    return this.addListener(
       'TwilioVideo.onParticipantRemovedDataTrack',
       callback,
     );
   };
 
   onParticipantFailedToSubscribeToDataTrack = callback => {
-    return this.eventEmitter.addListener(
+    return this.addListener(
       'TwilioVideo.onParticipantFailedToSubscribeToDataTrack',
       callback
     );
   }
 
   onDataTrackMessageReceived = callback => {
-    return this.eventEmitter.addListener(
+    return this.addListener(
       'TwilioVideo.onDataTrackMessageReceived',
       callback,
     );
   };
 
+  onDataTrackMessagesReceived = callback => {
+    return this.addListener(
+      'TwilioVideo.onDataTrackMessagesReceived',
+      callback,
+    );
+  };
+
+  onDataTrackSendQueueChanged = callback => {
+    return this.addListener(
+      'TwilioVideo.onDataTrackSendQueueChanged',
+      callback,
+    );
+  };
+
+  onRenderTelemetry = callback => {
+    return this.addListener(
+      'TwilioVideo.onRenderTelemetry',
+      callback,
+    );
+  };
+
+  onSpotlightChanged = callback => {
+    return this.addListener(
+      'TwilioVideo.onSpotlightChanged',
+      callback,
+    );
+  };
+
+  onCaptureFormatChanged = callback => {
+    return this.addListener(
+      'TwilioVideo.onCaptureFormatChanged',
+      callback,
+    );
+  };
+
+  onCameraSwitched = callback => {
+    return this.addListener(
+      'TwilioVideo.onCameraSwitched',
+      callback,
+    );
+  };
+
+  onLocalVideoResumed = callback => {
+    return this.addListener(
+      'TwilioVideo.onLocalVideoResumed',
+      callback,
+    );
+  };
+
+  onDataTrackBinaryMessageReceived = callback => {
+    return this.addListener(
+      'TwilioVideo.onDataTrackBinaryMessageReceived',
+      callback,
+    );
+  };
+
   // Stats
 
   onStatsReceived = callback => {
-    return this.eventEmitter.addListener('TwilioVideo.onStatsReceived', callback);
+    return this.addStatsListener('TwilioVideo.onStatsReceived', callback);
+  };
+
+  onStatsDeltaReceived = callback => {
+    return this.addStatsListener('TwilioVideo.onStatsDeltaReceived', callback);
+  };
+
+  onStatsSummary = callback => {
+    return this.addStatsListener('TwilioVideo.onStatsSummary', callback);
+  };
+
+  // Keeps the native stats scheduler informed whether anybody is listening (Android only)
+  addStatsListener = (eventName, callback) => {
+    const subscription = this.eventEmitter.addListener(eventName, callback);
+    if (Platform.OS !== 'android') {
+      return subscription;
+    }
+    this.updateStatsListenerCount(1);
+    const remove = subscription.remove.bind(subscription);
+    let removed = false;
+    subscription.remove = () => {
+      if (!removed) {
+        removed = true;
+        this.updateStatsListenerCount(-1);
+      }
+      remove();
+    };
+    return subscription;
+  };
+
+  updateStatsListenerCount = delta => {
+    const wasAttached = this.statsListenerCount > 0;
+    this.statsListenerCount += delta;
+    const attached = this.statsListenerCount > 0;
+    if (attached !== wasAttached) {
+      this.nativeModule.setStatsListenerAttached(attached);
+    }
   };
 
   onNetworkQualityLevelsChanged = callback => {
-    return this.eventEmitter.addListener(
+    return this.addListener(
       'TwilioVideo.onNetworkQualityLevelsChanged',
       callback,
     );
   }
 
   onDominantSpeakerChanged = callback => {
-    return this.eventEmitter.addListener(
+    return this.addListener(
       'TwilioVideo.onDominantSpeakerChanged',
       callback,
     );
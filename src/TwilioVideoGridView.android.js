@@ -0,0 +1,46 @@
+/**
+ * Component for a grid of participant video tracks drawn into one surface.
+ */
+
+import { requireNativeComponent } from 'react-native'
+import PropTypes from 'prop-types'
+import React from 'react'
+
+class TwilioVideoGridView extends React.Component {
+  static propTypes = {
+    /**
+     * The video tracks to show, in tile order. Tiles are updated in place when it changes.
+     */
+    trackSids: PropTypes.arrayOf(PropTypes.string).isRequired,
+    /**
+     * Grid columns, 0 or none for a square grid, and spacing in dp between tiles. tiles places
+     * tiles explicitly, as fractions of the view.
+     */
+    layout: PropTypes.shape({
+      columns: PropTypes.number,
+      spacing: PropTypes.number,
+      tiles: PropTypes.arrayOf(PropTypes.shape({
+        x: PropTypes.number.isRequired,
+        y: PropTypes.number.isRequired,
+        width: PropTypes.number.isRequired,
+        height: PropTypes.number.isRequired
+      }))
+    }),
+    scaleType: PropTypes.oneOf(['fit', 'fill']),
+    /**
+     * Cap on the frame rate each tile is drawn at, 0 draws every frame.
+     */
+    maxRenderFps: PropTypes.number
+  }
+
+  render () {
+    return <NativeTwilioCompositePreview {...this.props} />
+  }
+}
+
+const NativeTwilioCompositePreview = requireNativeComponent(
+  'RNTwilioCompositePreview',
+  TwilioVideoGridView
+)
+
+module.exports = TwilioVideoGridView
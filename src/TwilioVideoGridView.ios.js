@@ -0,0 +1,12 @@
+/**
+ * The composite grid is Android only, on iOS render a TwilioVideoParticipantView per track.
+ */
+
+import React from 'react'
+import { View } from 'react-native'
+
+const TwilioVideoGridView = ({ trackSids, layout, scaleType, maxRenderFps, ...props }) => (
+  <View {...props} />
+)
+
+module.exports = TwilioVideoGridView
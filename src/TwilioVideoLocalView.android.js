@@ -6,10 +6,15 @@
  */
 
 import { requireNativeComponent, View } from 'react-native'
+import PropTypes from 'prop-types'
 import React from 'react'
 
 const propTypes = {
-  ...View.propTypes
+  ...View.propTypes,
+  /**
+   * Cap on the frame rate the view is drawn at, 0 draws every frame.
+   */
+  maxRenderFps: PropTypes.number
 }
 
 class TwilioVideoPreview extends React.Component {
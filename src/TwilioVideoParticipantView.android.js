@@ -18,6 +18,14 @@ class TwilioRemotePreview extends React.Component {
       videoTrackSid: PropTypes.string.isRequired
     }),
     trackSid: PropTypes.string,
+    /**
+     * Cap on the frame rate the view is drawn at, 0 draws every frame.
+     */
+    maxRenderFps: PropTypes.number,
+    /**
+     * Follow the dominant speaker instead of trackIdentifier, see configureSpotlight.
+     */
+    spotlight: PropTypes.bool,
     renderToHardwareTextureAndroid: PropTypes.string,
     onLayout: PropTypes.string,
     accessibilityLiveRegion: PropTypes.string,